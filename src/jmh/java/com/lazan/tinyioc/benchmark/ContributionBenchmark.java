@@ -0,0 +1,145 @@
+package com.lazan.tinyioc.benchmark;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lazan.tinyioc.MappedConfiguration;
+import com.lazan.tinyioc.MappedContributor;
+import com.lazan.tinyioc.OrderedConfiguration;
+import com.lazan.tinyioc.OrderedContributor;
+import com.lazan.tinyioc.ServiceBinder;
+import com.lazan.tinyioc.ServiceBuilder;
+import com.lazan.tinyioc.ServiceBuilderContext;
+import com.lazan.tinyioc.ServiceModule;
+import com.lazan.tinyioc.ServiceRegistryBuilder;
+import com.lazan.tinyioc.UnorderedConfiguration;
+import com.lazan.tinyioc.UnorderedContributor;
+
+/**
+ * Building ordered, unordered and mapped contributions. Contributions are built once per service so each
+ * invocation assembles a new registry, the cost of which is measured separately by {@link #emptyRegistry()}.
+ * Ordered contributions are chained with {@code after} constraints so the sort has work to do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ContributionBenchmark {
+	@Param({ "10", "100", "10000" })
+	public int size;
+
+	private ServiceModule orderedModule;
+	private ServiceModule unorderedModule;
+	private ServiceModule mappedModule;
+	private ServiceModule emptyModule;
+
+	@Setup
+	public void setup() {
+		orderedModule = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(List.class, new ServiceBuilder<List>() {
+					@Override
+					public List build(ServiceBuilderContext context) {
+						return context.getOrderedContributions();
+					}
+				});
+				binder.contribute(List.class, new OrderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+						// reverse declaration order to force reordering
+						for (int i = 0; i < size; ++i) {
+							String id = "c" + i;
+							if (i == 0) {
+								configuration.add(id, id);
+							} else {
+								configuration.add(id, id).before("c" + (i - 1));
+							}
+						}
+					}
+				});
+			}
+		};
+		unorderedModule = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Collection.class, new ServiceBuilder<Collection>() {
+					@Override
+					public Collection build(ServiceBuilderContext context) {
+						return context.getUnorderedContributions();
+					}
+				});
+				binder.contribute(Collection.class, new UnorderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, UnorderedConfiguration<String> configuration) {
+						for (int i = 0; i < size; ++i) {
+							configuration.add("c" + i, "c" + i);
+						}
+					}
+				});
+			}
+		};
+		mappedModule = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Map.class, new ServiceBuilder<Map>() {
+					@Override
+					public Map build(ServiceBuilderContext context) {
+						return context.getMappedContributions();
+					}
+				});
+				binder.contribute(Map.class, new MappedContributor<String, String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, MappedConfiguration<String, String> configuration) {
+						for (int i = 0; i < size; ++i) {
+							configuration.add("c" + i, "k" + i, "v" + i);
+						}
+					}
+				});
+			}
+		};
+		emptyModule = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "foo");
+			}
+		};
+	}
+
+	@Benchmark
+	public Object ordered() {
+		return new ServiceRegistryBuilder().withModule(orderedModule).build().getService(List.class);
+	}
+
+	@Benchmark
+	public Object unordered() {
+		return new ServiceRegistryBuilder().withModule(unorderedModule).build().getService(Collection.class);
+	}
+
+	@Benchmark
+	public Object mapped() {
+		return new ServiceRegistryBuilder().withModule(mappedModule).build().getService(Map.class);
+	}
+
+	@Benchmark
+	public Object emptyRegistry() {
+		return new ServiceRegistryBuilder().withModule(emptyModule).build().getService(String.class);
+	}
+}
@@ -0,0 +1,85 @@
+package com.lazan.tinyioc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lazan.tinyioc.ServiceBinder;
+import com.lazan.tinyioc.ServiceBuilderContext;
+import com.lazan.tinyioc.ServiceModule;
+import com.lazan.tinyioc.ServiceRegistry;
+import com.lazan.tinyioc.ServiceRegistryBuilder;
+import com.lazan.tinyioc.internal.InjectionServiceBuilder;
+import com.lazan.tinyioc.internal.ServiceBuilderContextImpl;
+
+/**
+ * {@link InjectionServiceBuilder#build(ServiceBuilderContext)} with warm dependencies, isolating the cost of
+ * constructor and field injection from the registry
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InjectionBenchmark {
+	public static class ConstructorBean {
+		private final String name;
+		private final Integer count;
+
+		public ConstructorBean(@Named("name") String name, Integer count) {
+			this.name = name;
+			this.count = count;
+		}
+	}
+
+	public static class FieldBean {
+		@Inject @Named("name")
+		private String name;
+
+		@Inject
+		private Integer count;
+	}
+
+	private ServiceBuilderContext constructorContext;
+	private ServiceBuilderContext fieldContext;
+	private InjectionServiceBuilder<ConstructorBean> constructorBuilder;
+	private InjectionServiceBuilder<FieldBean> fieldBuilder;
+
+	@Setup
+	public void setup() {
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModule(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "foo").withServiceId("name");
+				binder.bind(Integer.class, 42);
+			}
+		}).build();
+		constructorContext = new ServiceBuilderContextImpl(registry, "constructorBean", ConstructorBean.class);
+		fieldContext = new ServiceBuilderContextImpl(registry, "fieldBean", FieldBean.class);
+		constructorBuilder = new InjectionServiceBuilder<>(ConstructorBean.class);
+		fieldBuilder = new InjectionServiceBuilder<>(FieldBean.class);
+	}
+
+	@Benchmark
+	public ConstructorBean constructorInjection() {
+		return constructorBuilder.build(constructorContext);
+	}
+
+	@Benchmark
+	public FieldBean fieldInjection() {
+		return fieldBuilder.build(fieldContext);
+	}
+}
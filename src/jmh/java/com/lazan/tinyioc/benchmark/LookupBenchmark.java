@@ -0,0 +1,87 @@
+package com.lazan.tinyioc.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lazan.tinyioc.ServiceBinder;
+import com.lazan.tinyioc.ServiceModule;
+import com.lazan.tinyioc.ServiceRegistry;
+import com.lazan.tinyioc.ServiceRegistryBuilder;
+
+/**
+ * Warm lookups of singleton services which have already been built, with a {@link HashMap} lookup of the same
+ * instances as the baseline. A warm getService(String) is a HashMap probe of the serviceId plus two dependent
+ * field reads (the reference's holder and the holder's final field). getService(Class) probes the type index
+ * instead and reads the single candidate from two int/reference arrays first. Neither locks, allocates or reads
+ * a volatile, so they should score a few nanoseconds above hashMapGet rather than level with it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+	public static interface Handler {}
+	public static class Handler1 implements Handler {}
+	public static class Handler2 implements Handler {}
+	public static class Handler3 implements Handler {}
+
+	private ServiceRegistry registry;
+	private Map<String, Object> services;
+
+	@Setup
+	public void setup() {
+		registry = new ServiceRegistryBuilder().withModule(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "foo").withServiceId("string");
+				binder.bind(Handler.class, Handler1.class).withServiceId("handler1");
+				binder.bind(Handler.class, Handler2.class).withServiceId("handler2");
+				binder.bind(Handler.class, Handler3.class).withServiceId("handler3");
+			}
+		}).build();
+		registry.getServices(Handler.class);
+		services = new HashMap<>();
+		for (String serviceId : registry.getServiceIds()) {
+			services.put(serviceId, registry.getService(serviceId));
+		}
+	}
+
+	@Benchmark
+	public Object hashMapGet() {
+		return services.get("string");
+	}
+
+	@Benchmark
+	public String getServiceByType() {
+		return registry.getService(String.class);
+	}
+
+	@Benchmark
+	public Object getServiceById() {
+		return registry.getService("string");
+	}
+
+	@Benchmark
+	public String getServiceByIdAndType() {
+		return registry.getService("string", String.class);
+	}
+
+	@Benchmark
+	public Map<String, Handler> getServices() {
+		return registry.getServices(Handler.class);
+	}
+}
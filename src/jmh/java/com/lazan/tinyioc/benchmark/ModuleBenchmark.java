@@ -0,0 +1,63 @@
+package com.lazan.tinyioc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lazan.tinyioc.ServiceBinder;
+import com.lazan.tinyioc.ServiceRegistry;
+import com.lazan.tinyioc.ServiceRegistryBuilder;
+import com.lazan.tinyioc.ServiceScope;
+import com.lazan.tinyioc.annotations.Bind;
+import com.lazan.tinyioc.annotations.Service;
+import com.lazan.tinyioc.internal.AnnotatedServiceModule;
+
+/**
+ * Invoking {@link AnnotatedServiceModule} methods: a prototype {@code @Service} method is called on every lookup
+ * and {@link #bindModule()} measures scanning and binding a module
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModuleBenchmark {
+	public static class BenchmarkModule {
+		@Bind
+		public static void bind(ServiceBinder binder) {
+			binder.bind(Integer.class, 42);
+		}
+
+		@Service(serviceId = "prototype", scope = ServiceScope.PROTOTYPE)
+		public StringBuilder prototype(Integer count) {
+			return new StringBuilder().append(count);
+		}
+	}
+
+	private ServiceRegistry registry;
+
+	@Setup
+	public void setup() {
+		registry = new ServiceRegistryBuilder().withModule(new AnnotatedServiceModule(BenchmarkModule.class)).build();
+	}
+
+	@Benchmark
+	public StringBuilder invokeServiceMethod() {
+		return registry.getService("prototype", StringBuilder.class);
+	}
+
+	@Benchmark
+	public ServiceRegistry bindModule() {
+		return new ServiceRegistryBuilder().withModule(new AnnotatedServiceModule(BenchmarkModule.class)).build();
+	}
+}
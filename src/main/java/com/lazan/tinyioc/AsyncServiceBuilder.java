@@ -0,0 +1,29 @@
+package com.lazan.tinyioc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Builder for a service which needs I/O to initialize. {@link ServiceRegistry#getServiceAsync(Class)} calls
+ * {@link #buildAsync(ServiceBuilderContext)} on the registry's async executor and completes when the future does,
+ * so no thread waits for the I/O. A synchronous lookup waits for the future.
+ */
+public abstract class AsyncServiceBuilder<T> implements ServiceBuilder<T> {
+	public abstract CompletableFuture<T> buildAsync(ServiceBuilderContext context);
+
+	@Override
+	public final T build(ServiceBuilderContext context) {
+		try {
+			return buildAsync(context).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IocException(cause, "Error building serviceId '%s'", context.getServiceId());
+		}
+	}
+}
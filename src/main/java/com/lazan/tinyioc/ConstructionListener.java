@@ -0,0 +1,56 @@
+package com.lazan.tinyioc;
+
+/**
+ * Notified as services are constructed, see {@link ServiceRegistryBuilder#withConstructionListener(ConstructionListener)}.
+ * Callbacks are made on the constructing thread and spans nest: the dependencies of a service are constructed
+ * within the {@link Phase#BUILD}, {@link Phase#DECORATE}, {@link Phase#CONTRIBUTE} or {@link Phase#CONTRIBUTION}
+ * span which requested them. Listeners must be thread safe and should be cheap since they run on the build path.
+ */
+public interface ConstructionListener {
+	enum Phase {
+		/**
+		 * Constructing one instance of a service: its contributions (when not already prepared), builder and decorators
+		 */
+		CONSTRUCT,
+		
+		/**
+		 * A {@link ServiceBuilder#build(ServiceBuilderContext)} call
+		 */
+		BUILD,
+		
+		/**
+		 * A {@link ServiceDecorator#decorate(ServiceBuilderContext, Object)} call, the detail is the decoratorId
+		 */
+		DECORATE,
+		
+		/**
+		 * An ordered, unordered or mapped contributor call, the detail is the contributor type
+		 */
+		CONTRIBUTE,
+		
+		/**
+		 * Building a contributed value, the detail is the contributionId
+		 */
+		CONTRIBUTION,
+		
+		/**
+		 * Eager loading a service while the registry is assembled
+		 */
+		EAGER_LOAD
+	}
+	
+	/**
+	 * @param detail the decoratorId, contributor type or contributionId, null for other phases
+	 */
+	void begin(Phase phase, String serviceId, Class<?> serviceType, String detail);
+	
+	/**
+	 * Called for every {@link #begin(Phase, String, Class, String)}, including when the phase fails
+	 */
+	void end(Phase phase, String serviceId, Class<?> serviceType, String detail);
+	
+	/**
+	 * Called when a thread was blocked while another thread constructed the service
+	 */
+	void waited(String serviceId, Class<?> serviceType, long nanos);
+}
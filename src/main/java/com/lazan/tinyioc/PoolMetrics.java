@@ -0,0 +1,40 @@
+package com.lazan.tinyioc;
+
+/**
+ * Live statistics for a {@link ServiceScope#POOLED} service
+ */
+public interface PoolMetrics {
+	int getMinSize();
+	int getMaxSize();
+	
+	/**
+	 * @return instances currently waiting in the pool
+	 */
+	int getIdleCount();
+	
+	/**
+	 * @return instances currently borrowed
+	 */
+	int getActiveCount();
+	
+	long getBorrowCount();
+	
+	/**
+	 * @return borrows which found no idle instance and had to build a new one
+	 */
+	long getMissCount();
+	
+	/**
+	 * @return missCount / borrowCount, or 0 if nothing has been borrowed
+	 */
+	double getMissRate();
+	
+	long getEvictionCount();
+	
+	/**
+	 * @return total time spent waiting for a free slot when the pool was at its maximum size
+	 */
+	long getTotalBorrowWaitNanos();
+	
+	long getMaxBorrowWaitNanos();
+}
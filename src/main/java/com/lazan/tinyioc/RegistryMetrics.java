@@ -0,0 +1,22 @@
+package com.lazan.tinyioc;
+
+import java.util.List;
+
+import javax.management.MXBean;
+
+/**
+ * Construction statistics for the services of a registry, see {@link ServiceRegistryBuilder#withMetrics()}.
+ * Can be registered as a JMX MXBean using {@link ServiceRegistryBuilder#withMetricsMBean(String)}
+ */
+@MXBean
+public interface RegistryMetrics {
+	/**
+	 * @return the metrics of every service which has been constructed, slowest (by total time) first
+	 */
+	List<ServiceMetrics> getServiceMetrics();
+	
+	/**
+	 * @return the metrics of the service, all zero if it hasn't been constructed
+	 */
+	ServiceMetrics getServiceMetrics(String serviceId);
+}
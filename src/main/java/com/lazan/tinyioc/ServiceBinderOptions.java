@@ -3,4 +3,26 @@ package com.lazan.tinyioc;
 public interface ServiceBinderOptions {
 	ServiceBinderOptions withServiceId(String serviceId);
 	ServiceBinderOptions eagerLoad();
+	
+	/**
+	 * Defer building the service until the first method call. Lookups and injection return a proxy which
+	 * builds the service on first use, the serviceType must be an interface
+	 */
+	ServiceBinderOptions lazy();
+	ServiceBinderOptions withScope(ServiceScope scope);
+	
+	/**
+	 * Sets the scope to {@link ServiceScope#POOLED}
+	 * @param minSize instances built when the pool is created and never evicted
+	 * @param maxSize maximum instances in use at once, borrowers block when all are in use
+	 * @param maxIdleMillis idle instances above minSize are evicted after this time
+	 */
+	ServiceBinderOptions withPool(int minSize, int maxSize, long maxIdleMillis);
+	
+	/**
+	 * Build the service's contributed values concurrently, see
+	 * {@link ServiceRegistryBuilder#withContributionExecutor(java.util.concurrent.Executor)}. Contributors still
+	 * run in order and the values keep their order
+	 */
+	ServiceBinderOptions withParallelContributions();
 }
@@ -0,0 +1,13 @@
+package com.lazan.tinyioc;
+
+/**
+ * A service instance borrowed from the registry. For {@link ServiceScope#POOLED} services the instance is
+ * returned to the pool on {@link #close()}, for other scopes closing is a no-op. Leases are not thread safe
+ * and the instance must not be used after the lease is closed.
+ */
+public interface ServiceLease<T> extends AutoCloseable {
+	T get();
+	
+	@Override
+	void close();
+}
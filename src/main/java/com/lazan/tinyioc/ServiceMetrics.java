@@ -0,0 +1,56 @@
+package com.lazan.tinyioc;
+
+import java.util.Map;
+
+/**
+ * Construction statistics for a single service. Times are wall clock nanoseconds, "self" figures exclude the
+ * dependencies constructed while the service was being built
+ */
+public interface ServiceMetrics {
+	String getServiceId();
+	
+	/**
+	 * @return instances constructed, more than one for prototype, per thread and pooled services
+	 */
+	long getConstructionCount();
+	
+	/**
+	 * @return time constructing the service including its dependencies
+	 */
+	long getTotalNanos();
+	
+	/**
+	 * @return time constructing the service excluding its dependencies
+	 */
+	long getSelfNanos();
+	
+	/**
+	 * @return self time in {@link ServiceBuilder#build(ServiceBuilderContext)}
+	 */
+	long getBuildNanos();
+	
+	/**
+	 * @return self CPU time in {@link ServiceBuilder#build(ServiceBuilderContext)}, or -1 if CPU time isn't measurable
+	 */
+	long getBuildCpuNanos();
+	
+	/**
+	 * @return self time in each decorator keyed by decoratorId
+	 */
+	Map<String, Long> getDecoratorNanos();
+	
+	/**
+	 * @return self time in contributors and building contributed values
+	 */
+	long getContributionNanos();
+	
+	/**
+	 * @return bytes allocated by the constructing thread excluding dependencies, or -1 if allocations aren't measurable
+	 */
+	long getAllocatedBytes();
+	
+	/**
+	 * @return time threads were blocked while another thread constructed the service
+	 */
+	long getWaitNanos();
+}
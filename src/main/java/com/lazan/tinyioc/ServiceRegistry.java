@@ -2,12 +2,53 @@ package com.lazan.tinyioc;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-public interface ServiceRegistry {
+public interface ServiceRegistry extends AutoCloseable {
 	Set<String> getServiceIds();
 	Set<Class<?>> getServiceTypes();
 	<T> T getService(Class<T> serviceType);
 	Object getService(String serviceId);
 	<T> T getService(String serviceId, Class<T> serviceType);
 	<T> Map<String, T> getServices(Class<T> serviceType);
+
+	/**
+	 * Get a service without blocking the calling thread. A singleton is built on the async executor (see
+	 * {@link ServiceRegistryBuilder#withAsyncExecutor(java.util.concurrent.Executor)}) once the singletons it
+	 * injects are ready, concurrent callers share one future and an {@link AsyncServiceBuilder} isn't waited for.
+	 * An unknown service fails immediately, a failing build fails the future
+	 */
+	<T> CompletableFuture<T> getServiceAsync(Class<T> serviceType);
+	<T> CompletableFuture<T> getServiceAsync(String serviceId, Class<T> serviceType);
+
+	/**
+	 * @return the service if it is already built (a lazy proxy always is), otherwise null. Never builds or blocks
+	 */
+	<T> T getServiceIfReady(Class<T> serviceType);
+	<T> T getServiceIfReady(String serviceId, Class<T> serviceType);
+	<T> ServiceLease<T> borrowService(Class<T> serviceType);
+	<T> ServiceLease<T> borrowService(String serviceId, Class<T> serviceType);
+	PoolMetrics getPoolMetrics(String serviceId);
+	RegistryMetrics getMetrics();
+
+	/**
+	 * Replace the builder of a service at runtime. The service and the built services which were constructed with
+	 * it are rebuilt and then published together, the rest of the registry is untouched. Each instance is wired
+	 * wholly to old or wholly to new services, but the publish isn't atomic across services: a lookup running
+	 * concurrently may see a new instance of one service and an old instance of another. The new services are
+	 * visible to the calling thread once this returns, other threads are only guaranteed to see them after
+	 * synchronizing with it
+	 */
+	void rebind(String serviceId, ServiceBuilder<?> builder);
+
+	/**
+	 * Close the built services which are AutoCloseable, each after the services depending on it. Independent
+	 * services close in parallel and a service taking longer than the close timeout is no longer waited for,
+	 * see {@link ServiceRegistryBuilder#withCloseTimeout(long, java.util.concurrent.TimeUnit)}. Services which
+	 * were never built are skipped.
+	 *
+	 * @throws IocException if any service failed or timed out, after the other services have closed
+	 */
+	@Override
+	void close();
 }
@@ -1,14 +1,31 @@
 package com.lazan.tinyioc;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
-import com.lazan.tinyioc.internal.AnnotatedServiceModule;
+import com.lazan.tinyioc.internal.CloseSettings;
+import com.lazan.tinyioc.internal.GeneratedTypes;
+import com.lazan.tinyioc.internal.MetricsRecorder;
+import com.lazan.tinyioc.internal.ModuleIndex;
 import com.lazan.tinyioc.internal.ServiceRegistryImpl;
+import com.lazan.tinyioc.internal.TraceRecorder;
 
 public class ServiceRegistryBuilder {
 	private List<ServiceModule> modules = new LinkedList<>();
+	private Executor eagerLoadExecutor;
+	private List<ConstructionListener> listeners = new ArrayList<>();
+	private MetricsRecorder metrics;
+	private String metricsObjectName;
+	private File traceFile;
+	private ServiceRegistryImpl parent;
+	private CloseSettings closeSettings = CloseSettings.DEFAULT;
+	private Executor asyncExecutor;
+	private Executor contributionExecutor;
 	
 	public ServiceRegistryBuilder withModule(ServiceModule module) {
 		modules.add(module);
@@ -26,8 +43,12 @@ public class ServiceRegistryBuilder {
 		return withModules(Arrays.asList(modules));
 	}
 	
+	/**
+	 * Add a module type, its public methods are scanned for tiny-ioc annotations when the registry is built. Use
+	 * {@link #withIndexedModules(ClassLoader)} to skip the scan
+	 */
 	public ServiceRegistryBuilder withModuleType(Class<?> moduleType) {
-		return withModule(new AnnotatedServiceModule(moduleType));
+		return withModule(GeneratedTypes.createServiceModule(moduleType));
 	}
 	
 	public ServiceRegistryBuilder withModuleTypes(Iterable<Class<?>> moduleTypes) {
@@ -43,8 +64,138 @@ public class ServiceRegistryBuilder {
 		}
 		return this;
 	}
+
+	/**
+	 * Add the modules listed in the META-INF/tiny-ioc/modules indexes written by the tiny-ioc annotation
+	 * processor, invoking only the indexed methods instead of scanning each module type
+	 */
+	public ServiceRegistryBuilder withIndexedModules(ClassLoader classLoader) {
+		return withModules(ModuleIndex.load(classLoader));
+	}
 	
+	/**
+	 * Build eagerLoad services concurrently using the executor (eg a ForkJoinPool or a virtual thread executor)
+	 * instead of one after another on the thread calling {@link #build()}. Services still wait for their
+	 * dependencies and the failures of all eager services are reported together.
+	 */
+	public ServiceRegistryBuilder withEagerLoadExecutor(Executor eagerLoadExecutor) {
+		this.eagerLoadExecutor = eagerLoadExecutor;
+		return this;
+	}
+
+	public ServiceRegistryBuilder withConstructionListener(ConstructionListener listener) {
+		listeners.add(listener);
+		return this;
+	}
+
+	/**
+	 * Record per service construction metrics, available from {@link ServiceRegistry#getMetrics()}
+	 */
+	public ServiceRegistryBuilder withMetrics() {
+		if (metrics == null) {
+			metrics = new MetricsRecorder();
+			listeners.add(metrics);
+		}
+		return this;
+	}
+
+	/**
+	 * Record metrics and register them with the platform MBean server as an MXBean named objectName
+	 * (eg "com.lazan.tinyioc:type=RegistryMetrics,name=myRegistry") once the registry is built. The MBean is
+	 * unregistered when the registry is closed
+	 */
+	public ServiceRegistryBuilder withMetricsMBean(String objectName) {
+		this.metricsObjectName = objectName;
+		return withMetrics();
+	}
+
+	/**
+	 * Record the construction of services while the registry is assembled (including eager loading) and write
+	 * it to a Chrome trace-event JSON file which can be opened in chrome://tracing or Perfetto
+	 */
+	public ServiceRegistryBuilder withStartupTrace(File traceFile) {
+		this.traceFile = traceFile;
+		return this;
+	}
+
+	/**
+	 * Build a child of the parent registry. The child sees every service of the parent and may bind new services
+	 * or override, decorate and contribute to the parent's. Services which it doesn't change are shared with the
+	 * parent (and built by it) so a child only costs its own bindings
+	 */
+	public ServiceRegistryBuilder withParent(ServiceRegistry parent) {
+		if (!(parent instanceof ServiceRegistryImpl)) {
+			throw new IocException("Parent registry must be built by a ServiceRegistryBuilder, found %s", parent.getClass().getName());
+		}
+		this.parent = (ServiceRegistryImpl) parent;
+		return this;
+	}
+
+	/**
+	 * Run the builders of services requested by {@link ServiceRegistry#getServiceAsync(Class)} on the executor
+	 * instead of the common ForkJoinPool, eg so that event loop threads never build services
+	 */
+	public ServiceRegistryBuilder withAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+		return this;
+	}
+
+	/**
+	 * Build the contributed values of every service concurrently on the executor, instead of only for services
+	 * bound {@link ServiceBinderOptions#withParallelContributions()} (which use the async executor). The thread
+	 * building a service builds the values which the executor hasn't started itself, so a bounded executor can't
+	 * be starved by contributed services nested in each other's values
+	 */
+	public ServiceRegistryBuilder withContributionExecutor(Executor contributionExecutor) {
+		this.contributionExecutor = contributionExecutor;
+		return this;
+	}
+
+	/**
+	 * Close services using the executor when the registry is closed, by default temporary daemon threads are
+	 * started for the services which can close in parallel
+	 */
+	public ServiceRegistryBuilder withCloseExecutor(Executor closeExecutor) {
+		this.closeSettings = new CloseSettings(closeExecutor, closeSettings.getTimeoutMillis());
+		return this;
+	}
+
+	/**
+	 * The time each service may take to close before the services it depends on are closed without it
+	 * (default 30 seconds)
+	 */
+	public ServiceRegistryBuilder withCloseTimeout(long timeout, TimeUnit unit) {
+		this.closeSettings = new CloseSettings(closeSettings.getExecutor(), unit.toMillis(timeout));
+		return this;
+	}
+
 	public ServiceRegistry build() {
-		return new ServiceRegistryImpl(modules);
+		List<ConstructionListener> registryListeners = new ArrayList<>(listeners);
+		TraceRecorder traceRecorder = null;
+		if (traceFile != null) {
+			traceRecorder = new TraceRecorder();
+			registryListeners.add(traceRecorder);
+		}
+		ServiceRegistryImpl registry;
+		try {
+			registry = new ServiceRegistryImpl(modules, eagerLoadExecutor, registryListeners, parent, closeSettings, asyncExecutor, contributionExecutor);
+		} finally {
+			if (traceRecorder != null) {
+				traceRecorder.write(traceFile);
+			}
+		}
+		if (metricsObjectName != null) {
+			try {
+				registry.registerMetricsMBean(metricsObjectName);
+			} catch (IocException e) {
+				try {
+					registry.close();
+				} catch (IocException closeError) {
+					e.addSuppressed(closeError);
+				}
+				throw e;
+			}
+		}
+		return registry;
 	}
 }
@@ -0,0 +1,26 @@
+package com.lazan.tinyioc;
+
+public enum ServiceScope {
+	/**
+	 * A single instance is built on first use and shared (the default)
+	 */
+	SINGLETON,
+	
+	/**
+	 * A new instance is built every time the service is looked up or injected. Contributions are built once
+	 * and shared between instances
+	 */
+	PROTOTYPE,
+	
+	/**
+	 * One instance is built per thread. Contributions are built once and shared between instances
+	 */
+	PER_THREAD,
+	
+	/**
+	 * Instances are kept in a bounded pool, borrowed with {@link ServiceRegistry#borrowService(Class)} and
+	 * returned when the lease is closed. Looking up or injecting a pooled interface type gives a proxy which
+	 * borrows an instance for the duration of each method call. See {@link ServiceBinderOptions#withPool(int, int, long)}
+	 */
+	POOLED
+}
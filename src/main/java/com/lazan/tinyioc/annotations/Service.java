@@ -5,9 +5,13 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import com.lazan.tinyioc.ServiceScope;
+
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Service {
 	String serviceId() default "";
 	boolean eagerLoad() default false;
+	boolean lazy() default false;
+	ServiceScope scope() default ServiceScope.SINGLETON;
 }
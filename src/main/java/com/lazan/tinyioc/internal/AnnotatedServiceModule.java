@@ -3,6 +3,8 @@ package com.lazan.tinyioc.internal;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -27,6 +29,7 @@ import com.lazan.tinyioc.ServiceDecorator;
 import com.lazan.tinyioc.ServiceDecoratorOptions;
 import com.lazan.tinyioc.ServiceModule;
 import com.lazan.tinyioc.ServiceRegistry;
+import com.lazan.tinyioc.ServiceScope;
 import com.lazan.tinyioc.UnorderedConfiguration;
 import com.lazan.tinyioc.UnorderedContributor;
 import com.lazan.tinyioc.annotations.Bind;
@@ -37,6 +40,7 @@ import com.lazan.tinyioc.annotations.ServiceOverride;
 
 public class AnnotatedServiceModule implements ServiceModule {
 	private final Class<?> moduleType;
+	private volatile List<Method> annotatedMethods;
 	
 	private static Map<Class<? extends Annotation>, AnnotationHandler> HANDLERS = new HashMap<>();
 	static {
@@ -84,22 +88,51 @@ public class AnnotatedServiceModule implements ServiceModule {
 	@Override
 	public void bind(ServiceBinder binder) {
 		Object[] instanceRef = new Object[1];
-		for (Method method : moduleType.getMethods()) {
-			Annotation handleMe = null;
-			for (Annotation ann : method.getAnnotations()) {
-				if (HANDLERS.containsKey(ann.annotationType())) {
-					if (handleMe != null) {
-						throw new IocException("Found %s and %s on %s.%s", handleMe.annotationType(), ann.annotationType(), moduleType.getName(), method.getName());
-					}
-					handleMe = ann;
+		for (Method method : getAnnotatedMethods()) {
+			Annotation handleMe = findHandledAnnotation(method);
+			Object instance = getInstance(instanceRef, method);
+			Class<? extends Annotation> annType = handleMe.annotationType();
+			HANDLERS.get(annType).handle(this, instance, method, handleMe, binder);
+		}
+	}
+	
+	/**
+	 * @return the public methods with a tiny-ioc annotation, scanned once per module instance unless
+	 * provided by a {@link ModuleIndex}
+	 */
+	public List<Method> getAnnotatedMethods() {
+		List<Method> methods = annotatedMethods;
+		if (methods == null) {
+			methods = new ArrayList<>();
+			for (Method method : moduleType.getMethods()) {
+				if (findHandledAnnotation(method) != null) {
+					methods.add(method);
 				}
 			}
-			if (handleMe != null) {
-				Object instance = getInstance(instanceRef, method);
-				Class<? extends Annotation> annType = handleMe.annotationType();
-				HANDLERS.get(annType).handle(this, instance, method, handleMe, binder);
+			annotatedMethods = methods;
+		}
+		return methods;
+	}
+	
+	void setAnnotatedMethods(List<Method> annotatedMethods) {
+		this.annotatedMethods = annotatedMethods;
+	}
+	
+	public Class<?> getModuleType() {
+		return moduleType;
+	}
+	
+	protected Annotation findHandledAnnotation(Method method) {
+		Annotation handleMe = null;
+		for (Annotation ann : method.getAnnotations()) {
+			if (HANDLERS.containsKey(ann.annotationType())) {
+				if (handleMe != null) {
+					throw new IocException("Found %s and %s on %s.%s", handleMe.annotationType(), ann.annotationType(), moduleType.getName(), method.getName());
+				}
+				handleMe = ann;
 			}
 		}
+		return handleMe;
 	}
 
 	protected Object getInstance(Object[] instanceRef, Method method) {
@@ -139,6 +172,12 @@ public class AnnotatedServiceModule implements ServiceModule {
 		if (annotation.eagerLoad()) {
 			options.eagerLoad();
 		}
+		if (annotation.lazy()) {
+			options.lazy();
+		}
+		if (annotation.scope() != ServiceScope.SINGLETON) {
+			options.withScope(annotation.scope());
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -151,6 +190,12 @@ public class AnnotatedServiceModule implements ServiceModule {
 		if (annotation.eagerLoad()) {
 			options.eagerLoad();
 		}
+		if (annotation.lazy()) {
+			options.lazy();
+		}
+		if (annotation.scope() != ServiceScope.SINGLETON) {
+			options.withScope(annotation.scope());
+		}
 	}
 	
 	private static final Set<Class<?>> CONTRIBUTION_TYPES = new LinkedHashSet<>(Arrays.asList(OrderedConfiguration.class, UnorderedConfiguration.class, MappedConfiguration.class));
@@ -239,7 +284,7 @@ public class AnnotatedServiceModule implements ServiceModule {
 	
 	@SuppressWarnings("rawtypes")
 	protected ServiceBuilder createServiceBuilder(Object instance, final Method method) {
-		return new ServiceBuilder() {
+		return new StaticServiceBuilder<Object>(getDependencies(method)) {
 			@Override
 			public Object build(ServiceBuilderContext context) {
 				ParameterProvider provider = new ParameterProvider() {
@@ -264,6 +309,25 @@ public class AnnotatedServiceModule implements ServiceModule {
 		};
 	}
 
+	/**
+	 * @return the services looked up by a service method, the unnamed Map, List and Collection parameters are
+	 * contributions
+	 */
+	protected List<Dependency> getDependencies(Method method) {
+		Class<?>[] paramTypes = method.getParameterTypes();
+		Type[] genericParamTypes = method.getGenericParameterTypes();
+		Annotation[][] paramAnnotations = method.getParameterAnnotations();
+		List<Dependency> dependencies = new ArrayList<>(paramTypes.length);
+		for (int i = 0; i < paramTypes.length; ++i) {
+			Named named = findAnnotation(paramAnnotations[i], Named.class);
+			Dependency dependency = Dependency.forValue(paramTypes[i], genericParamTypes[i], named == null ? null : named.value());
+			if (dependency != null) {
+				dependencies.add(dependency);
+			}
+		}
+		return dependencies;
+	}
+
 	@SuppressWarnings({"rawtypes", "unchecked"})
 	protected void decorate(Object instance, Method method, Decorate annotation, ServiceBinder binder) {
 		ServiceDecoratorOptions options = binder.decorate(method.getReturnType(), annotation.decoratorId(), new ServiceDecorator() {
@@ -302,6 +366,7 @@ public class AnnotatedServiceModule implements ServiceModule {
 
 	protected Object invoke(Method method, Object instance, ServiceBuilderContext context, ParameterProvider provider) {
 		Class<?>[] paramTypes = method.getParameterTypes();
+		Type[] genericParamTypes = method.getGenericParameterTypes();
 		ServiceRegistry registry = context.getServiceRegistry();
 		Annotation[][] paramAnnotations = method.getParameterAnnotations();
 		Object[] params = new Object[paramTypes.length];
@@ -313,7 +378,9 @@ public class AnnotatedServiceModule implements ServiceModule {
 				param = provider.provide(named, paramType);
 			} else  {
 				try {
-					if (named != null) {
+					if (ServiceProvider.isProviderType(paramType)) {
+						param = ServiceProvider.create(registry, named == null ? null : named.value(), ServiceProvider.getProvidedType(genericParamTypes[i]));
+					} else if (named != null) {
 						param = registry.getService(named.value(), paramType);
 					} else {
 						param = registry.getService(paramType);
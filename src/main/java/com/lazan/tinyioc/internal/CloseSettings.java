@@ -0,0 +1,34 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.concurrent.Executor;
+
+import com.lazan.tinyioc.IocException;
+
+public class CloseSettings {
+	public static final CloseSettings DEFAULT = new CloseSettings(null, 30000);
+
+	private final Executor executor;
+	private final long timeoutMillis;
+
+	/**
+	 * @param executor runs the close of each service, or null for temporary daemon threads
+	 * @param timeoutMillis the time a service may take to close before the services it depends on are closed
+	 * without it
+	 */
+	public CloseSettings(Executor executor, long timeoutMillis) {
+		super();
+		if (timeoutMillis <= 0) {
+			throw new IocException("Invalid close timeoutMillis %s", timeoutMillis);
+		}
+		this.executor = executor;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+}
@@ -0,0 +1,49 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.List;
+
+import com.lazan.tinyioc.ConstructionListener;
+
+/**
+ * Forwards to several listeners, {@link #end(Phase, String, Class, String)} is forwarded in reverse order so
+ * listeners see properly nested spans
+ */
+public class CompositeConstructionListener implements ConstructionListener {
+	private final ConstructionListener[] listeners;
+
+	public CompositeConstructionListener(List<ConstructionListener> listeners) {
+		super();
+		this.listeners = listeners.toArray(new ConstructionListener[listeners.size()]);
+	}
+
+	/**
+	 * @return null for no listeners, the listener itself for one listener, otherwise a composite
+	 */
+	public static ConstructionListener of(List<ConstructionListener> listeners) {
+		if (listeners.isEmpty()) {
+			return null;
+		}
+		return listeners.size() == 1 ? listeners.get(0) : new CompositeConstructionListener(listeners);
+	}
+
+	@Override
+	public void begin(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+		for (ConstructionListener listener : listeners) {
+			listener.begin(phase, serviceId, serviceType, detail);
+		}
+	}
+
+	@Override
+	public void end(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+		for (int i = listeners.length - 1; i >= 0; --i) {
+			listeners[i].end(phase, serviceId, serviceType, detail);
+		}
+	}
+
+	@Override
+	public void waited(String serviceId, Class<?> serviceType, long nanos) {
+		for (ConstructionListener listener : listeners) {
+			listener.waited(serviceId, serviceType, nanos);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.lazan.tinyioc.internal;
+
+import java.lang.reflect.Type;
+
+/**
+ * A service which a builder looks up, known without running the builder. See {@link StaticDependencies}
+ */
+public final class Dependency {
+	private final String serviceId;
+	private final Class<?> serviceType;
+	private final boolean deferred;
+
+	/**
+	 * @param serviceId the serviceId or null to find the service by type
+	 * @param serviceType the injected type (the type argument for a Provider / Supplier)
+	 * @param deferred true for a Provider / Supplier whose service is only resolved when the builder runs and
+	 * only built on {@code get()}
+	 */
+	public Dependency(String serviceId, Class<?> serviceType, boolean deferred) {
+		super();
+		this.serviceId = serviceId;
+		this.serviceType = serviceType;
+		this.deferred = deferred;
+	}
+
+	/**
+	 * @return the dependency for an injected value, null if the value is a contribution or an untyped Provider
+	 */
+	static Dependency forValue(Class<?> valueType, Type genericType, String serviceId) {
+		if (ServiceProvider.isProviderType(valueType)) {
+			Class<?> providedType = ServiceProvider.getProvidedType(genericType);
+			return providedType == null ? null : new Dependency(serviceId, providedType, true);
+		}
+		if (serviceId == null && InjectionPlan.isContributionType(valueType)) {
+			return null;
+		}
+		return new Dependency(serviceId, valueType, false);
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public Class<?> getServiceType() {
+		return serviceType;
+	}
+
+	public boolean isDeferred() {
+		return deferred;
+	}
+
+	@Override
+	public String toString() {
+		String type = deferred ? "Provider<" + serviceType.getName() + ">" : serviceType.getName();
+		return serviceId == null ? type : type + " '" + serviceId + "'";
+	}
+}
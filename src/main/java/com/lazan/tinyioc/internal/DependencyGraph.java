@@ -0,0 +1,222 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.ServiceBuilder;
+import com.lazan.tinyioc.ServiceScope;
+
+/**
+ * The service dependencies of a registry, extracted from the {@link StaticDependencies} of the builders when the
+ * registry is created. Unresolvable dependencies and cycles which would fail on first access fail here instead.
+ * Dependencies on Provider / Supplier, lazy and pooled services are not built with the dependent so they can't
+ * form a cycle at construction. Builders without static dependencies, decorators and contributors are opaque and
+ * are still checked by the {@link ResolutionStack} as they run.
+ * <p>
+ * A service is verified when it, and every service it can reach, has a static builder, no decorators or
+ * contributors and no cycle (not even through a Provider). Building a verified service can never reach itself
+ * so it skips the {@link ResolutionStack}. A graph is immutable, rebinding a service creates a new graph.
+ */
+public class DependencyGraph {
+	private static final int[] NO_EDGES = new int[0];
+
+	private final int[][] dependencies;
+	private final int[][] constructionEdges;
+	private final int[] order;
+	private final boolean[] isStatic;
+	private final boolean[] verified;
+
+	/**
+	 * @param definitions the definitions of the references by serviceId
+	 */
+	public DependencyGraph(ServiceRegistryImpl registry, ServiceReference<?>[] references, Map<String, ServiceDefinition> definitions) {
+		int[][] _dependencies = new int[references.length][];
+		int[][] _constructionEdges = new int[references.length][];
+		boolean[] isStatic = new boolean[references.length];
+		for (ServiceReference<?> reference : references) {
+			int index = reference.getIndex();
+			ServiceDefinition definition = definitions.get(reference.getServiceId());
+			ServiceBuilder<?> builder = definition.getOptions().getServiceBuilder();
+			if (!(builder instanceof StaticDependencies)) {
+				_dependencies[index] = NO_EDGES;
+				_constructionEdges[index] = NO_EDGES;
+				continue;
+			}
+			isStatic[index] = !definition.isDecoratedOrContributed();
+			List<Dependency> list = ((StaticDependencies) builder).getDependencies();
+			int[] all = new int[list.size()];
+			int[] construction = new int[list.size()];
+			int allCount = 0;
+			int constructionCount = 0;
+			for (int i = 0; i < list.size(); ++i) {
+				Dependency dependency = list.get(i);
+				ServiceReference<?> target = resolve(registry, reference, dependency);
+				if (!registry.isOwner(target)) {
+					// built by the parent registry which can't depend on this one
+					continue;
+				}
+				all[allCount++] = target.getIndex();
+				if (!dependency.isDeferred() && !target.isLazy() && target.getScope() != ServiceScope.POOLED) {
+					construction[constructionCount++] = target.getIndex();
+				}
+			}
+			_dependencies[index] = Arrays.copyOf(all, allCount);
+			_constructionEdges[index] = Arrays.copyOf(construction, constructionCount);
+		}
+		this.dependencies = _dependencies;
+		this.constructionEdges = _constructionEdges;
+		this.isStatic = isStatic;
+		this.order = postOrder(_constructionEdges, references);
+
+		int[] allOrder = postOrder(_dependencies, null);
+		int[] position = new int[allOrder.length];
+		for (int i = 0; i < allOrder.length; ++i) {
+			position[allOrder[i]] = i;
+		}
+		this.verified = new boolean[references.length];
+		for (int index : allOrder) {
+			boolean current = isStatic[index];
+			for (int target : _dependencies[index]) {
+				// a target finishing later is on a cycle with this service
+				current &= verified[target] && position[target] < position[index];
+			}
+			verified[index] = current;
+		}
+	}
+
+	/**
+	 * Sets the verified flag of every reference, see {@link ServiceReference#setVerified(boolean)}
+	 */
+	public void markVerified(ServiceReference<?>[] references) {
+		for (int i = 0; i < references.length; ++i) {
+			references[i].setVerified(verified[i]);
+		}
+	}
+
+	/**
+	 * Resolves the same way as the builder will at runtime, a named Provider must also have a compatible type
+	 */
+	static ServiceReference<?> resolve(ServiceRegistryImpl registry, ServiceReference<?> reference, Dependency dependency) {
+		try {
+			if (dependency.getServiceId() == null) {
+				return registry.findReference(dependency.getServiceType());
+			}
+			ServiceReference<?> target = registry.findReference(dependency.getServiceId());
+			if (dependency.isDeferred() && !dependency.getServiceType().isAssignableFrom(target.getServiceType())) {
+				throw new IocException("Incompatible type for serviceId '%s'", dependency.getServiceId());
+			}
+			return target;
+		} catch (IocException e) {
+			throw new IocException(e, "Unresolved dependency %s of serviceId '%s': %s", dependency, reference.getServiceId(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Iterative depth first search in index order
+	 *
+	 * @param references used to report a cycle, or null to ignore cycles
+	 * @return the indexes with every service after the services it depends on (ignoring the edges which close
+	 * a cycle)
+	 */
+	static int[] postOrder(int[][] edges, ServiceReference<?>[] references) {
+		int[] state = new int[edges.length];
+		int[] order = new int[edges.length];
+		int orderCount = 0;
+		int[] stack = new int[edges.length];
+		int[] nextEdge = new int[edges.length];
+		for (int root = 0; root < edges.length; ++root) {
+			if (state[root] != 0) {
+				continue;
+			}
+			int depth = 0;
+			stack[0] = root;
+			nextEdge[0] = 0;
+			state[root] = 1;
+			while (depth >= 0) {
+				int node = stack[depth];
+				if (nextEdge[depth] < edges[node].length) {
+					int target = edges[node][nextEdge[depth]++];
+					if (state[target] == 0) {
+						++depth;
+						stack[depth] = target;
+						nextEdge[depth] = 0;
+						state[target] = 1;
+					} else if (state[target] == 1 && references != null) {
+						List<String> serviceIds = new ArrayList<>();
+						int start = depth;
+						while (stack[start] != target) {
+							--start;
+						}
+						for (int i = start; i <= depth; ++i) {
+							serviceIds.add(references[stack[i]].getServiceId());
+						}
+						serviceIds.add(references[target].getServiceId());
+						throw new IocException("Circular dependency reference detected %s", serviceIds);
+					}
+				} else {
+					state[node] = 2;
+					order[orderCount++] = node;
+					--depth;
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * @return the indexes of the services of this registry which the service's builder looks up, including
+	 * Providers
+	 */
+	public int[] getDependencies(int index) {
+		return dependencies[index];
+	}
+
+	/**
+	 * @return the service and every service whose construction (directly or transitively) looks it up, in
+	 * construction order. Provider, lazy and pooled lookups resolve the current instance on use so they aren't
+	 * included
+	 */
+	public int[] getDependents(int index) {
+		boolean[] dependent = new boolean[constructionEdges.length];
+		dependent[index] = true;
+		int count = 1;
+		// the order has every service after its construction dependencies so one pass finds the closure
+		for (int current : order) {
+			if (!dependent[current]) {
+				for (int target : constructionEdges[current]) {
+					if (dependent[target]) {
+						dependent[current] = true;
+						++count;
+						break;
+					}
+				}
+			}
+		}
+		int[] dependents = new int[count];
+		int next = 0;
+		for (int current : order) {
+			if (dependent[current]) {
+				dependents[next++] = current;
+			}
+		}
+		return dependents;
+	}
+
+	/**
+	 * @return true if the service has a builder with static dependencies and no decorators or contributors, the
+	 * others are opaque and may look up any service
+	 */
+	public boolean isStatic(int index) {
+		return isStatic[index];
+	}
+
+	/**
+	 * @return every service index, each after the services its construction builds
+	 */
+	public int[] getOrder() {
+		return order;
+	}
+}
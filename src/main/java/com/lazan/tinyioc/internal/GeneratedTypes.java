@@ -0,0 +1,137 @@
+package com.lazan.tinyioc.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.ServiceBuilder;
+import com.lazan.tinyioc.ServiceModule;
+
+/**
+ * Locates the reflection-free {@link ServiceBuilder}, {@link ServiceModule} and lazy proxy implementations
+ * written by the tiny-ioc annotation processor. Generated classes live alongside the type they were generated for
+ * and are named by appending a suffix to its binary name. Lookups are cached per type so the class
+ * loader is only consulted once.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class GeneratedTypes {
+	public static final String BUILDER_SUFFIX = "$$TinyIocBuilder";
+	public static final String MODULE_SUFFIX = "$$TinyIocModule";
+	public static final String LAZY_SUFFIX = "$$TinyIocLazy";
+
+	private static final ClassValue<ServiceBuilder<?>> BUILDERS = new ClassValue<ServiceBuilder<?>>() {
+		@Override
+		protected ServiceBuilder<?> computeValue(Class<?> type) {
+			return newGeneratedInstance(type, BUILDER_SUFFIX, ServiceBuilder.class);
+		}
+	};
+
+	private static final ClassValue<ServiceModule> MODULES = new ClassValue<ServiceModule>() {
+		@Override
+		protected ServiceModule computeValue(Class<?> type) {
+			return newGeneratedInstance(type, MODULE_SUFFIX, ServiceModule.class);
+		}
+	};
+
+	/**
+	 * Constructor handles for generated lazy proxies, typed {@code (LazyTarget)Object}
+	 */
+	private static final ClassValue<MethodHandle> LAZY_CONSTRUCTORS = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(Class<?> type) {
+			Class<?> generatedType = findGeneratedType(type, LAZY_SUFFIX);
+			if (generatedType == null) {
+				return null;
+			}
+			try {
+				MethodHandle constructor = MethodHandles.publicLookup().findConstructor(generatedType, MethodType.methodType(void.class, LazyTarget.class));
+				return constructor.asType(MethodType.methodType(Object.class, LazyTarget.class));
+			} catch (ReflectiveOperationException e) {
+				throw new IocException(e, "Error finding constructor for generated type %s", generatedType.getName());
+			}
+		}
+	};
+
+	/**
+	 * @return the generated builder for the concrete type if one exists, otherwise an {@link InjectionServiceBuilder}
+	 */
+	public static <T> ServiceBuilder<T> createServiceBuilder(Class<T> concreteType) {
+		ServiceBuilder<T> generated = (ServiceBuilder<T>) BUILDERS.get(concreteType);
+		return generated != null ? generated : new InjectionServiceBuilder<>(concreteType);
+	}
+
+	/**
+	 * @return the generated module for the module type if one exists, otherwise an {@link AnnotatedServiceModule}
+	 */
+	public static ServiceModule createServiceModule(Class<?> moduleType) {
+		ServiceModule generated = MODULES.get(moduleType);
+		return generated != null ? generated : new AnnotatedServiceModule(moduleType);
+	}
+
+	/**
+	 * @return the generated lazy proxy for the interface if one exists, otherwise a {@link Proxy} which
+	 *         delegates to the target reflectively
+	 */
+	public static <T> T createLazyProxy(Class<T> serviceType, final LazyTarget<T> target) {
+		MethodHandle constructor = LAZY_CONSTRUCTORS.get(serviceType);
+		if (constructor != null) {
+			try {
+				return serviceType.cast(constructor.invoke(target));
+			} catch (Throwable e) {
+				throw new IocException(e, "Error instantiating lazy proxy for %s", serviceType.getName());
+			}
+		}
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class) {
+					switch (method.getName()) {
+						case "equals":
+							return proxy == args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "toString":
+							return "Lazy proxy for '" + target.getServiceId() + "'";
+					}
+				}
+				try {
+					return method.invoke(target.get(), args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		};
+		return serviceType.cast(Proxy.newProxyInstance(serviceType.getClassLoader(), new Class<?>[] { serviceType }, handler));
+	}
+
+	private static Class<?> findGeneratedType(Class<?> type, String suffix) {
+		ClassLoader classLoader = type.getClassLoader();
+		if (classLoader == null || type.isArray() || type.isPrimitive()) {
+			return null;
+		}
+		try {
+			return Class.forName(type.getName() + suffix, true, classLoader);
+		} catch (ClassNotFoundException | LinkageError e) {
+			return null;
+		}
+	}
+
+	protected static <T> T newGeneratedInstance(Class<?> type, String suffix, Class<T> expectedType) {
+		Class<?> generatedType = findGeneratedType(type, suffix);
+		if (generatedType == null) {
+			return null;
+		}
+		try {
+			return expectedType.cast(generatedType.getDeclaredConstructor().newInstance());
+		} catch (InvocationTargetException e) {
+			throw new IocException(e.getCause(), "Error instantiating generated type %s", generatedType.getName());
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IocException(e, "Error instantiating generated type %s", generatedType.getName());
+		}
+	}
+}
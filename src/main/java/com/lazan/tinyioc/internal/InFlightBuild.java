@@ -0,0 +1,298 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.lazan.tinyioc.IocException;
+
+/**
+ * A build (a singleton, a prepared context or a pool) claimed by the first caller, which other callers wait for
+ * instead of locking the {@link ServiceReference}. Waiting parks on the future so no monitor is held and a
+ * virtual thread doesn't pin its carrier.
+ * <p>
+ * The {@link ResolutionStack} only sees one thread. Across threads, the threads waiting for a build and the
+ * thread running each build form a wait-for graph, shared by every registry since a child's services wait for
+ * its parent's. A build which no thread is running yet waits for the builds of its dependencies. A thread
+ * joining tasks which it handed to other threads (see {@link #awaitTasks(CompletableFuture[])}) waits for the
+ * threads running them.
+ * <p>
+ * The graph is held in concurrent maps and only touched by a thread about to park, so waits don't contend on a
+ * lock. A waiting thread publishes its edge before it takes a sequence number and then follows the graph, so the
+ * last thread to close a cycle (thread A building X waits for Y while thread B building Y waits for X) sees every
+ * edge of it. That thread, the one with the highest sequence in the cycle, fails with the cycle; the others keep
+ * waiting and fail with its failure wrapped, since their builds can't complete without it.
+ */
+final class InFlightBuild<V> {
+	private static final Map<Thread, Waiter> WAITING = new ConcurrentHashMap<>();
+	private static final Map<Thread, Thread> WORKING_FOR = new ConcurrentHashMap<>();
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	private final String serviceId;
+	private final CompletableFuture<V> future = new CompletableFuture<>();
+	private volatile Thread builder;
+	private volatile InFlightBuild<?>[] awaiting;
+
+	/**
+	 * @param builder the thread running the build, or null while no thread is (eg waiting for dependencies)
+	 */
+	InFlightBuild(String serviceId, Thread builder) {
+		super();
+		this.serviceId = serviceId;
+		this.builder = builder;
+	}
+
+	/**
+	 * @return null if created was installed in the slot, otherwise the build of the caller which got there first
+	 */
+	static <V> InFlightBuild<V> claim(AtomicReference<InFlightBuild<V>> slot, InFlightBuild<V> created) {
+		while (true) {
+			if (slot.compareAndSet(null, created)) {
+				return null;
+			}
+			InFlightBuild<V> existing = slot.get();
+			if (existing != null) {
+				return existing;
+			}
+		}
+	}
+
+	/**
+	 * Fails the build and clears the slot so the next caller tries again
+	 */
+	static <V> void fail(AtomicReference<InFlightBuild<V>> slot, InFlightBuild<V> build, Throwable failure) {
+		slot.compareAndSet(build, null);
+		build.setBuilder(null);
+		build.future.completeExceptionally(failure);
+	}
+
+	void complete(V value) {
+		setBuilder(null);
+		future.complete(value);
+	}
+
+	void setBuilder(Thread builder) {
+		this.builder = builder;
+		this.awaiting = null;
+	}
+
+	/**
+	 * Records the build of a dependency which an async build waits for before a thread runs it. Called by the
+	 * thread starting the async build, before the dependency's build can run
+	 */
+	void addAwaiting(InFlightBuild<?> dependency) {
+		InFlightBuild<?>[] current = awaiting;
+		if (current == null) {
+			awaiting = new InFlightBuild<?>[] { dependency };
+		} else {
+			InFlightBuild<?>[] added = Arrays.copyOf(current, current.length + 1);
+			added[current.length] = dependency;
+			awaiting = added;
+		}
+	}
+
+	CompletableFuture<V> getFuture() {
+		return future;
+	}
+
+	/**
+	 * Parks until the build completes
+	 *
+	 * @throws IocException if waiting would deadlock, or wrapping the build's failure
+	 */
+	V await() {
+		if (future.isDone()) {
+			return join();
+		}
+		Thread current = Thread.currentThread();
+		Waiter waiter = new Waiter(this);
+		WAITING.put(current, waiter);
+		try {
+			List<String> cycle = new ArrayList<>();
+			List<Waiter> waiters = new ArrayList<>();
+			waiter.sequence = SEQUENCE.incrementAndGet();
+			if (leadsTo(this, current, cycle, waiters, new HashSet<Object>()) && isVictim(waiter, waiters)) {
+				throw new IocException("Deadlock detected, threads are waiting for each other to build %s", cycle);
+			}
+			return join();
+		} finally {
+			WAITING.remove(current);
+		}
+	}
+
+	/**
+	 * Records the current thread as running a task which the owner will join, see {@link #awaitTasks(CompletableFuture[])}
+	 *
+	 * @return the owner to restore with {@link #endTask(Thread)}
+	 */
+	static Thread beginTask(Thread owner) {
+		Thread current = Thread.currentThread();
+		Thread previous = WORKING_FOR.get(current);
+		if (owner != current) {
+			WORKING_FOR.put(current, owner);
+		}
+		return previous;
+	}
+
+	static void endTask(Thread previous) {
+		Thread current = Thread.currentThread();
+		if (previous == null) {
+			WORKING_FOR.remove(current);
+		} else {
+			WORKING_FOR.put(current, previous);
+		}
+	}
+
+	/**
+	 * Parks until the tasks complete, ignoring their failures. The tasks must record their threads with
+	 * {@link #beginTask(Thread)} so a task waiting for a build of the current thread is found as a cycle
+	 *
+	 * @throws IocException if waiting would deadlock
+	 */
+	static void awaitTasks(CompletableFuture<?>[] tasks) {
+		Thread current = Thread.currentThread();
+		Waiter waiter = new Waiter(null);
+		WAITING.put(current, waiter);
+		try {
+			List<String> cycle = new ArrayList<>();
+			List<Waiter> waiters = new ArrayList<>();
+			waiter.sequence = SEQUENCE.incrementAndGet();
+			if (waitsFor(current, current, cycle, waiters, new HashSet<Object>()) && isVictim(waiter, waiters)) {
+				throw new IocException("Deadlock detected, threads are waiting for each other to build %s", cycle);
+			}
+			for (CompletableFuture<?> task : tasks) {
+				try {
+					task.join();
+				} catch (CompletionException e) {
+					// the caller reports the failures
+				}
+			}
+		} finally {
+			WAITING.remove(current);
+		}
+	}
+
+	/**
+	 * Waits for the build to complete, ignoring its failure
+	 */
+	void awaitQuietly() {
+		try {
+			await();
+		} catch (RuntimeException e) {
+			// the caller replaces the build
+		}
+	}
+
+	/**
+	 * A thread whose sequence isn't set yet will follow the graph after this one and see the whole cycle
+	 *
+	 * @return true if the waiter is the last of the cycle's waiters to have published its edge
+	 */
+	private static boolean isVictim(Waiter waiter, List<Waiter> waiters) {
+		for (Waiter other : waiters) {
+			long sequence = other.sequence;
+			if (sequence == 0 || sequence > waiter.sequence) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Follows the wait-for graph from the thread running the build, or from the builds it waits for while no
+	 * thread runs it
+	 *
+	 * @return true if the graph leads back to the current thread, the cycle holds the serviceIds (and the threads
+	 * building them) and the waiters on the way
+	 */
+	private static boolean leadsTo(InFlightBuild<?> build, Thread current, List<String> cycle, List<Waiter> waiters, Set<Object> visited) {
+		if (!visited.add(build)) {
+			return false;
+		}
+		Thread thread = build.builder;
+		if (thread == null) {
+			InFlightBuild<?>[] dependencies = build.awaiting;
+			if (dependencies != null) {
+				cycle.add(build.serviceId + " awaiting dependencies");
+				for (InFlightBuild<?> dependency : dependencies) {
+					if (leadsTo(dependency, current, cycle, waiters, visited)) {
+						return true;
+					}
+				}
+				cycle.remove(cycle.size() - 1);
+			}
+			return false;
+		}
+		cycle.add(build.serviceId + " on " + thread.getName());
+		if (thread == current || waitsFor(thread, current, cycle, waiters, visited)) {
+			return true;
+		}
+		cycle.remove(cycle.size() - 1);
+		return false;
+	}
+
+	/**
+	 * A thread waiting for a build waits for the thread running it, a thread joining its tasks waits for the
+	 * threads running them
+	 */
+	private static boolean waitsFor(Thread thread, Thread current, List<String> cycle, List<Waiter> waiters, Set<Object> visited) {
+		if (!visited.add(thread)) {
+			return false;
+		}
+		Waiter waiter = WAITING.get(thread);
+		if (waiter == null) {
+			return false;
+		}
+		waiters.add(waiter);
+		if (waiter.build != null) {
+			if (leadsTo(waiter.build, current, cycle, waiters, visited)) {
+				return true;
+			}
+		} else {
+			for (Map.Entry<Thread, Thread> entry : WORKING_FOR.entrySet()) {
+				if (entry.getValue() == thread && (entry.getKey() == current || waitsFor(entry.getKey(), current, cycle, waiters, visited))) {
+					return true;
+				}
+			}
+		}
+		waiters.remove(waiters.size() - 1);
+		return false;
+	}
+
+	private V join() {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			// a new exception per waiter so threads don't share a stack trace or suppressed exceptions
+			throw new IocException(unwrap(e), "Error building serviceId '%s'", serviceId);
+		}
+	}
+
+	static Throwable unwrap(Throwable failure) {
+		return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+	}
+
+	/**
+	 * A thread's edge in the wait-for graph
+	 */
+	private static final class Waiter {
+		/**
+		 * The build waited for, or null while joining tasks
+		 */
+		private final InFlightBuild<?> build;
+		private volatile long sequence;
+
+		Waiter(InFlightBuild<?> build) {
+			super();
+			this.build = build;
+		}
+	}
+}
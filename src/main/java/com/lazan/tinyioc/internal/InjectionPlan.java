@@ -0,0 +1,295 @@
+package com.lazan.tinyioc.internal;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.ServiceBuilderContext;
+
+/**
+ * Immutable analysis of how to construct and inject a concrete type. A plan is computed once per type
+ * and shared by every registry in the JVM so that reflection only happens on the first build.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class InjectionPlan<T> {
+	public static interface ValueResolver {
+		Object resolve(ServiceBuilderContext context);
+	}
+
+	private static class FieldInjection {
+		private final String name;
+		private final ValueResolver resolver;
+		private final MethodHandle setter;
+
+		public FieldInjection(String name, ValueResolver resolver, MethodHandle setter) {
+			super();
+			this.name = name;
+			this.resolver = resolver;
+			this.setter = setter;
+		}
+	}
+
+	private static final Map<Class<?>, ValueResolver> CONTEXT_VALUE_RESOLVERS = new LinkedHashMap<>();
+	static {
+		CONTEXT_VALUE_RESOLVERS.put(Map.class, new ValueResolver() {
+			@Override
+			public Object resolve(ServiceBuilderContext context) {
+				return context.getMappedContributions();
+			}
+		});
+		CONTEXT_VALUE_RESOLVERS.put(List.class, new ValueResolver() {
+			@Override
+			public Object resolve(ServiceBuilderContext context) {
+				return context.getOrderedContributions();
+			}
+		});
+		CONTEXT_VALUE_RESOLVERS.put(Collection.class, new ValueResolver() {
+			@Override
+			public Object resolve(ServiceBuilderContext context) {
+				return context.getUnorderedContributions();
+			}
+		});
+	}
+
+	private static final ClassValue<InjectionPlan<?>> PLANS = new ClassValue<InjectionPlan<?>>() {
+		@Override
+		protected InjectionPlan<?> computeValue(Class<?> type) {
+			return new InjectionPlan<>(type);
+		}
+	};
+
+	/*
+	 * Kept apart from the plans so the registry can validate its graph at build without creating method handles
+	 * for services which may never be used
+	 */
+	private static final ClassValue<List<Dependency>> DEPENDENCIES = new ClassValue<List<Dependency>>() {
+		@Override
+		protected List<Dependency> computeValue(Class<?> type) {
+			return scanDependencies(type);
+		}
+	};
+
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class, Object[].class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final Class<T> concreteType;
+	private final MethodHandle constructor;
+	private final ValueResolver[] parameterResolvers;
+	private final FieldInjection[] fieldInjections;
+	private final List<Dependency> dependencies;
+
+	public static <T> InjectionPlan<T> forType(Class<T> concreteType) {
+		return (InjectionPlan<T>) PLANS.get(concreteType);
+	}
+
+	/**
+	 * The dependencies of a type from a scan of its constructor and inject fields, without building its plan
+	 *
+	 * @throws IocException if the type has no constructor to inject
+	 */
+	public static List<Dependency> findDependencies(Class<?> concreteType) {
+		return DEPENDENCIES.get(concreteType);
+	}
+
+	protected InjectionPlan(Class<T> concreteType) {
+		this.concreteType = concreteType;
+		Constructor<T> constructor = findConstructor(concreteType);
+		Class<?>[] paramTypes = constructor.getParameterTypes();
+		Type[] genericParamTypes = constructor.getGenericParameterTypes();
+		Annotation[][] paramAnnotations = constructor.getParameterAnnotations();
+		this.parameterResolvers = new ValueResolver[paramTypes.length];
+		for (int i = 0; i < paramTypes.length; ++i) {
+			Named named = findAnnotation(paramAnnotations[i], Named.class);
+			parameterResolvers[i] = createResolver(paramTypes[i], getGenericType(paramTypes, genericParamTypes, i), named);
+		}
+		try {
+			constructor.setAccessible(true);
+			this.constructor = MethodHandles.lookup().unreflectConstructor(constructor)
+					.asSpreader(Object[].class, paramTypes.length)
+					.asType(CONSTRUCTOR_TYPE);
+		} catch (Exception e) {
+			throw new IocException(e, "Error accessing constructor for type %s", concreteType.getName());
+		}
+		this.fieldInjections = findFieldInjections(concreteType);
+		this.dependencies = findDependencies(concreteType);
+	}
+
+	public T newInstance(ServiceBuilderContext context) throws Throwable {
+		Object[] params = new Object[parameterResolvers.length];
+		for (int i = 0; i < params.length; ++i) {
+			params[i] = parameterResolvers[i].resolve(context);
+		}
+		T service = (T) (Object) constructor.invokeExact(params);
+		for (FieldInjection injection : fieldInjections) {
+			try {
+				Object value = injection.resolver.resolve(context);
+				injection.setter.invokeExact((Object) service, value);
+			} catch (Throwable e) {
+				throw new IocException(e, "Error injecting field '%s' in serviceId '%s'", injection.name, context.getServiceId());
+			}
+		}
+		return service;
+	}
+
+	public Class<T> getConcreteType() {
+		return concreteType;
+	}
+
+	/**
+	 * @return the services looked up by the constructor and inject fields
+	 */
+	public List<Dependency> getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * @return true for the types injected with the service's contributions when unnamed
+	 */
+	static boolean isContributionType(Class<?> valueType) {
+		return CONTEXT_VALUE_RESOLVERS.containsKey(valueType);
+	}
+
+	private static List<Dependency> scanDependencies(Class<?> concreteType) {
+		Constructor<?> constructor = findConstructor(concreteType);
+		Class<?>[] paramTypes = constructor.getParameterTypes();
+		Type[] genericParamTypes = constructor.getGenericParameterTypes();
+		Annotation[][] paramAnnotations = constructor.getParameterAnnotations();
+		List<Dependency> dependencies = new ArrayList<>();
+		for (int i = 0; i < paramTypes.length; ++i) {
+			Named named = findAnnotation(paramAnnotations[i], Named.class);
+			addDependency(dependencies, paramTypes[i], getGenericType(paramTypes, genericParamTypes, i), named);
+		}
+		Class<?> currentType = concreteType;
+		while (currentType != null) {
+			for (Field field : currentType.getDeclaredFields()) {
+				if (field.getAnnotation(Inject.class) != null) {
+					addDependency(dependencies, field.getType(), field.getGenericType(), field.getAnnotation(Named.class));
+				}
+			}
+			currentType = currentType.getSuperclass();
+		}
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	/**
+	 * Generic types are unavailable for some synthetic constructor parameters (eg inner classes)
+	 */
+	private static Type getGenericType(Class<?>[] paramTypes, Type[] genericParamTypes, int i) {
+		return genericParamTypes.length == paramTypes.length ? genericParamTypes[i] : paramTypes[i];
+	}
+
+	private static void addDependency(List<Dependency> dependencies, Class<?> valueType, Type genericType, Named named) {
+		Dependency dependency = Dependency.forValue(valueType, genericType, named == null ? null : named.value());
+		if (dependency != null) {
+			dependencies.add(dependency);
+		}
+	}
+
+	protected static ValueResolver createResolver(final Class<?> valueType, Type genericType, final Named named) {
+		if (ServiceProvider.isProviderType(valueType)) {
+			final String serviceId = named == null ? null : named.value();
+			final Class<?> providedType = ServiceProvider.getProvidedType(genericType);
+			return new ValueResolver() {
+				@Override
+				public Object resolve(ServiceBuilderContext context) {
+					return ServiceProvider.create(context.getServiceRegistry(), serviceId, providedType);
+				}
+			};
+		}
+		if (named != null) {
+			final String serviceId = named.value();
+			return new ValueResolver() {
+				@Override
+				public Object resolve(ServiceBuilderContext context) {
+					return context.getServiceRegistry().getService(serviceId, valueType);
+				}
+			};
+		}
+		ValueResolver contextResolver = CONTEXT_VALUE_RESOLVERS.get(valueType);
+		if (contextResolver != null) {
+			return contextResolver;
+		}
+		return new ValueResolver() {
+			@Override
+			public Object resolve(ServiceBuilderContext context) {
+				return context.getServiceRegistry().getService(valueType);
+			}
+		};
+	}
+
+	protected static FieldInjection[] findFieldInjections(Class<?> concreteType) {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		List<FieldInjection> injections = new ArrayList<>();
+		Class<?> currentType = concreteType;
+		while (currentType != null) {
+			for (Field field : currentType.getDeclaredFields()) {
+				if (field.getAnnotation(Inject.class) != null) {
+					Named named = field.getAnnotation(Named.class);
+					try {
+						field.setAccessible(true);
+						MethodHandle setter = lookup.unreflectSetter(field);
+						if (Modifier.isStatic(field.getModifiers())) {
+							// a static setter takes no instance, ignore the service like Field.set does
+							setter = MethodHandles.dropArguments(setter, 0, Object.class);
+						}
+						setter = setter.asType(SETTER_TYPE);
+						injections.add(new FieldInjection(field.getName(), createResolver(field.getType(), field.getGenericType(), named), setter));
+					} catch (Exception e) {
+						throw new IocException(e, "Error accessing field '%s' in type %s", field.getName(), concreteType.getName());
+					}
+				}
+			}
+			currentType = currentType.getSuperclass();
+		}
+		return injections.toArray(new FieldInjection[injections.size()]);
+	}
+
+	protected static <A extends Annotation> A findAnnotation(Annotation[] anns, Class<A> type) {
+		for (Annotation ann : anns) {
+			if (type.equals(ann.annotationType())) {
+				return type.cast(ann);
+			}
+		}
+		return null;
+	}
+
+	protected static <T> Constructor<T> findConstructor(Class<T> concreteType) {
+		Constructor[] constructors = concreteType.getConstructors();
+		if (constructors.length == 0) {
+			throw new IocException("No public constructors found for type %s", concreteType.getName());
+		}
+		if (constructors.length == 1) {
+			return constructors[0];
+		}
+		int injectCount = 0;
+		Constructor selected = null;
+		for (Constructor current : constructors) {
+			if (current.getAnnotation(Inject.class) != null) {
+				selected = current;
+				injectCount ++;
+			}
+		}
+		if (injectCount == 1) {
+			return selected;
+		}
+		if (injectCount == 0) {
+			throw new IocException("Found %s public constructors for type %s, please annotate one with javax.inject.Inject", constructors.length, concreteType.getName());
+		}
+		throw new IocException("Found %s public constructors annotated with javax.inject.Inject for type %s", injectCount, concreteType.getName());
+	}
+}
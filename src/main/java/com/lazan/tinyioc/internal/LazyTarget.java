@@ -0,0 +1,68 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.lazan.tinyioc.ServiceScope;
+
+/**
+ * The target of a lazy service proxy. The service is built on the first call to {@link #get()}, later calls
+ * cost a field read. Singleton, per thread and pooled targets defer to the {@link ServiceReference} which
+ * already caches per its scope. Prototype targets build one instance per proxy and hold it in a final field
+ * holder so it can be read without synchronization. Used by generated lazy proxies, see
+ * {@link GeneratedTypes#LAZY_SUFFIX}.
+ */
+public final class LazyTarget<T> {
+	private static class Resolved<T> {
+		private final T service;
+
+		public Resolved(T service) {
+			super();
+			this.service = service;
+		}
+	}
+
+	private final ServiceReference<T> reference;
+	private final ServiceRegistryImpl registry;
+	private final boolean prototype;
+	private Resolved<T> resolved;
+	private final AtomicReference<InFlightBuild<T>> resolving = new AtomicReference<>();
+
+	public LazyTarget(ServiceReference<T> reference, ServiceRegistryImpl registry) {
+		super();
+		this.reference = reference;
+		this.registry = registry;
+		this.prototype = reference.getScope() == ServiceScope.PROTOTYPE;
+	}
+
+	public T get() {
+		if (!prototype) {
+			return reference.getServiceType().cast(reference.resolve(registry));
+		}
+		Resolved<T> current = resolved;
+		return current != null ? current.service : resolvePrototype();
+	}
+
+	/**
+	 * Concurrent first calls wait for one {@link InFlightBuild}
+	 */
+	private T resolvePrototype() {
+		InFlightBuild<T> created = new InFlightBuild<>(reference.getServiceId(), Thread.currentThread());
+		InFlightBuild<T> existing = InFlightBuild.claim(resolving, created);
+		if (existing != null) {
+			return existing.await();
+		}
+		try {
+			T service = reference.getServiceType().cast(reference.resolve(registry));
+			resolved = new Resolved<>(service);
+			created.complete(service);
+			return service;
+		} catch (RuntimeException | Error e) {
+			InFlightBuild.fail(resolving, created, e);
+			throw e;
+		}
+	}
+
+	public String getServiceId() {
+		return reference.getServiceId();
+	}
+}
@@ -0,0 +1,270 @@
+package com.lazan.tinyioc.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.lazan.tinyioc.ConstructionListener;
+import com.lazan.tinyioc.RegistryMetrics;
+import com.lazan.tinyioc.ServiceMetrics;
+
+/**
+ * {@link ConstructionListener} which aggregates per service {@link ServiceMetrics}. Each thread keeps a stack of
+ * open spans, the self time of a span is its duration less the duration of the spans directly nested in it. CPU
+ * time and allocations are read from the {@link ThreadMXBean} when the JVM supports them.
+ */
+public class MetricsRecorder implements ConstructionListener, RegistryMetrics {
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+	private static final com.sun.management.ThreadMXBean ALLOCATIONS = findAllocationBean();
+
+	private static class Span {
+		private final Phase phase;
+		private final String detail;
+		private final long startNanos;
+		private final long startCpuNanos;
+		private final long startBytes;
+		private long nestedNanos;
+		private long nestedCpuNanos;
+		private long nestedBytes;
+
+		public Span(Phase phase, String detail) {
+			super();
+			this.phase = phase;
+			this.detail = detail;
+			this.startNanos = System.nanoTime();
+			this.startCpuNanos = cpuNanos();
+			this.startBytes = allocatedBytes();
+		}
+	}
+
+	private static class Metrics implements ServiceMetrics {
+		private final String serviceId;
+		private final LongAdder constructionCount = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder selfNanos = new LongAdder();
+		private final LongAdder buildNanos = new LongAdder();
+		private final LongAdder buildCpuNanos = new LongAdder();
+		private final ConcurrentMap<String, LongAdder> decoratorNanos = new ConcurrentHashMap<>();
+		private final LongAdder contributionNanos = new LongAdder();
+		private final LongAdder allocatedBytes = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+
+		public Metrics(String serviceId) {
+			super();
+			this.serviceId = serviceId;
+		}
+
+		@Override
+		public String getServiceId() {
+			return serviceId;
+		}
+
+		@Override
+		public long getConstructionCount() {
+			return constructionCount.sum();
+		}
+
+		@Override
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		@Override
+		public long getSelfNanos() {
+			return selfNanos.sum();
+		}
+
+		@Override
+		public long getBuildNanos() {
+			return buildNanos.sum();
+		}
+
+		@Override
+		public long getBuildCpuNanos() {
+			return CPU_TIME ? buildCpuNanos.sum() : -1;
+		}
+
+		@Override
+		public Map<String, Long> getDecoratorNanos() {
+			Map<String, Long> result = new LinkedHashMap<>();
+			for (Map.Entry<String, LongAdder> entry : decoratorNanos.entrySet()) {
+				result.put(entry.getKey(), entry.getValue().sum());
+			}
+			return result;
+		}
+
+		@Override
+		public long getContributionNanos() {
+			return contributionNanos.sum();
+		}
+
+		@Override
+		public long getAllocatedBytes() {
+			return ALLOCATIONS != null ? allocatedBytes.sum() : -1;
+		}
+
+		@Override
+		public long getWaitNanos() {
+			return waitNanos.sum();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s[constructions=%s, totalNanos=%s, selfNanos=%s, buildNanos=%s, waitNanos=%s]",
+					serviceId, getConstructionCount(), getTotalNanos(), getSelfNanos(), getBuildNanos(), getWaitNanos());
+		}
+	}
+
+	private final ConcurrentMap<String, Metrics> metricsById = new ConcurrentHashMap<>();
+	private volatile boolean changed;
+	private volatile List<ServiceMetrics> sorted = Collections.emptyList();
+	private final ThreadLocal<List<Span>> spans = new ThreadLocal<List<Span>>() {
+		@Override
+		protected List<Span> initialValue() {
+			return new ArrayList<>();
+		}
+	};
+
+	@Override
+	public void begin(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+		spans.get().add(new Span(phase, detail));
+	}
+
+	@Override
+	public void end(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+		List<Span> stack = spans.get();
+		if (stack.isEmpty()) {
+			// the listener was added while the span was open
+			return;
+		}
+		Span span = stack.remove(stack.size() - 1);
+		long nanos = System.nanoTime() - span.startNanos;
+		long cpuNanos = cpuNanos() - span.startCpuNanos;
+		long bytes = allocatedBytes() - span.startBytes;
+		if (!stack.isEmpty()) {
+			Span parent = stack.get(stack.size() - 1);
+			parent.nestedNanos += nanos;
+			parent.nestedCpuNanos += cpuNanos;
+			parent.nestedBytes += bytes;
+		}
+		long selfNanos = nanos - span.nestedNanos;
+		Metrics metrics = getMetrics(serviceId);
+		metrics.selfNanos.add(selfNanos);
+		metrics.allocatedBytes.add(bytes - span.nestedBytes);
+		switch (span.phase) {
+			case CONSTRUCT:
+				metrics.constructionCount.increment();
+				metrics.totalNanos.add(nanos);
+				break;
+			case BUILD:
+				metrics.buildNanos.add(selfNanos);
+				metrics.buildCpuNanos.add(cpuNanos - span.nestedCpuNanos);
+				break;
+			case DECORATE:
+				LongAdder decoratorNanos = metrics.decoratorNanos.get(span.detail);
+				if (decoratorNanos == null) {
+					metrics.decoratorNanos.putIfAbsent(span.detail, new LongAdder());
+					decoratorNanos = metrics.decoratorNanos.get(span.detail);
+				}
+				decoratorNanos.add(selfNanos);
+				break;
+			case CONTRIBUTE:
+			case CONTRIBUTION:
+				metrics.contributionNanos.add(selfNanos);
+				break;
+			default:
+				break;
+		}
+		markChanged();
+	}
+
+	@Override
+	public void waited(String serviceId, Class<?> serviceType, long nanos) {
+		getMetrics(serviceId).waitNanos.add(nanos);
+		markChanged();
+	}
+
+	/**
+	 * The list is sorted again only when a service has been constructed (or waited for) since the last call, so
+	 * polling a registry which has finished starting doesn't sort every service
+	 */
+	@Override
+	public List<ServiceMetrics> getServiceMetrics() {
+		if (!changed) {
+			return sorted;
+		}
+		// cleared first so an end during the sort is picked up by the next call
+		changed = false;
+		List<ServiceMetrics> result = new ArrayList<ServiceMetrics>(metricsById.values());
+		Collections.sort(result, new Comparator<ServiceMetrics>() {
+			@Override
+			public int compare(ServiceMetrics metrics1, ServiceMetrics metrics2) {
+				return Long.compare(metrics2.getTotalNanos(), metrics1.getTotalNanos());
+			}
+		});
+		sorted = Collections.unmodifiableList(result);
+		return sorted;
+	}
+
+	@Override
+	public ServiceMetrics getServiceMetrics(String serviceId) {
+		Metrics metrics = metricsById.get(serviceId);
+		return metrics != null ? metrics : new Metrics(serviceId);
+	}
+
+	@Override
+	public String toString() {
+		return "MetricsRecorder" + Arrays.toString(getServiceMetrics().toArray());
+	}
+
+	private Metrics getMetrics(String serviceId) {
+		Metrics metrics = metricsById.get(serviceId);
+		if (metrics == null) {
+			metricsById.putIfAbsent(serviceId, new Metrics(serviceId));
+			metrics = metricsById.get(serviceId);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Called once the metrics are recorded, only written when not already set so constructions on many threads
+	 * don't contend on the field
+	 */
+	private void markChanged() {
+		if (!changed) {
+			changed = true;
+		}
+	}
+
+	private static long cpuNanos() {
+		return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	private static long allocatedBytes() {
+		return ALLOCATIONS != null ? ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+	}
+
+	private static com.sun.management.ThreadMXBean findAllocationBean() {
+		try {
+			if (THREADS instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREADS;
+				if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+					return bean;
+				}
+			}
+		} catch (LinkageError e) {
+			// not a HotSpot JVM
+		}
+		return null;
+	}
+}
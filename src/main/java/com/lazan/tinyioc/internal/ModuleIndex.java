@@ -0,0 +1,101 @@
+package com.lazan.tinyioc.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.ServiceModule;
+
+/**
+ * Reads the {@value #RESOURCE} indexes written by the tiny-ioc annotation processor. Each line lists a module's
+ * binary name followed by its annotated methods as {@code name(paramType,paramType)}. Modules with a generated
+ * implementation use it, the others are {@link AnnotatedServiceModule}s given the listed methods so they skip
+ * scanning.
+ */
+public class ModuleIndex {
+	public static final String RESOURCE = "META-INF/tiny-ioc/modules";
+
+	public static List<ServiceModule> load(ClassLoader classLoader) {
+		Map<String, String[]> entries = new LinkedHashMap<>();
+		Enumeration<URL> urls;
+		try {
+			urls = classLoader.getResources(RESOURCE);
+		} catch (IOException e) {
+			throw new IocException(e, "Error finding %s", RESOURCE);
+		}
+		while (urls.hasMoreElements()) {
+			URL url = urls.nextElement();
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						String[] parts = line.split(" ");
+						entries.put(parts[0], parts);
+					}
+				}
+			} catch (IOException e) {
+				throw new IocException(e, "Error reading %s", url);
+			}
+		}
+		List<ServiceModule> modules = new ArrayList<>(entries.size());
+		for (String[] entry : entries.values()) {
+			modules.add(createModule(classLoader, entry));
+		}
+		return modules;
+	}
+
+	protected static ServiceModule createModule(ClassLoader classLoader, String[] entry) {
+		try {
+			Class<?> moduleType = Class.forName(entry[0], false, classLoader);
+			ServiceModule module = GeneratedTypes.createServiceModule(moduleType);
+			if (module instanceof AnnotatedServiceModule) {
+				List<Method> methods = new ArrayList<>(entry.length - 1);
+				for (int i = 1; i < entry.length; ++i) {
+					methods.add(findMethod(moduleType, entry[i]));
+				}
+				((AnnotatedServiceModule) module).setAnnotatedMethods(methods);
+			}
+			return module;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new IocException(e, "Error loading indexed module %s", entry[0]);
+		}
+	}
+
+	private static Method findMethod(Class<?> moduleType, String signature) throws ReflectiveOperationException {
+		int open = signature.indexOf('(');
+		String params = signature.substring(open + 1, signature.length() - 1);
+		String[] paramNames = params.isEmpty() ? new String[0] : params.split(",");
+		Class<?>[] paramTypes = new Class<?>[paramNames.length];
+		for (int i = 0; i < paramTypes.length; ++i) {
+			paramTypes[i] = loadClass(paramNames[i], moduleType.getClassLoader());
+		}
+		return moduleType.getMethod(signature.substring(0, open), paramTypes);
+	}
+
+	/**
+	 * Loads a type by its {@link Class#getName()} including primitives
+	 */
+	static Class<?> loadClass(String name, ClassLoader classLoader) throws ClassNotFoundException {
+		switch (name) {
+			case "boolean": return boolean.class;
+			case "byte": return byte.class;
+			case "char": return char.class;
+			case "short": return short.class;
+			case "int": return int.class;
+			case "long": return long.class;
+			case "float": return float.class;
+			case "double": return double.class;
+			default: return Class.forName(name, false, classLoader);
+		}
+	}
+}
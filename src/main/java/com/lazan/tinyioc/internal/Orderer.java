@@ -0,0 +1,180 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lazan.tinyioc.IocException;
+
+/**
+ * Orders values by their before / after constraints using a depth first topological sort of the
+ * constraint graph. Sorting is O(n + e): each value is visited once, after all of the values which must
+ * precede it, and values are visited in the order they were added so unconstrained values keep their
+ * declaration order. A constraint of "*" means before (or after) every value which doesn't itself use
+ * the same wildcard. Constraints referencing unknown ids are ignored.
+ */
+public class Orderer<T> {
+	public static final String WILDCARD = "*";
+
+	private static class Node<T> {
+		private final String id;
+		private T value;
+		private Collection<String> before;
+		private Collection<String> after;
+
+		public Node(String id) {
+			super();
+			this.id = id;
+		}
+	}
+
+	private final String kind;
+	private final Map<String, Node<T>> nodes = new LinkedHashMap<>();
+
+	/**
+	 * @param kind the kind of value being ordered, used in error messages (eg "contribution")
+	 */
+	public Orderer(String kind) {
+		super();
+		this.kind = kind;
+	}
+
+	/**
+	 * Adds a value. If the id has been added before, the value and constraints are replaced but the original
+	 * declaration position is retained
+	 */
+	public void add(String id, T value, Collection<String> before, Collection<String> after) {
+		Node<T> node = nodes.get(id);
+		if (node == null) {
+			node = new Node<>(id);
+			nodes.put(id, node);
+		}
+		node.value = value;
+		node.before = before == null ? Collections.<String>emptySet() : before;
+		node.after = after == null ? Collections.<String>emptySet() : after;
+	}
+
+	public List<T> order() {
+		int count = nodes.size();
+		List<Node<T>> nodeList = new ArrayList<>(nodes.values());
+		Map<String, Integer> indexes = new LinkedHashMap<>();
+		for (int i = 0; i < count; ++i) {
+			indexes.put(nodeList.get(i).id, i);
+		}
+
+		// two sentinels mark the boundaries of the wildcard groups
+		final int firstSentinel = count;
+		final int lastSentinel = count + 1;
+		List<List<Integer>> successors = new ArrayList<>(count + 2);
+		for (int i = 0; i < count + 2; ++i) {
+			successors.add(new ArrayList<Integer>(2));
+		}
+		boolean wildcards = false;
+		boolean[] beforeAll = new boolean[count];
+		boolean[] afterAll = new boolean[count];
+		for (int i = 0; i < count; ++i) {
+			Node<T> node = nodeList.get(i);
+			for (String id : node.before) {
+				if (WILDCARD.equals(id)) {
+					beforeAll[i] = wildcards = true;
+				} else {
+					Integer other = indexes.get(id);
+					if (other != null && other != i) {
+						successors.get(i).add(other);
+					}
+				}
+			}
+			for (String id : node.after) {
+				if (WILDCARD.equals(id)) {
+					afterAll[i] = wildcards = true;
+				} else {
+					Integer other = indexes.get(id);
+					if (other != null && other != i) {
+						successors.get(other).add(i);
+					}
+				}
+			}
+		}
+		if (wildcards) {
+			successors.get(firstSentinel).add(lastSentinel);
+			for (int i = 0; i < count; ++i) {
+				if (beforeAll[i]) {
+					successors.get(i).add(firstSentinel);
+				}
+				if (afterAll[i]) {
+					successors.get(lastSentinel).add(i);
+				}
+				if (!beforeAll[i] && !afterAll[i]) {
+					successors.get(firstSentinel).add(i);
+					successors.get(i).add(lastSentinel);
+				}
+			}
+		}
+
+		// invert the edges visiting sources in index order so each predecessor list is sorted by declaration
+		List<List<Integer>> predecessors = new ArrayList<>(count + 2);
+		for (int i = 0; i < count + 2; ++i) {
+			predecessors.add(new ArrayList<Integer>(2));
+		}
+		for (int source = 0; source < count + 2; ++source) {
+			for (int target : successors.get(source)) {
+				predecessors.get(target).add(source);
+			}
+		}
+
+		List<T> ordered = new ArrayList<>(count);
+		byte[] state = new byte[count + 2];
+		int[] stack = new int[count + 2];
+		int[] positions = new int[count + 2];
+		for (int root = 0; root < count; ++root) {
+			if (state[root] != 0) {
+				continue;
+			}
+			int depth = 0;
+			stack[0] = root;
+			positions[0] = 0;
+			state[root] = 1;
+			while (depth >= 0) {
+				int current = stack[depth];
+				List<Integer> preds = predecessors.get(current);
+				if (positions[depth] < preds.size()) {
+					int pred = preds.get(positions[depth]++);
+					if (state[pred] == 0) {
+						++depth;
+						stack[depth] = pred;
+						positions[depth] = 0;
+						state[pred] = 1;
+					} else if (state[pred] == 1) {
+						throw cycleException(nodeList, stack, depth, pred);
+					}
+				} else {
+					state[current] = 2;
+					if (current < count) {
+						ordered.add(nodeList.get(current).value);
+					}
+					--depth;
+				}
+			}
+		}
+		return ordered;
+	}
+
+	private IocException cycleException(List<Node<T>> nodeList, int[] stack, int depth, int repeated) {
+		List<String> cycle = new ArrayList<>();
+		cycle.add(getId(nodeList, repeated));
+		for (int i = depth; i >= 0; --i) {
+			cycle.add(getId(nodeList, stack[i]));
+			if (stack[i] == repeated) {
+				break;
+			}
+		}
+		return new IocException("Circular %s ordering detected %s", kind, cycle);
+	}
+
+	private String getId(List<Node<T>> nodeList, int index) {
+		return index < nodeList.size() ? nodeList.get(index).id : WILDCARD;
+	}
+}
@@ -0,0 +1,36 @@
+package com.lazan.tinyioc.internal;
+
+import com.lazan.tinyioc.IocException;
+
+public class PoolSettings {
+	public static final PoolSettings DEFAULT = new PoolSettings(0, Runtime.getRuntime().availableProcessors(), 60000);
+
+	private final int minSize;
+	private final int maxSize;
+	private final long maxIdleMillis;
+
+	public PoolSettings(int minSize, int maxSize, long maxIdleMillis) {
+		super();
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IocException("Invalid pool size (min %s, max %s)", minSize, maxSize);
+		}
+		if (maxIdleMillis < 0) {
+			throw new IocException("Invalid pool maxIdleMillis %s", maxIdleMillis);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getMaxIdleMillis() {
+		return maxIdleMillis;
+	}
+}
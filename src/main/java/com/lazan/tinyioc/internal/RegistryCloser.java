@@ -0,0 +1,227 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.lazan.tinyioc.IocException;
+
+/**
+ * Closes the services of a registry, see {@link ServiceRegistryImpl#close()}. A service is closed after every
+ * service which depends on it according to the {@link DependencyGraph}. An opaque builder may have looked up any
+ * service built before it, so an opaque service is also closed before every service which finished building
+ * earlier. Services with no ordering between them are closed in parallel. Edges which would close a cycle
+ * (through a Provider) are ignored.
+ */
+class RegistryCloser {
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "tiny-ioc-close");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final ServiceReference<?>[] references;
+	private final DependencyGraph graph;
+	private final CloseSettings settings;
+
+	RegistryCloser(ServiceReference<?>[] references, DependencyGraph graph, CloseSettings settings) {
+		super();
+		this.references = references;
+		this.graph = graph;
+		this.settings = settings;
+	}
+
+	/**
+	 * Waits until every service has closed or timed out. A service which times out is left running and the
+	 * services it depends on are closed without waiting any longer.
+	 *
+	 * @throws IocException with the first failure as the cause and the others suppressed
+	 */
+	void close() {
+		int count = references.length;
+		AutoCloseable[] closeables = new AutoCloseable[count];
+		long[] sequences = new long[count];
+		for (int i = 0; i < count; ++i) {
+			closeables[i] = references[i].getCloseable();
+			sequences[i] = references[i].getBuildSequence();
+		}
+		close(closeables, sequences);
+	}
+
+	/**
+	 * Closes the given instances in the same order as {@link #close()}, used for the instances replaced by a rebind
+	 *
+	 * @param closeables what to close for each service (by index), null for nothing
+	 * @param sequences the build sequence of each instance, 0 for none
+	 */
+	void close(AutoCloseable[] closeables, long[] sequences) {
+		int count = references.length;
+		int[][] edges = createEdges(sequences);
+		int[] order = DependencyGraph.postOrder(edges, null);
+		int[] position = new int[count];
+		for (int i = 0; i < count; ++i) {
+			position[order[i]] = i;
+		}
+		// an edge to a service finishing later in the post order closes a cycle
+		int[] predecessorCount = new int[count];
+		for (int index = 0; index < count; ++index) {
+			for (int target : edges[index]) {
+				if (position[target] < position[index]) {
+					++predecessorCount[target];
+				}
+			}
+		}
+		int[][] predecessors = new int[count][];
+		for (int index = 0; index < count; ++index) {
+			predecessors[index] = new int[predecessorCount[index]];
+			predecessorCount[index] = 0;
+		}
+		for (int index = 0; index < count; ++index) {
+			for (int target : edges[index]) {
+				if (position[target] < position[index]) {
+					predecessors[target][predecessorCount[target]++] = index;
+				}
+			}
+		}
+
+		ExecutorService ownExecutor = settings.getExecutor() == null ? Executors.newCachedThreadPool(THREAD_FACTORY) : null;
+		Executor executor = ownExecutor == null ? settings.getExecutor() : ownExecutor;
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+		try {
+			List<CompletableFuture<Throwable>> closed = new ArrayList<>(Collections.<CompletableFuture<Throwable>> nCopies(count, null));
+			// dependents come later in the post order so their futures are created first
+			for (int i = count - 1; i >= 0; --i) {
+				int index = order[i];
+				CompletableFuture<?>[] waitFor = new CompletableFuture<?>[predecessors[index].length];
+				for (int j = 0; j < waitFor.length; ++j) {
+					waitFor[j] = closed.get(predecessors[index][j]);
+				}
+				closed.set(index, closeAfter(CompletableFuture.allOf(waitFor), closeables[index], references[index].getServiceId(), executor, timer));
+			}
+			Map<String, Throwable> errors = new LinkedHashMap<>();
+			for (int i = count - 1; i >= 0; --i) {
+				int index = order[i];
+				Throwable error = closed.get(index).join();
+				if (error != null) {
+					errors.put(references[index].getServiceId(), error);
+				}
+			}
+			if (!errors.isEmpty()) {
+				Iterator<Throwable> causes = errors.values().iterator();
+				IocException exception = new IocException(causes.next(), "Error closing services %s", errors.keySet());
+				while (causes.hasNext()) {
+					exception.addSuppressed(causes.next());
+				}
+				throw exception;
+			}
+		} finally {
+			timer.shutdownNow();
+			if (ownExecutor != null) {
+				ownExecutor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @return for each service, the services which must close after it: its dependencies and, for an opaque
+	 * service, the services built since the previous opaque service (which is included)
+	 */
+	private int[][] createEdges(final long[] sequences) {
+		List<Integer> built = new ArrayList<>();
+		for (int index = 0; index < sequences.length; ++index) {
+			if (sequences[index] != 0) {
+				built.add(index);
+			}
+		}
+		Collections.sort(built, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer index1, Integer index2) {
+				return Long.compare(sequences[index1], sequences[index2]);
+			}
+		});
+		int[][] edges = new int[sequences.length][];
+		for (int index = 0; index < sequences.length; ++index) {
+			edges[index] = graph.getDependencies(index);
+		}
+		int start = 0;
+		for (int i = 0; i < built.size(); ++i) {
+			int index = built.get(i);
+			if (!graph.isStatic(index)) {
+				int[] dependencies = edges[index];
+				int[] combined = Arrays.copyOf(dependencies, dependencies.length + i - start);
+				for (int j = start; j < i; ++j) {
+					combined[dependencies.length + j - start] = built.get(j);
+				}
+				edges[index] = combined;
+				start = i;
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * @return completes with null when the service has closed (or has nothing to close), otherwise with the
+	 * failure or timeout. Never completes exceptionally so a failure doesn't stop the services after it closing
+	 */
+	private CompletableFuture<Throwable> closeAfter(CompletableFuture<Void> waitFor, final AutoCloseable closeable, final String serviceId,
+			final Executor executor, final ScheduledExecutorService timer) {
+		if (closeable == null) {
+			return waitFor.thenApply(new Function<Void, Throwable>() {
+				@Override
+				public Throwable apply(Void ignored) {
+					return null;
+				}
+			});
+		}
+		final CompletableFuture<Throwable> result = new CompletableFuture<>();
+		final long timeoutMillis = settings.getTimeoutMillis();
+		final Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				ScheduledFuture<?> timeout = timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						result.complete(new IocException("Timed out closing serviceId '%s' after %s ms", serviceId, timeoutMillis));
+					}
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+				try {
+					closeable.close();
+					result.complete(null);
+				} catch (Exception | Error e) {
+					result.complete(e);
+				} finally {
+					timeout.cancel(false);
+				}
+			}
+		};
+		waitFor.thenRun(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					task.run();
+				}
+			}
+		});
+		return result;
+	}
+}
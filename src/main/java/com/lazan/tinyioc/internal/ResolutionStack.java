@@ -0,0 +1,97 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-thread stack of the services currently under construction, shared by every registry so a thread holds
+ * one stack however many (child) registries it has used, and an empty stack holds no references. Membership is
+ * tracked by a count per service index so cycle detection costs O(1) per step (a reference of another registry
+ * with the same index is told apart by a scan, which only happens when registries nest) and, once the arrays
+ * have grown to the graph depth, pushing and popping allocates nothing.
+ */
+public class ResolutionStack {
+	private static final ThreadLocal<ResolutionStack> CURRENT = new ThreadLocal<ResolutionStack>() {
+		@Override
+		protected ResolutionStack initialValue() {
+			return new ResolutionStack();
+		}
+	};
+
+	private ServiceReference<?>[] references = new ServiceReference<?>[16];
+	private int size;
+	private int[] counts = new int[16];
+
+	/**
+	 * @return the current thread's stack
+	 */
+	public static ResolutionStack current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Makes the stack the current thread's stack
+	 *
+	 * @return the current thread's previous stack, to be restored
+	 */
+	public static ResolutionStack swap(ResolutionStack stack) {
+		ResolutionStack previous = CURRENT.get();
+		CURRENT.set(stack);
+		return previous;
+	}
+
+	public boolean contains(ServiceReference<?> reference) {
+		int index = reference.getIndex();
+		if (index >= counts.length || counts[index] == 0) {
+			return false;
+		}
+		for (int i = size - 1; i >= 0; --i) {
+			if (references[i] == reference) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void push(ServiceReference<?> reference) {
+		if (size == references.length) {
+			references = Arrays.copyOf(references, size * 2);
+		}
+		int index = reference.getIndex();
+		if (index >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+		}
+		references[size++] = reference;
+		++counts[index];
+	}
+
+	public void pop() {
+		ServiceReference<?> reference = references[--size];
+		// don't keep the registry reachable from the thread
+		references[size] = null;
+		--counts[reference.getIndex()];
+	}
+
+	/**
+	 * @return the serviceIds on the stack from the bottom, used for error reporting only
+	 */
+	public List<String> getServiceIds() {
+		List<String> serviceIds = new ArrayList<>(size + 1);
+		for (int i = 0; i < size; ++i) {
+			serviceIds.add(references[i].getServiceId());
+		}
+		return serviceIds;
+	}
+
+	/**
+	 * @return a stack with the same services, for a task continuing this thread's construction on another thread
+	 */
+	public ResolutionStack copy() {
+		ResolutionStack copy = new ResolutionStack();
+		copy.references = Arrays.copyOf(references, references.length);
+		copy.size = size;
+		copy.counts = Arrays.copyOf(counts, counts.length);
+		return copy;
+	}
+}
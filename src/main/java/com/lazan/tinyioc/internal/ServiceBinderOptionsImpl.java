@@ -1,13 +1,19 @@
 package com.lazan.tinyioc.internal;
 
+import com.lazan.tinyioc.IocException;
 import com.lazan.tinyioc.ServiceBinderOptions;
 import com.lazan.tinyioc.ServiceBuilder;
+import com.lazan.tinyioc.ServiceScope;
 
 public class ServiceBinderOptionsImpl implements ServiceBinderOptions {
 	private final Class<?> serviceType;
 	private final ServiceBuilder<?> serviceBuilder;
 	private String serviceId;
 	private boolean eagerLoad;
+	private boolean lazy;
+	private ServiceScope scope = ServiceScope.SINGLETON;
+	private PoolSettings poolSettings = PoolSettings.DEFAULT;
+	private boolean parallelContributions;
 
 	public ServiceBinderOptionsImpl(Class<?> serviceType, ServiceBuilder<?> serviceBuilder) {
 		super();
@@ -27,6 +33,48 @@ public class ServiceBinderOptionsImpl implements ServiceBinderOptions {
 		return this;
 	}
 	
+	@Override
+	public ServiceBinderOptions lazy() {
+		this.lazy = true;
+		return this;
+	}
+	
+	@Override
+	public ServiceBinderOptions withScope(ServiceScope scope) {
+		if (scope == null) {
+			throw new IocException("Scope cannot be null");
+		}
+		this.scope = scope;
+		return this;
+	}
+	
+	@Override
+	public ServiceBinderOptions withPool(int minSize, int maxSize, long maxIdleMillis) {
+		this.scope = ServiceScope.POOLED;
+		this.poolSettings = new PoolSettings(minSize, maxSize, maxIdleMillis);
+		return this;
+	}
+	
+	@Override
+	public ServiceBinderOptions withParallelContributions() {
+		this.parallelContributions = true;
+		return this;
+	}
+	
+	/**
+	 * @return a copy of these options with a different builder
+	 */
+	public ServiceBinderOptionsImpl withServiceBuilder(ServiceBuilder<?> serviceBuilder) {
+		ServiceBinderOptionsImpl copy = new ServiceBinderOptionsImpl(serviceType, serviceBuilder);
+		copy.serviceId = serviceId;
+		copy.eagerLoad = eagerLoad;
+		copy.lazy = lazy;
+		copy.scope = scope;
+		copy.poolSettings = poolSettings;
+		copy.parallelContributions = parallelContributions;
+		return copy;
+	}
+	
 	public String getServiceId() {
 		return serviceId;
 	}
@@ -42,4 +90,20 @@ public class ServiceBinderOptionsImpl implements ServiceBinderOptions {
 	public boolean isEagerLoad() {
 		return eagerLoad;
 	}
-}
\ No newline at end of file
+	
+	public boolean isLazy() {
+		return lazy;
+	}
+	
+	public ServiceScope getScope() {
+		return scope;
+	}
+	
+	public PoolSettings getPoolSettings() {
+		return poolSettings;
+	}
+	
+	public boolean isParallelContributions() {
+		return parallelContributions;
+	}
+}
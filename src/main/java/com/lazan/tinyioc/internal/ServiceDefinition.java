@@ -0,0 +1,81 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lazan.tinyioc.MappedContributor;
+import com.lazan.tinyioc.OrderedContributor;
+import com.lazan.tinyioc.ServiceBuilder;
+import com.lazan.tinyioc.UnorderedContributor;
+
+/**
+ * Everything a registry was given for one of its services. Kept by the registry (a {@link ServiceReference} drops
+ * its builder once built) so a child registry can rebuild a parent's service with extra decorators or
+ * contributions and so a service can be rebound, see {@link ServiceRegistryImpl#getDefinition(String)}
+ */
+public class ServiceDefinition {
+	private final ServiceBinderOptionsImpl options;
+	private final List<ServiceDecoratorOptionsImpl> decorators;
+	private final List<UnorderedContributor<?>> unorderedContributions;
+	private final List<OrderedContributor<?>> orderedContributions;
+	private final List<MappedContributor<?, ?>> mappedContributions;
+
+	public ServiceDefinition(ServiceBinderOptionsImpl options, List<ServiceDecoratorOptionsImpl> decorators,
+			List<UnorderedContributor<?>> unorderedContributions,
+			List<OrderedContributor<?>> orderedContributions,
+			List<MappedContributor<?, ?>> mappedContributions) {
+		super();
+		this.options = options;
+		this.decorators = decorators;
+		this.unorderedContributions = unorderedContributions;
+		this.orderedContributions = orderedContributions;
+		this.mappedContributions = mappedContributions;
+	}
+
+	/**
+	 * @return a copy of this definition with a different builder, the decorators and contributors are kept
+	 */
+	public ServiceDefinition withServiceBuilder(ServiceBuilder<?> builder) {
+		return new ServiceDefinition(options.withServiceBuilder(builder), decorators, unorderedContributions, orderedContributions, mappedContributions);
+	}
+
+	/**
+	 * @return true if the service has decorators or contributors
+	 */
+	public boolean isDecoratedOrContributed() {
+		return decorators != null || unorderedContributions != null || orderedContributions != null || mappedContributions != null;
+	}
+
+	/**
+	 * @return the parent's contributors followed by the child's, null if there are none
+	 */
+	static <C> List<C> concat(List<C> parent, List<C> child) {
+		if (parent == null || child == null) {
+			return parent == null ? child : parent;
+		}
+		List<C> result = new ArrayList<>(parent.size() + child.size());
+		result.addAll(parent);
+		result.addAll(child);
+		return result;
+	}
+
+	public ServiceBinderOptionsImpl getOptions() {
+		return options;
+	}
+
+	public List<ServiceDecoratorOptionsImpl> getDecorators() {
+		return decorators;
+	}
+
+	public List<UnorderedContributor<?>> getUnorderedContributions() {
+		return unorderedContributions;
+	}
+
+	public List<OrderedContributor<?>> getOrderedContributions() {
+		return orderedContributions;
+	}
+
+	public List<MappedContributor<?, ?>> getMappedContributions() {
+		return mappedContributions;
+	}
+}
@@ -0,0 +1,202 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, array-backed view of the services assignable to a type, keyed by serviceId in registration
+ * order. Views are created once per type and cached by the registry. Values are resolved through the
+ * service references on access, lookup by serviceId uses the registry's id index.
+ */
+public class ServiceMap<T> extends AbstractMap<String, T> {
+	/**
+	 * Iterates the references by position, subclasses map a position to the element so iterating allocates
+	 * nothing but the iterator
+	 */
+	private abstract class ArrayIterator<E> implements Iterator<E> {
+		private int next;
+
+		@Override
+		public boolean hasNext() {
+			return next < references.length;
+		}
+
+		@Override
+		public E next() {
+			if (next >= references.length) {
+				throw new NoSuchElementException();
+			}
+			return get(next++);
+		}
+
+		protected abstract E get(int index);
+	}
+
+	/**
+	 * Entry created once per service, the value is resolved through the reference on each access
+	 */
+	private class ServiceEntry implements Entry<String, T> {
+		private final ServiceReference<?> reference;
+
+		public ServiceEntry(ServiceReference<?> reference) {
+			super();
+			this.reference = reference;
+		}
+
+		@Override
+		public String getKey() {
+			return reference.getServiceId();
+		}
+
+		@Override
+		public T getValue() {
+			return ServiceMap.this.getValue(reference);
+		}
+
+		@Override
+		public T setValue(T value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Entry)) {
+				return false;
+			}
+			Entry<?, ?> entry = (Entry<?, ?>) other;
+			return getKey().equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	private final ServiceRegistryImpl registry;
+	private final Class<T> serviceType;
+	private final ServiceReference<?>[] references;
+	private final ServiceEntry[] entries;
+	private final Set<Entry<String, T>> entrySet = new AbstractSet<Entry<String, T>>() {
+		@Override
+		public Iterator<Entry<String, T>> iterator() {
+			return new ArrayIterator<Entry<String, T>>() {
+				@Override
+				protected Entry<String, T> get(int index) {
+					return entries[index];
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return references.length;
+		}
+	};
+	private final Set<String> keySet = new AbstractSet<String>() {
+		@Override
+		public Iterator<String> iterator() {
+			return new ArrayIterator<String>() {
+				@Override
+				protected String get(int index) {
+					return references[index].getServiceId();
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object key) {
+			return containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return references.length;
+		}
+	};
+	private final Collection<T> values = new AbstractCollection<T>() {
+		@Override
+		public Iterator<T> iterator() {
+			return new ArrayIterator<T>() {
+				@Override
+				protected T get(int index) {
+					return getValue(references[index]);
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return references.length;
+		}
+	};
+
+	@SuppressWarnings("unchecked")
+	public ServiceMap(ServiceRegistryImpl registry, Class<T> serviceType, ServiceReference<?>[] references) {
+		super();
+		this.registry = registry;
+		this.serviceType = serviceType;
+		this.references = references;
+		this.entries = (ServiceEntry[]) new ServiceMap<?>.ServiceEntry[references.length];
+		for (int i = 0; i < references.length; ++i) {
+			entries[i] = new ServiceEntry(references[i]);
+		}
+	}
+
+	@Override
+	public T get(Object key) {
+		ServiceReference<?> reference = findReference(key);
+		return reference == null ? null : getValue(reference);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return findReference(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return references.length;
+	}
+
+	@Override
+	public Set<Entry<String, T>> entrySet() {
+		return entrySet;
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return keySet;
+	}
+
+	@Override
+	public Collection<T> values() {
+		return values;
+	}
+
+	private ServiceReference<?> findReference(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		ServiceReference<?> reference = registry.getReference((String) key);
+		if (reference == null || !serviceType.isAssignableFrom(reference.getServiceType())) {
+			return null;
+		}
+		return reference;
+	}
+
+	private T getValue(ServiceReference<?> reference) {
+		return serviceType.cast(reference.get(registry.getOwner(reference)));
+	}
+}
@@ -0,0 +1,325 @@
+package com.lazan.tinyioc.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.PoolMetrics;
+import com.lazan.tinyioc.ServiceLease;
+
+/**
+ * Bounded pool of service instances. Idle instances are kept in a lock-free deque, most recently returned
+ * first so warm instances are reused and the oldest are evicted. A semaphore bounds the number of instances
+ * in use: borrowing below the maximum size is a single CAS in tryAcquire, the semaphore's queue is only used to
+ * park borrowers when the pool is exhausted, which a lock-free structure would have to do anyway. Idle
+ * instances are evicted when instances are returned and, so an idle pool with no traffic shrinks too, by a
+ * shared timer every maxIdleMillis. Evicted instances which are {@link AutoCloseable} are closed. idleCount
+ * never exceeds the size of the deque: instances are offered before it is incremented and every taker
+ * reserves an instance by decrementing it before polling, which lets eviction stop exactly at minSize.
+ */
+public class ServicePool<T> implements PoolMetrics, AutoCloseable {
+	private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "tiny-ioc-pool-evictor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Holds the pool weakly so a registry which is never closed doesn't keep its pools alive
+	 */
+	private static class EvictionTask implements Runnable {
+		private final WeakReference<ServicePool<?>> pool;
+		private volatile ScheduledFuture<?> future;
+
+		public EvictionTask(ServicePool<?> pool) {
+			super();
+			this.pool = new WeakReference<ServicePool<?>>(pool);
+		}
+
+		@Override
+		public void run() {
+			ServicePool<?> current = pool.get();
+			if (current != null) {
+				current.evictIdle(System.nanoTime());
+			} else if (future != null) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	private static class IdleService<T> {
+		private final T service;
+		private final long returnedNanos;
+
+		public IdleService(T service, long returnedNanos) {
+			super();
+			this.service = service;
+			this.returnedNanos = returnedNanos;
+		}
+	}
+
+	private class Lease implements ServiceLease<T> {
+		private final T service;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		public Lease(T service) {
+			super();
+			this.service = service;
+		}
+
+		@Override
+		public T get() {
+			if (closed.get()) {
+				throw new IocException("Lease for pooled service '%s' is closed", serviceId);
+			}
+			return service;
+		}
+
+		@Override
+		public void close() {
+			// a lease closed twice (eg by racing threads) must release its permit once
+			if (closed.compareAndSet(false, true)) {
+				release(service);
+			}
+		}
+	}
+
+	private final String serviceId;
+	private final ServiceReference<T> reference;
+	private final ServiceRegistryImpl registry;
+	private final PoolSettings settings;
+	private final long maxIdleNanos;
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<IdleService<T>> idleServices = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final LongAdder borrowCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final ScheduledFuture<?> eviction;
+	private volatile boolean closed;
+
+	public ServicePool(ServiceReference<T> reference, ServiceRegistryImpl registry, PoolSettings settings) {
+		super();
+		this.serviceId = reference.getServiceId();
+		this.reference = reference;
+		this.registry = registry;
+		this.settings = settings;
+		this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMaxIdleMillis());
+		this.permits = new Semaphore(settings.getMaxSize());
+		long now = System.nanoTime();
+		for (int i = 0; i < settings.getMinSize(); ++i) {
+			idleServices.offerFirst(new IdleService<>(create(), now));
+			idleCount.incrementAndGet();
+		}
+		if (settings.getMaxSize() > settings.getMinSize() && settings.getMaxIdleMillis() > 0) {
+			EvictionTask task = new EvictionTask(this);
+			eviction = EVICTOR.scheduleWithFixedDelay(task, settings.getMaxIdleMillis(), settings.getMaxIdleMillis(), TimeUnit.MILLISECONDS);
+			task.future = eviction;
+		} else {
+			// nothing can be evicted, or instances are evicted as soon as they are returned
+			eviction = null;
+		}
+	}
+
+	public ServiceLease<T> borrow() {
+		checkOpen();
+		if (!permits.tryAcquire()) {
+			long start = System.nanoTime();
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IocException(e, "Interrupted borrowing pooled service '%s'", serviceId);
+			}
+			long wait = System.nanoTime() - start;
+			totalWaitNanos.add(wait);
+			long max;
+			while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait));
+			if (closed) {
+				// woken by a lease returned after the registry was closed
+				permits.release();
+				checkOpen();
+			}
+		}
+		borrowCount.increment();
+		IdleService<T> idle = reserve(0) ? idleServices.pollFirst() : null;
+		if (idle != null) {
+			return new Lease(idle.service);
+		}
+		missCount.increment();
+		try {
+			return new Lease(create());
+		} catch (RuntimeException | Error e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IocException("Pool for serviceId '%s' is closed", serviceId);
+		}
+	}
+
+	/**
+	 * Decrements idleCount if it's above the limit, the caller may then take one instance from the deque
+	 */
+	private boolean reserve(int limit) {
+		int count;
+		while ((count = idleCount.get()) > limit) {
+			if (idleCount.compareAndSet(count, count - 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private T create() {
+		return reference.getServiceType().cast(reference.create(registry));
+	}
+
+	private void release(T service) {
+		long now = System.nanoTime();
+		idleServices.offerFirst(new IdleService<>(service, now));
+		idleCount.incrementAndGet();
+		permits.release();
+		if (closed) {
+			// returned after the registry was closed, closing is best effort as for eviction
+			closeIdle();
+		} else {
+			evictIdle(now);
+		}
+	}
+
+	/**
+	 * Closes the idle instances, instances on lease are closed when they are returned. Called when the registry
+	 * is closed
+	 *
+	 * @throws IocException with the first failure as the cause and the others suppressed
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (eviction != null) {
+			eviction.cancel(false);
+		}
+		Exception failure = closeIdle();
+		if (failure != null) {
+			IocException exception = new IocException(failure, "Error closing pooled serviceId '%s'", serviceId);
+			for (Throwable suppressed : failure.getSuppressed()) {
+				exception.addSuppressed(suppressed);
+			}
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return the first failure with any others suppressed, or null
+	 */
+	private Exception closeIdle() {
+		Exception failure = null;
+		IdleService<T> idle;
+		while (reserve(0) && (idle = idleServices.pollFirst()) != null) {
+			if (idle.service instanceof AutoCloseable) {
+				try {
+					((AutoCloseable) idle.service).close();
+				} catch (Exception e) {
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+		}
+		return failure;
+	}
+
+	private void evictIdle(long now) {
+		while (true) {
+			IdleService<T> oldest = idleServices.peekLast();
+			if (oldest == null || now - oldest.returnedNanos < maxIdleNanos || !reserve(settings.getMinSize())) {
+				return;
+			}
+			if (!idleServices.removeLastOccurrence(oldest)) {
+				// borrowed since it was peeked, give the reservation back and look again
+				idleCount.incrementAndGet();
+				continue;
+			}
+			evictionCount.increment();
+			if (oldest.service instanceof AutoCloseable) {
+				try {
+					((AutoCloseable) oldest.service).close();
+				} catch (Exception e) {
+					// eviction is best effort, a failing close must not fail the caller returning a lease
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getMinSize() {
+		return settings.getMinSize();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return settings.getMaxSize();
+	}
+
+	@Override
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+
+	@Override
+	public int getActiveCount() {
+		return settings.getMaxSize() - permits.availablePermits();
+	}
+
+	@Override
+	public long getBorrowCount() {
+		return borrowCount.sum();
+	}
+
+	@Override
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	@Override
+	public double getMissRate() {
+		long borrows = borrowCount.sum();
+		return borrows == 0 ? 0 : (double) missCount.sum() / borrows;
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	@Override
+	public long getTotalBorrowWaitNanos() {
+		return totalWaitNanos.sum();
+	}
+
+	@Override
+	public long getMaxBorrowWaitNanos() {
+		return maxWaitNanos.get();
+	}
+}
@@ -0,0 +1,86 @@
+package com.lazan.tinyioc.internal;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.function.Supplier;
+
+import javax.inject.Provider;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.ServiceRegistry;
+
+/**
+ * Injected for {@link Provider} and {@link Supplier} parameters and fields. The target service is resolved
+ * to its {@link ServiceReference} when the provider is created so {@link #get()} skips the serviceId / type
+ * lookup and, once the service is built, costs a field read. Registries other than {@link ServiceRegistryImpl}
+ * fall back to a lookup per call.
+ */
+public final class ServiceProvider<T> implements Provider<T>, Supplier<T> {
+	private final ServiceRegistry registry;
+	private final ServiceReference<?> reference;
+	private final String serviceId;
+	private final Class<T> serviceType;
+
+	private ServiceProvider(ServiceRegistry registry, ServiceReference<?> reference, String serviceId, Class<T> serviceType) {
+		super();
+		this.registry = registry;
+		this.reference = reference;
+		this.serviceId = serviceId;
+		this.serviceType = serviceType;
+	}
+
+	/**
+	 * @param serviceId the serviceId or null to find the service by type
+	 * @param serviceType the type argument of the Provider / Supplier
+	 */
+	public static <T> ServiceProvider<T> create(ServiceRegistry registry, String serviceId, Class<T> serviceType) {
+		if (serviceType == null) {
+			throw new IocException("Provider and Supplier injection requires a type argument");
+		}
+		if (registry instanceof StagedRegistry) {
+			// the provider outlives the rebind
+			registry = ((StagedRegistry) registry).getRegistry();
+		}
+		if (!(registry instanceof ServiceRegistryImpl)) {
+			return new ServiceProvider<>(registry, null, serviceId, serviceType);
+		}
+		ServiceRegistryImpl registryImpl = (ServiceRegistryImpl) registry;
+		ServiceReference<?> reference;
+		if (serviceId == null) {
+			reference = registryImpl.findReference(serviceType);
+		} else {
+			reference = registryImpl.findReference(serviceId);
+			if (!serviceType.isAssignableFrom(reference.getServiceType())) {
+				throw new IocException("Incompatible type for serviceId '%s'", serviceId);
+			}
+		}
+		// a parent's service is built by the parent
+		return new ServiceProvider<>(registryImpl.getOwner(reference), reference, serviceId, serviceType);
+	}
+
+	public static boolean isProviderType(Class<?> type) {
+		return type == Provider.class || type == Supplier.class;
+	}
+
+	/**
+	 * @return the raw type argument of a Provider / Supplier type or null if it has none
+	 */
+	public static Class<?> getProvidedType(Type providerType) {
+		if (!(providerType instanceof ParameterizedType)) {
+			return null;
+		}
+		Type typeArgument = ((ParameterizedType) providerType).getActualTypeArguments()[0];
+		if (typeArgument instanceof ParameterizedType) {
+			typeArgument = ((ParameterizedType) typeArgument).getRawType();
+		}
+		return typeArgument instanceof Class ? (Class<?>) typeArgument : null;
+	}
+
+	@Override
+	public T get() {
+		if (reference != null) {
+			return serviceType.cast(reference.get((ServiceRegistryImpl) registry));
+		}
+		return serviceId == null ? registry.getService(serviceType) : registry.getService(serviceId, serviceType);
+	}
+}
@@ -1,32 +1,48 @@
-	package com.lazan.tinyioc.internal;
+package com.lazan.tinyioc.internal;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
+import com.lazan.tinyioc.AsyncServiceBuilder;
+import com.lazan.tinyioc.ConstructionListener;
+import com.lazan.tinyioc.ConstructionListener.Phase;
 import com.lazan.tinyioc.IocException;
 import com.lazan.tinyioc.MappedContributor;
 import com.lazan.tinyioc.OrderedContributor;
 import com.lazan.tinyioc.ServiceBuilder;
 import com.lazan.tinyioc.ServiceBuilderContext;
 import com.lazan.tinyioc.ServiceDecorator;
+import com.lazan.tinyioc.ServiceLease;
+import com.lazan.tinyioc.ServiceRegistry;
+import com.lazan.tinyioc.ServiceScope;
 import com.lazan.tinyioc.UnorderedContributor;
 
 public class ServiceReference<T> {
 	public class ServiceDependencies {
 		private final Class<T> serviceType;
 		private final ServiceBuilder<T> builder;
-		private final List<ServiceDecorator<T>> decorators;
+		private final List<ServiceDecoratorOptionsImpl> decorators;
 		private final List<UnorderedContributor<?>> unorderedContributions;
 		private final List<OrderedContributor<?>> orderedContributions;
 		private final List<MappedContributor<?,?>> mappedContributions;
-		public ServiceDependencies(Class<T> serviceType, ServiceBuilder<T> builder, List<ServiceDecorator<T>> decorators,
+		public ServiceDependencies(Class<T> serviceType, ServiceBuilder<T> builder, List<ServiceDecoratorOptionsImpl> decorators,
 				List<UnorderedContributor<?>> unorderedContributions,
 				List<OrderedContributor<?>> orderedContributions,
 				List<MappedContributor<?, ?>> mappedContributions) {
@@ -40,19 +56,104 @@ public class ServiceReference<T> {
 		}
 	}
 	
+	/**
+	 * Holder for a built service. The final field guarantees that any thread which sees the holder also sees
+	 * the fully constructed service, so the holder can be published through a plain (non volatile) field.
+	 */
+	private static class BuiltService {
+		private final Object service;
+
+		public BuiltService(Object service) {
+			super();
+			this.service = service;
+		}
+	}
+	
+	/**
+	 * Context with the contributions built, shared by every instance of a prototype, per thread or pooled service.
+	 * Published through a final field for the same reason as {@link BuiltService}
+	 */
+	private static class PreparedContext<T> {
+		private final ServiceBuilderContextImpl context;
+		private final ServiceReference<T>.ServiceDependencies dependencies;
+
+		public PreparedContext(ServiceBuilderContextImpl context, ServiceReference<T>.ServiceDependencies dependencies) {
+			super();
+			this.context = context;
+			this.dependencies = dependencies;
+		}
+	}
+	
+	/**
+	 * Lease for scopes which aren't pooled, closing is a no-op
+	 */
+	private static class SharedLease<T> implements ServiceLease<T> {
+		private final T service;
+
+		public SharedLease(T service) {
+			super();
+			this.service = service;
+		}
+
+		@Override
+		public T get() {
+			return service;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+	
+	private final int index;
 	private final String serviceId;
+	private final Class<T> serviceType;
 	private final boolean eagerLoad;
-	private ServiceDependencies dependencies;
-	private final AtomicReference<Object> reference = new AtomicReference<>();
+	private final boolean lazy;
+	private final ServiceScope scope;
+	private volatile ThreadLocal<Object> perThreadServices;
+	private final PoolSettings poolSettings;
+	private final boolean parallelContributions;
+	private volatile boolean verified;
+	private volatile ServiceDependencies dependencies;
+	private BuiltService builtService;
+	private BuiltService lazyProxy;
+	/*
+	 * What get() returns once it's known (the lazy proxy of a lazy service, otherwise the built singleton or pool
+	 * proxy) so a warm lookup is one plain field read with no branch on the lazy flag or scope. The final field
+	 * of BuiltService makes an instance safe to read but a plain write isn't promptly visible: a thread may see
+	 * a rebound service only after synchronizing with the thread which rebound it
+	 */
+	private BuiltService lookup;
+	private PreparedContext<T> preparedContext;
+	private ServicePool<T> pool;
+	private volatile long buildSequence;
 	
-	public ServiceReference(String serviceId, Class<T> serviceType, ServiceBuilder<T> builder, boolean eagerLoad,
-			List<ServiceDecorator<T>> decorators, 
+	/*
+	 * The singleton, prepared context and pool being built or built, shared by every caller (synchronous or
+	 * not) instead of locking this reference. A slot is cleared when its build fails so the next lookup tries
+	 * again
+	 */
+	private final AtomicReference<InFlightBuild<Object>> singleton = new AtomicReference<>();
+	private final AtomicReference<InFlightBuild<PreparedContext<T>>> preparing = new AtomicReference<>();
+	private final AtomicReference<InFlightBuild<ServicePool<T>>> pooling = new AtomicReference<>();
+	
+	public ServiceReference(int index, String serviceId, Class<T> serviceType, ServiceBuilder<T> builder, boolean eagerLoad,
+			boolean lazy, ServiceScope scope, PoolSettings poolSettings, boolean parallelContributions,
+			List<ServiceDecoratorOptionsImpl> decorators, 
 			List<UnorderedContributor<?>> unorderedContributions,
 			List<OrderedContributor<?>> orderedContributions,
 			List<MappedContributor<?, ?>> mappedContributions) {
 		super();
+		this.index = index;
 		this.serviceId = serviceId;
+		this.serviceType = serviceType;
 		this.eagerLoad = eagerLoad;
+		this.lazy = lazy;
+		this.scope = scope;
+		this.perThreadServices = scope == ServiceScope.PER_THREAD ? new ThreadLocal<Object>() : null;
+		this.poolSettings = poolSettings;
+		this.parallelContributions = parallelContributions;
 		this.dependencies = new ServiceDependencies(
 				serviceType, builder, decorators, 
 				unorderedContributions, orderedContributions, mappedContributions
@@ -60,110 +161,818 @@ public class ServiceReference<T> {
 	}
 
 	public Object get(ServiceRegistryImpl registry) {
-		Object service = reference.get();
-		if (service == null) {
-			synchronized(reference) {
-				service = reference.get();
+		BuiltService known = lookup;
+		if (known != null) {
+			return known.service;
+		}
+		return lazy ? createLazyProxy(registry) : resolve(registry);
+	}
+
+	/**
+	 * @return the service instance for the current scope, ignoring {@link #lazy}
+	 */
+	Object resolve(ServiceRegistryImpl registry) {
+		BuiltService built = builtService;
+		if (built != null) {
+			return built.service;
+		}
+		switch (scope) {
+			case PROTOTYPE:
+				return create(registry);
+			case PER_THREAD:
+				Object service = perThreadServices.get();
 				if (service == null) {
-					Set<String> serviceIdStack = registry.getServiceIdStack();
-					if (serviceIdStack.contains(serviceId)) {
-						List<String> references = new LinkedList<>(serviceIdStack);
-						references.add(serviceId);
-						throw new IocException("Circular dependency reference detected %s", references);
+					service = create(registry);
+					perThreadServices.set(service);
+				}
+				return service;
+			case POOLED:
+				return buildPoolProxy(registry);
+			default:
+				return build(registry, waitStart(registry));
+		}
+	}
+
+	private void setBuiltService(BuiltService built) {
+		builtService = built;
+		if (!lazy) {
+			lookup = built;
+		}
+	}
+
+	/**
+	 * Prototypes get a new proxy (and a new instance on first use) per lookup, other scopes share one proxy
+	 */
+	private Object createLazyProxy(ServiceRegistryImpl registry) {
+		if (scope == ServiceScope.PROTOTYPE) {
+			return GeneratedTypes.createLazyProxy(serviceType, new LazyTarget<>(this, registry));
+		}
+		synchronized (this) {
+			if (lazyProxy == null) {
+				lazyProxy = new BuiltService(GeneratedTypes.createLazyProxy(serviceType, new LazyTarget<>(this, registry)));
+				lookup = lazyProxy;
+			}
+			return lazyProxy.service;
+		}
+	}
+
+	public ServiceLease<T> borrow(ServiceRegistryImpl registry) {
+		if (scope != ServiceScope.POOLED) {
+			return new SharedLease<>(serviceType.cast(resolve(registry)));
+		}
+		return getPool(registry).borrow();
+	}
+
+	public ServicePool<T> getPool(ServiceRegistryImpl registry) {
+		ServicePool<T> current = pool;
+		if (current != null) {
+			return current;
+		}
+		return createPool(registry);
+	}
+
+	private ServicePool<T> createPool(ServiceRegistryImpl registry) {
+		InFlightBuild<ServicePool<T>> created = new InFlightBuild<>(serviceId, Thread.currentThread());
+		InFlightBuild<ServicePool<T>> existing = InFlightBuild.claim(pooling, created);
+		if (existing != null) {
+			return existing.await();
+		}
+		try {
+			ServicePool<T> current = new ServicePool<>(this, registry, poolSettings);
+			pool = current;
+			buildSequence = registry.nextBuildSequence();
+			created.complete(current);
+			return current;
+		} catch (RuntimeException | Error e) {
+			InFlightBuild.fail(pooling, created, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Pooled services are exposed to getService and injection as a proxy which borrows an instance for each
+	 * method call. This is only possible for interface types
+	 */
+	private synchronized Object buildPoolProxy(final ServiceRegistryImpl registry) {
+		BuiltService built = builtService;
+		if (built != null) {
+			return built.service;
+		}
+		if (!serviceType.isInterface()) {
+			throw new IocException("Pooled serviceId '%s' has non-interface type %s, use ServiceRegistry.borrowService", serviceId, serviceType.getName());
+		}
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class) {
+					switch (method.getName()) {
+						case "equals":
+							return proxy == args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "toString":
+							return "Pooled " + serviceType.getName() + " '" + serviceId + "'";
 					}
-					ServiceRegistryImpl registryWrapper = new ServiceRegistryImpl(registry, serviceId);
-					ServiceBuilderContextImpl context = new ServiceBuilderContextImpl(registryWrapper, serviceId, dependencies.serviceType);
-					context.setMappedContributions(buildMappedContributions(context));
-					context.setOrderedContributions(buildOrderedContributions(context));
-					context.setUnorderedContributions(buildUnorderedContributions(context));
-					T candidate = dependencies.builder.build(context);
-					if (dependencies.decorators != null) {
-						for (ServiceDecorator<T> decorator : dependencies.decorators) {
-							candidate = decorator.decorate(context, candidate);
-						}
+				}
+				try (ServiceLease<T> lease = getPool(registry).borrow()) {
+					return method.invoke(lease.get(), args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		};
+		Object proxy = Proxy.newProxyInstance(serviceType.getClassLoader(), new Class<?>[] { serviceType }, handler);
+		setBuiltService(new BuiltService(proxy));
+		return proxy;
+	}
+
+	/**
+	 * Builds the singleton on the calling thread, or waits for the thread (or async build) which got there first
+	 *
+	 * @param waitStart when the caller started waiting, only read if a listener is registered
+	 */
+	private Object build(ServiceRegistryImpl registry, long waitStart) {
+		ConstructionListener listener = registry.getConstructionListener();
+		ResolutionStack stack = push(registry);
+		try {
+			InFlightBuild<Object> created = new InFlightBuild<>(serviceId, Thread.currentThread());
+			InFlightBuild<Object> existing = InFlightBuild.claim(singleton, created);
+			if (existing != null) {
+				try {
+					return existing.await();
+				} finally {
+					waited(listener, waitStart);
+				}
+			}
+			begin(listener, Phase.CONSTRUCT, null);
+			try {
+				ServiceDependencies current = dependencies;
+				ServiceBuilderContextImpl context = createContext(registry, registry, current, listener);
+				T candidate = decorate(listener, current, context, construct(listener, current, context));
+				publish(registry, created, candidate);
+				return candidate;
+			} catch (RuntimeException | Error e) {
+				InFlightBuild.fail(singleton, created, e);
+				throw e;
+			} finally {
+				end(listener, Phase.CONSTRUCT, null);
+			}
+		} finally {
+			pop(stack);
+		}
+	}
+
+	/**
+	 * @return the service instance for the current scope without blocking the caller. A singleton is built on the
+	 * registry's async executor once the singletons it injects are built (composed without blocking), an
+	 * {@link AsyncServiceBuilder} completes the future when its own future does. Per thread instances belong to
+	 * the calling thread so they are still built by it
+	 */
+	CompletableFuture<Object> getAsync(final ServiceRegistryImpl registry) {
+		if (lazy) {
+			return CompletableFuture.completedFuture(get(registry));
+		}
+		BuiltService built = builtService;
+		if (built != null) {
+			return CompletableFuture.completedFuture(built.service);
+		}
+		switch (scope) {
+			case SINGLETON:
+				return buildAsync(registry, null);
+			case PROTOTYPE:
+				return CompletableFuture.supplyAsync(new Supplier<Object>() {
+					@Override
+					public Object get() {
+						return create(registry);
+					}
+				}, registry.getAsyncExecutor());
+			default:
+				return CompletableFuture.completedFuture(resolve(registry));
+		}
+	}
+
+	/**
+	 * @return the service if it can be returned without building anything (a lazy proxy always can), otherwise
+	 * null
+	 */
+	Object getIfReady(ServiceRegistryImpl registry) {
+		if (lazy) {
+			return get(registry);
+		}
+		BuiltService built = builtService;
+		if (built != null) {
+			return built.service;
+		}
+		return scope == ServiceScope.PER_THREAD ? perThreadServices.get() : null;
+	}
+
+	/**
+	 * @param dependent the async build waiting for this one, which records this build before it can run
+	 */
+	private CompletableFuture<Object> buildAsync(final ServiceRegistryImpl registry, InFlightBuild<Object> dependent) {
+		InFlightBuild<Object> existing = singleton.get();
+		if (existing == null) {
+			// no thread is building while the dependencies are built
+			final InFlightBuild<Object> created = new InFlightBuild<>(serviceId, null);
+			existing = InFlightBuild.claim(singleton, created);
+			if (existing == null) {
+				if (dependent != null) {
+					dependent.addAwaiting(created);
+				}
+				return startAsync(registry, created);
+			}
+		}
+		if (dependent != null) {
+			dependent.addAwaiting(existing);
+		}
+		return existing.getFuture();
+	}
+
+	private CompletableFuture<Object> startAsync(final ServiceRegistryImpl registry, final InFlightBuild<Object> created) {
+		final ServiceDependencies current = dependencies;
+		CompletableFuture<Void> ready;
+		try {
+			ready = getDependenciesAsync(registry, current, created);
+		} catch (RuntimeException | Error e) {
+			InFlightBuild.fail(singleton, created, e);
+			return created.getFuture();
+		}
+		ready.whenCompleteAsync(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void ignored, Throwable failure) {
+				// a thread waiting for the build from here on waits for this one
+				created.setBuilder(Thread.currentThread());
+				if (failure != null) {
+					InFlightBuild.fail(singleton, created, InFlightBuild.unwrap(failure));
+				} else {
+					constructAsync(registry, current, created);
+				}
+			}
+		}, registry.getAsyncExecutor());
+		return created.getFuture();
+	}
+
+	/**
+	 * @return completes when the singletons which the builder injects are built. Opaque builders, Providers and
+	 * other scopes are left to the builder. Their builds are recorded on created for deadlock detection
+	 */
+	private CompletableFuture<Void> getDependenciesAsync(ServiceRegistryImpl registry, ServiceDependencies current, InFlightBuild<Object> created) {
+		if (!(current.builder instanceof StaticDependencies)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		List<CompletableFuture<Object>> futures = new ArrayList<>();
+		for (Dependency dependency : ((StaticDependencies) current.builder).getDependencies()) {
+			if (dependency.isDeferred()) {
+				continue;
+			}
+			ServiceReference<?> target = DependencyGraph.resolve(registry, this, dependency);
+			if (target.scope == ServiceScope.SINGLETON && !target.lazy && target.builtService == null) {
+				futures.add(target.buildAsync(registry.getOwner(target), created));
+			}
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+	}
+
+	/**
+	 * Runs on the async executor with the dependencies built
+	 */
+	@SuppressWarnings("unchecked")
+	private void constructAsync(final ServiceRegistryImpl registry, final ServiceDependencies current, final InFlightBuild<Object> created) {
+		final ConstructionListener listener = registry.getConstructionListener();
+		ResolutionStack stack;
+		try {
+			stack = push(registry);
+		} catch (IocException e) {
+			InFlightBuild.fail(singleton, created, e);
+			return;
+		}
+		begin(listener, Phase.CONSTRUCT, null);
+		try {
+			final ServiceBuilderContextImpl context = createContext(registry, registry, current, listener);
+			if (!(current.builder instanceof AsyncServiceBuilder)) {
+				publish(registry, created, decorate(listener, current, context, construct(listener, current, context)));
+				return;
+			}
+			CompletableFuture<T> future;
+			begin(listener, Phase.BUILD, null);
+			try {
+				future = ((AsyncServiceBuilder<T>) current.builder).buildAsync(context);
+			} finally {
+				end(listener, Phase.BUILD, null);
+			}
+			// no thread is building while the future is pending
+			created.setBuilder(null);
+			future.whenCompleteAsync(new BiConsumer<T, Throwable>() {
+				@Override
+				public void accept(T candidate, Throwable failure) {
+					if (failure != null) {
+						InFlightBuild.fail(singleton, created, InFlightBuild.unwrap(failure));
+						return;
+					}
+					created.setBuilder(Thread.currentThread());
+					try {
+						publish(registry, created, decorate(listener, current, context, candidate));
+					} catch (RuntimeException | Error e) {
+						InFlightBuild.fail(singleton, created, e);
 					}
-					service = candidate;
-					reference.set(service);
-					
-					// allow dependencies to be garbage collected
-					dependencies = null;
 				}
+			}, registry.getAsyncExecutor());
+		} catch (RuntimeException | Error e) {
+			InFlightBuild.fail(singleton, created, e);
+		} finally {
+			end(listener, Phase.CONSTRUCT, null);
+			pop(stack);
+		}
+	}
+
+	private void publish(ServiceRegistryImpl registry, InFlightBuild<Object> created, Object service) {
+		setBuiltService(new BuiltService(service));
+		buildSequence = registry.nextBuildSequence();
+
+		// allow dependencies to be garbage collected
+		dependencies = null;
+		created.complete(service);
+	}
+
+	/**
+	 * Builds a new prototype / per thread / pooled instance. The builder, decorators and contributions are prepared once
+	 * so each instance only costs the builder and decorator calls
+	 */
+	Object create(ServiceRegistryImpl registry) {
+		ConstructionListener listener = registry.getConstructionListener();
+		begin(listener, Phase.CONSTRUCT, null);
+		try {
+			PreparedContext<T> prepared = preparedContext;
+			if (prepared == null) {
+				prepared = prepare(registry, waitStart(registry));
+			}
+			ResolutionStack stack = push(registry);
+			try {
+				return decorate(listener, prepared.dependencies, prepared.context, construct(listener, prepared.dependencies, prepared.context));
+			} finally {
+				pop(stack);
 			}
+		} finally {
+			end(listener, Phase.CONSTRUCT, null);
 		}
-		return service;
+	}
+
+	private PreparedContext<T> prepare(ServiceRegistryImpl registry, long waitStart) {
+		ConstructionListener listener = registry.getConstructionListener();
+		ResolutionStack stack = push(registry);
+		try {
+			InFlightBuild<PreparedContext<T>> created = new InFlightBuild<>(serviceId, Thread.currentThread());
+			InFlightBuild<PreparedContext<T>> existing = InFlightBuild.claim(preparing, created);
+			if (existing != null) {
+				try {
+					return existing.await();
+				} finally {
+					waited(listener, waitStart);
+				}
+			}
+			try {
+				ServiceDependencies current = dependencies;
+				PreparedContext<T> prepared = new PreparedContext<>(createContext(registry, registry, current, listener), current);
+				preparedContext = prepared;
+				created.complete(prepared);
+				return prepared;
+			} catch (RuntimeException | Error e) {
+				InFlightBuild.fail(preparing, created, e);
+				throw e;
+			}
+		} finally {
+			pop(stack);
+		}
+	}
+
+	private T construct(ConstructionListener listener, ServiceDependencies current, ServiceBuilderContext context) {
+		begin(listener, Phase.BUILD, null);
+		try {
+			return current.builder.build(context);
+		} finally {
+			end(listener, Phase.BUILD, null);
+		}
+	}
+
+	private long waitStart(ServiceRegistryImpl registry) {
+		return registry.getConstructionListener() == null ? 0 : System.nanoTime();
+	}
+
+	private void waited(ConstructionListener listener, long waitStart) {
+		if (listener != null) {
+			listener.waited(serviceId, serviceType, System.nanoTime() - waitStart);
+		}
+	}
+
+	private void begin(ConstructionListener listener, Phase phase, String detail) {
+		if (listener != null) {
+			listener.begin(phase, serviceId, serviceType, detail);
+		}
+	}
+
+	private void end(ConstructionListener listener, Phase phase, String detail) {
+		if (listener != null) {
+			listener.end(phase, serviceId, serviceType, detail);
+		}
+	}
+
+	/**
+	 * @return the stack with this service pushed, or null for a verified service which can't be part of a cycle
+	 */
+	private ResolutionStack push(ServiceRegistryImpl registry) {
+		if (verified) {
+			return null;
+		}
+		ResolutionStack stack = ResolutionStack.current();
+		if (stack.contains(this)) {
+			List<String> references = stack.getServiceIds();
+			references.add(serviceId);
+			throw new IocException("Circular dependency reference detected %s", references);
+		}
+		stack.push(this);
+		return stack;
+	}
+
+	private void pop(ResolutionStack stack) {
+		if (stack != null) {
+			stack.pop();
+		}
+	}
+
+	/**
+	 * @param view the registry given to the builder, decorators and contributors
+	 */
+	private ServiceBuilderContextImpl createContext(ServiceRegistryImpl registry, ServiceRegistry view, ServiceDependencies current, ConstructionListener listener) {
+		ServiceBuilderContextImpl context = new ServiceBuilderContextImpl(view, serviceId, current.serviceType);
+		context.setMappedContributions(buildMappedContributions(registry, listener, current, context));
+		context.setOrderedContributions(buildOrderedContributions(registry, listener, current, context));
+		context.setUnorderedContributions(buildUnorderedContributions(registry, listener, current, context));
+		return context;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T decorate(ConstructionListener listener, ServiceDependencies current, ServiceBuilderContext context, T candidate) {
+		if (current.decorators != null) {
+			for (ServiceDecoratorOptionsImpl options : current.decorators) {
+				ServiceDecorator<T> decorator = (ServiceDecorator<T>) options.getServiceDecorator();
+				begin(listener, Phase.DECORATE, options.getDecoratorId());
+				try {
+					candidate = decorator.decorate(context, candidate);
+				} finally {
+					end(listener, Phase.DECORATE, options.getDecoratorId());
+				}
+			}
+		}
+		return candidate;
 	}
 	
 	public void init(ServiceRegistryImpl registry) {
 		if (eagerLoad) {
-			get(registry);
+			ConstructionListener listener = registry.getConstructionListener();
+			begin(listener, Phase.EAGER_LOAD, null);
+			try {
+				if (scope == ServiceScope.SINGLETON) {
+					resolve(registry);
+				} else if (scope == ServiceScope.POOLED) {
+					getPool(registry);
+				} else {
+					prepare(registry, waitStart(registry));
+				}
+			} finally {
+				end(listener, Phase.EAGER_LOAD, null);
+			}
 		}
 	}
 	
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private Collection<Object> buildUnorderedContributions(ServiceBuilderContext context) {
-		if (dependencies.unorderedContributions == null) {
+	private Collection<Object> buildUnorderedContributions(ServiceRegistryImpl registry, ConstructionListener listener, ServiceDependencies current, ServiceBuilderContext context) {
+		if (current.unorderedContributions == null) {
 			return Collections.emptyList();
 		}
 		UnorderedConfigurationImpl configuration = new UnorderedConfigurationImpl();
-		for (UnorderedContributor contributor : dependencies.unorderedContributions) {
-			contributor.contribute(context, configuration);
+		for (UnorderedContributor contributor : current.unorderedContributions) {
+			begin(listener, Phase.CONTRIBUTE, contributor.getClass().getName());
+			try {
+				contributor.contribute(context, configuration);
+			} finally {
+				end(listener, Phase.CONTRIBUTE, contributor.getClass().getName());
+			}
 		}
 		Map<String, UnorderedConfigurationImpl.Entry> entryMap = new LinkedHashMap<>();
 		List<UnorderedConfigurationImpl.Entry> entries = configuration.getEntries();
 		for (UnorderedConfigurationImpl.Entry entry : entries) {
 			entryMap.put(entry.getContributionId(), entry);
 		}
-		List<Object> values = new ArrayList<>(entryMap.size());
+		List<String> contributionIds = new ArrayList<>(entryMap.size());
+		List<ServiceBuilder<?>> builders = new ArrayList<>(entryMap.size());
 		for (UnorderedConfigurationImpl.Entry entry : entryMap.values()) {
-			values.add(entry.getValueBuilder().build(context));
+			contributionIds.add(entry.getContributionId());
+			builders.add(entry.getValueBuilder());
 		}
-		return Collections.unmodifiableCollection(values);
+		Object[] values = buildValues(registry, listener, context, contributionIds, builders);
+		return Collections.unmodifiableCollection(Arrays.asList(values));
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private List<Object> buildOrderedContributions(ServiceBuilderContext context) {
-		if (dependencies.orderedContributions == null) {
+	private List<Object> buildOrderedContributions(ServiceRegistryImpl registry, ConstructionListener listener, ServiceDependencies current, ServiceBuilderContext context) {
+		if (current.orderedContributions == null) {
 			return Collections.emptyList();
 		}
 		OrderedConfigurationImpl configuration = new OrderedConfigurationImpl();
-		for (OrderedContributor contributor : dependencies.orderedContributions) {
-			contributor.contribute(context, configuration);
+		for (OrderedContributor contributor : current.orderedContributions) {
+			begin(listener, Phase.CONTRIBUTE, contributor.getClass().getName());
+			try {
+				contributor.contribute(context, configuration);
+			} finally {
+				end(listener, Phase.CONTRIBUTE, contributor.getClass().getName());
+			}
 		}
-		List<OrderedConfigurationImpl.Entry> entries = configuration.getEntries();
-		Collections.sort(entries);
-		Map<String, OrderedConfigurationImpl.Entry> entryMap = new LinkedHashMap<>();
-		for (OrderedConfigurationImpl.Entry entry : entries) {
-			entryMap.put(entry.getContributionId(), entry);
+		Orderer<OrderedConfigurationImpl.Entry> orderer = new Orderer<>("contribution");
+		for (OrderedConfigurationImpl.Entry entry : (List<OrderedConfigurationImpl.Entry>) configuration.getEntries()) {
+			orderer.add(entry.getContributionId(), entry, entry.getBefore(), entry.getAfter());
 		}
-		List<Object> values = new ArrayList<>(entryMap.size());
-		for (OrderedConfigurationImpl.Entry entry : entryMap.values()) {
-			values.add(entry.getValueBuilder().build(context));
+		List<OrderedConfigurationImpl.Entry> entries = orderer.order();
+		List<String> contributionIds = new ArrayList<>(entries.size());
+		List<ServiceBuilder<?>> builders = new ArrayList<>(entries.size());
+		for (OrderedConfigurationImpl.Entry entry : entries) {
+			contributionIds.add(entry.getContributionId());
+			builders.add(entry.getValueBuilder());
 		}
-		return Collections.unmodifiableList(values);
+		Object[] values = buildValues(registry, listener, context, contributionIds, builders);
+		return Collections.unmodifiableList(Arrays.asList(values));
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private Map<Object, Object> buildMappedContributions(ServiceBuilderContext context) {
-		if (dependencies.mappedContributions == null) {
+	private Map<Object, Object> buildMappedContributions(ServiceRegistryImpl registry, ConstructionListener listener, ServiceDependencies current, ServiceBuilderContext context) {
+		if (current.mappedContributions == null) {
 			return Collections.emptyMap();
 		}
 		MappedConfigurationImpl configuration = new MappedConfigurationImpl();
-		for (MappedContributor contributor : dependencies.mappedContributions) {
-			contributor.contribute(context, configuration);
+		for (MappedContributor contributor : current.mappedContributions) {
+			begin(listener, Phase.CONTRIBUTE, contributor.getClass().getName());
+			try {
+				contributor.contribute(context, configuration);
+			} finally {
+				end(listener, Phase.CONTRIBUTE, contributor.getClass().getName());
+			}
 		}
 		List<MappedConfigurationImpl.Entry> entries = configuration.getEntries();
 		Map<String, MappedConfigurationImpl.Entry> entryMap = new LinkedHashMap<>();
 		for (MappedConfigurationImpl.Entry entry : entries) {
 			entryMap.put(entry.getContributionId(), entry);
 		}
+		List<String> contributionIds = new ArrayList<>(entryMap.size());
+		List<ServiceBuilder<?>> builders = new ArrayList<>(entryMap.size());
+		for (final MappedConfigurationImpl.Entry entry : entryMap.values()) {
+			contributionIds.add(entry.getContributionId());
+			// the key and value of an entry are built together
+			builders.add(new ServiceBuilder<Object[]>() {
+				@Override
+				public Object[] build(ServiceBuilderContext context) {
+					return new Object[] { entry.getKeyBuilder().build(context), entry.getValueBuilder().build(context) };
+				}
+			});
+		}
 		Map<Object, Object> values = new LinkedHashMap<>();
-		for (MappedConfigurationImpl.Entry entry : entryMap.values()) {
-			values.put(entry.getKeyBuilder().build(context), entry.getValueBuilder().build(context));
+		for (Object pair : buildValues(registry, listener, context, contributionIds, builders)) {
+			values.put(((Object[]) pair)[0], ((Object[]) pair)[1]);
 		}
 		return Collections.unmodifiableMap(values);
 	}
 
+	/**
+	 * Builds a value per contribution (in contribution order). A service with parallel contributions builds them
+	 * concurrently on the registry's contribution executor, each task inheriting the caller's
+	 * {@link ResolutionStack} so a contribution looking up the service being built fails as a cycle instead of
+	 * waiting for it. The caller runs every task which no executor thread has started, so a contribution value
+	 * building another contributed service on a busy (or bounded) executor can't starve it. The tasks are recorded
+	 * in the {@link InFlightBuild} wait-for graph as working for the calling thread, so a cycle through another
+	 * thread is reported as a deadlock. After the first failure no further values are started and the failure of
+	 * the first contribution (in contribution order) is thrown with the others suppressed
+	 */
+	private Object[] buildValues(final ServiceRegistryImpl registry, final ConstructionListener listener, final ServiceBuilderContext context,
+			final List<String> contributionIds, final List<ServiceBuilder<?>> builders) {
+		final Object[] values = new Object[builders.size()];
+		if (!parallelContributions || builders.size() < 2) {
+			for (int i = 0; i < values.length; ++i) {
+				begin(listener, Phase.CONTRIBUTION, contributionIds.get(i));
+				try {
+					values[i] = builders.get(i).build(context);
+				} finally {
+					end(listener, Phase.CONTRIBUTION, contributionIds.get(i));
+				}
+			}
+			return values;
+		}
+		final ResolutionStack inherited = ResolutionStack.current();
+		final Thread owner = Thread.currentThread();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Executor executor = registry.getContributionExecutor();
+		Runnable[] tasks = new Runnable[values.length];
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			final int index = i;
+			final ResolutionStack stack = inherited.copy();
+			final AtomicBoolean claimed = new AtomicBoolean(false);
+			final CompletableFuture<Void> future = new CompletableFuture<>();
+			tasks[i] = new Runnable() {
+				@Override
+				public void run() {
+					if (!claimed.compareAndSet(false, true)) {
+						return;
+					}
+					if (failed.get()) {
+						future.complete(null);
+						return;
+					}
+					Thread previousOwner = InFlightBuild.beginTask(owner);
+					ResolutionStack previous = ResolutionStack.swap(stack);
+					begin(listener, Phase.CONTRIBUTION, contributionIds.get(index));
+					try {
+						values[index] = builders.get(index).build(context);
+						future.complete(null);
+					} catch (RuntimeException | Error e) {
+						failed.set(true);
+						future.completeExceptionally(e);
+					} finally {
+						end(listener, Phase.CONTRIBUTION, contributionIds.get(index));
+						ResolutionStack.swap(previous);
+						InFlightBuild.endTask(previousOwner);
+					}
+				}
+			};
+			futures[i] = future;
+			try {
+				executor.execute(tasks[i]);
+			} catch (RejectedExecutionException e) {
+				// run by the caller below
+			}
+		}
+		for (Runnable task : tasks) {
+			task.run();
+		}
+		InFlightBuild.awaitTasks(futures);
+		IocException exception = null;
+		for (int i = 0; i < futures.length; ++i) {
+			try {
+				futures[i].join();
+			} catch (CompletionException e) {
+				Throwable cause = InFlightBuild.unwrap(e);
+				if (exception == null) {
+					exception = new IocException(cause, "Error building contribution '%s' of serviceId '%s': %s", contributionIds.get(i), serviceId, cause.getMessage());
+				} else {
+					exception.addSuppressed(cause);
+				}
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+		return values;
+	}
+
+	/**
+	 * Set from the {@link DependencyGraph} when the registry is created and when a service is rebound
+	 */
+	void setVerified(boolean verified) {
+		this.verified = verified;
+	}
+
+	boolean isBuilt() {
+		return builtService != null;
+	}
+
+	/**
+	 * Builds a new singleton instance from the definition without publishing it, see
+	 * {@link ServiceRegistryImpl#rebind(String, ServiceBuilder)}
+	 *
+	 * @param view the registry given to the builder, resolving the services being rebuilt to their new instances
+	 */
+	T rebuild(ServiceRegistryImpl registry, ServiceRegistry view, ServiceDefinition definition) {
+		ConstructionListener listener = registry.getConstructionListener();
+		ServiceDependencies rebuilt = createDependencies(definition);
+		ResolutionStack stack = push(registry);
+		begin(listener, Phase.CONSTRUCT, null);
+		try {
+			ServiceBuilderContextImpl context = createContext(registry, view, rebuilt, listener);
+			return decorate(listener, rebuilt, context, construct(listener, rebuilt, context));
+		} finally {
+			end(listener, Phase.CONSTRUCT, null);
+			pop(stack);
+		}
+	}
+
+	/**
+	 * Replaces the definition and the built state. Prototype, per thread and pooled instances built from the old
+	 * definition are dropped, callers holding one keep it
+	 *
+	 * @param instance the rebuilt singleton or null to build on the next lookup
+	 * @return the replaced singleton (if it's AutoCloseable) or pool for the caller to close, otherwise null
+	 */
+	AutoCloseable reset(ServiceRegistryImpl registry, ServiceDefinition definition, Object instance) {
+		// an old build must not publish over the new one
+		awaitBuilds();
+		synchronized (this) {
+			AutoCloseable replaced = getCloseable();
+			preparedContext = null;
+			preparing.set(null);
+			pool = null;
+			pooling.set(null);
+			if (scope == ServiceScope.PER_THREAD) {
+				perThreadServices = new ThreadLocal<Object>();
+			}
+			if (scope == ServiceScope.POOLED) {
+				// the pool proxy borrows from the current pool
+				dependencies = createDependencies(definition);
+				buildSequence = 0;
+			} else if (instance != null) {
+				InFlightBuild<Object> rebuilt = new InFlightBuild<>(serviceId, null);
+				rebuilt.complete(instance);
+				dependencies = null;
+				setBuiltService(new BuiltService(instance));
+				buildSequence = registry.nextBuildSequence();
+				singleton.set(rebuilt);
+			} else {
+				dependencies = createDependencies(definition);
+				setBuiltService(null);
+				buildSequence = 0;
+				singleton.set(null);
+			}
+			// a builder may hand out the same instance again
+			return replaced == instance ? null : replaced;
+		}
+	}
+
+	/**
+	 * Waits for the builds in flight, ignoring their failures
+	 */
+	void awaitBuilds() {
+		awaitQuietly(singleton);
+		awaitQuietly(preparing);
+		awaitQuietly(pooling);
+	}
+
+	private static void awaitQuietly(AtomicReference<? extends InFlightBuild<?>> slot) {
+		InFlightBuild<?> build = slot.get();
+		if (build != null) {
+			build.awaitQuietly();
+		}
+	}
+
+	/**
+	 * @return the order in which the singleton was built or the pool was created (rebuilding takes a new
+	 * number), 0 if neither happened
+	 */
+	long getBuildSequence() {
+		return buildSequence;
+	}
+
+	/**
+	 * @return what the registry closes for this service: the built singleton if it's AutoCloseable or the pool
+	 * of a pooled service, otherwise null. Prototype and per thread instances aren't tracked
+	 */
+	AutoCloseable getCloseable() {
+		// read through the slots for visibility, the plain fields are for the lookup path
+		if (scope == ServiceScope.POOLED) {
+			return getIfCompleted(pooling);
+		}
+		Object service = scope == ServiceScope.SINGLETON ? getIfCompleted(singleton) : null;
+		return service instanceof AutoCloseable ? (AutoCloseable) service : null;
+	}
+
+	private static <V> V getIfCompleted(AtomicReference<InFlightBuild<V>> slot) {
+		InFlightBuild<V> build = slot.get();
+		CompletableFuture<V> future = build == null ? null : build.getFuture();
+		return future == null || !future.isDone() || future.isCompletedExceptionally() ? null : future.join();
+	}
+
+	@SuppressWarnings("unchecked")
+	private ServiceDependencies createDependencies(ServiceDefinition definition) {
+		return new ServiceDependencies(serviceType, (ServiceBuilder<T>) definition.getOptions().getServiceBuilder(), definition.getDecorators(),
+				definition.getUnorderedContributions(), definition.getOrderedContributions(), definition.getMappedContributions());
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
 	public String getServiceId() {
 		return serviceId;
 	}
+
+	public Class<T> getServiceType() {
+		return serviceType;
+	}
+
+	public boolean isEagerLoad() {
+		return eagerLoad;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	public ServiceScope getScope() {
+		return scope;
+	}
 }
\ No newline at end of file
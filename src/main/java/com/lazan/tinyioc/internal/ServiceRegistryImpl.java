@@ -1,29 +1,93 @@
 package com.lazan.tinyioc.internal;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.lazan.tinyioc.ConstructionListener;
 import com.lazan.tinyioc.IocException;
 import com.lazan.tinyioc.MappedContributor;
 import com.lazan.tinyioc.OrderedContributor;
-import com.lazan.tinyioc.ServiceDecorator;
+import com.lazan.tinyioc.PoolMetrics;
+import com.lazan.tinyioc.RegistryMetrics;
+import com.lazan.tinyioc.ServiceBuilder;
+import com.lazan.tinyioc.ServiceLease;
 import com.lazan.tinyioc.ServiceModule;
 import com.lazan.tinyioc.ServiceRegistry;
+import com.lazan.tinyioc.ServiceScope;
 import com.lazan.tinyioc.UnorderedContributor;
 
 public class ServiceRegistryImpl implements ServiceRegistry {
-	private final Set<String> idStack;
+	private final ServiceRegistryImpl parent;
+	private final ServiceReference<?>[] referencesByIndex;
 	private final Map<String, ServiceReference<?>> referencesById;
-	private final Map<Class<?>, List<ServiceReference<?>>> referencesByType;
+	private volatile Map<String, ServiceDefinition> definitions;
+	private final ServiceTypeIndex typeIndex;
+	private volatile DependencyGraph dependencyGraph;
+	private final Object rebindLock = new Object();
+	private final ConstructionListener constructionListener;
+	private final RegistryMetrics metrics;
+	private final ConcurrentMap<Class<?>, ServiceMap<?>> serviceMaps = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Class<?>, ServiceReference<?>> inheritedLookups = new ConcurrentHashMap<>();
+	private final CloseSettings closeSettings;
+	private final Executor asyncExecutor;
+	private final Executor contributionExecutor;
+	private final AtomicLong buildSequence = new AtomicLong();
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private volatile ObjectName metricsObjectName;
 	
 	public ServiceRegistryImpl(Iterable<ServiceModule> modules) {
+		this(modules, null, Collections.<ConstructionListener> emptyList(), null, CloseSettings.DEFAULT, null, null);
+	}
+
+	/**
+	 * @param eagerLoadExecutor Executor used to build eagerLoad services concurrently, or null to build them
+	 * sequentially on the constructing thread
+	 * @param listeners notified as services are constructed, a {@link RegistryMetrics} listener is returned by
+	 * {@link #getMetrics()}
+	 * @param parent registry whose services are visible to this one, or null. Services of the parent which this
+	 * registry overrides, decorates or contributes to are rebuilt in this registry, the others are shared
+	 * @param closeSettings the executor and per service timeout used by {@link #close()}
+	 * @param asyncExecutor runs the builders of services requested by {@link #getServiceAsync(Class)}, or null
+	 * for the common ForkJoinPool
+	 * @param contributionExecutor builds the contributed values of every service concurrently, or null to only
+	 * do so (on the asyncExecutor) for services with parallel contributions
+	 */
+	public ServiceRegistryImpl(Iterable<ServiceModule> modules, Executor eagerLoadExecutor, List<ConstructionListener> listeners,
+			ServiceRegistryImpl parent, CloseSettings closeSettings, Executor asyncExecutor, Executor contributionExecutor) {
+		this.parent = parent;
+		this.closeSettings = closeSettings;
+		this.asyncExecutor = asyncExecutor == null ? ForkJoinPool.commonPool() : asyncExecutor;
+		this.contributionExecutor = contributionExecutor;
+		this.constructionListener = CompositeConstructionListener.of(listeners);
+		RegistryMetrics _metrics = null;
+		for (ConstructionListener listener : listeners) {
+			if (listener instanceof RegistryMetrics) {
+				_metrics = (RegistryMetrics) listener;
+			}
+		}
+		this.metrics = _metrics;
 		Map<String, ServiceReference<?>> _referencesById = new LinkedHashMap<>();
-		Map<Class<?>, List<ServiceReference<?>>> _referencesByType = new LinkedHashMap<>();
+		Map<String, ServiceDefinition> _definitions = new LinkedHashMap<>();
 		
 		ServiceBinderImpl binder = new ServiceBinderImpl();
 		
@@ -34,12 +98,27 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 		Map<String, ServiceBinderOptionsImpl> overrideMap = createOverrideMap(binder);
 		Map<String, List<ServiceDecoratorOptionsImpl>> decoratorMap = createDecoratorMap(binder);
 		
+		Map<String, ServiceBinderOptionsImpl> candidates = new LinkedHashMap<>();
 		for (ServiceBinderOptionsImpl candidate : binder.getBindList()) {
 			String serviceId = getServiceId(candidate);
-			Class<?> serviceType = candidate.getServiceType();
-			if (_referencesById.containsKey(serviceId)) {
+			if (candidates.containsKey(serviceId)) {
 				throw new IocException("Duplicate serviceId '%s'", serviceId);
 			}
+			if (parent != null && parent.getReference(serviceId) != null) {
+				throw new IocException("Duplicate serviceId '%s', use override to replace a service of the parent registry", serviceId);
+			}
+			candidates.put(serviceId, candidate);
+		}
+		Map<String, ServiceDefinition> inheritedMap = createInheritedMap(binder, candidates.keySet(), overrideMap, decoratorMap);
+		for (Map.Entry<String, ServiceDefinition> entry : inheritedMap.entrySet()) {
+			candidates.put(entry.getKey(), entry.getValue().getOptions());
+		}
+		
+		for (Map.Entry<String, ServiceBinderOptionsImpl> entry : candidates.entrySet()) {
+			String serviceId = entry.getKey();
+			ServiceBinderOptionsImpl candidate = entry.getValue();
+			Class<?> serviceType = candidate.getServiceType();
+			ServiceDefinition inherited = inheritedMap.get(serviceId);
 			ServiceBinderOptionsImpl override = overrideMap.get(serviceId);
 			if (override != null) {
 				if (!override.getServiceType().equals(candidate.getServiceType())) {
@@ -48,23 +127,25 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 				}
 			}
 			ServiceBinderOptionsImpl options = override == null ? candidate : override;
-			List<ServiceDecorator<?>> decorators = buildServiceDecorators(serviceId, serviceType, decoratorMap);
-			List<UnorderedContributor<?>> unorderedContributions = binder.getUnorderedContributors().get(serviceId);
-			List<OrderedContributor<?>> orderedContributions = binder.getOrderedContributors().get(serviceId);
-			List<MappedContributor<?, ?>> mappedContributions = binder.getMappedContributors().get(serviceId);
+			if (options.isLazy() && !serviceType.isInterface()) {
+				throw new IocException("Lazy serviceId '%s' has non-interface type %s", serviceId, serviceType.getName());
+			}
+			List<ServiceDecoratorOptionsImpl> decorators = inherited == null || decoratorMap.containsKey(serviceId)
+					? buildServiceDecorators(serviceId, serviceType, decoratorMap) : inherited.getDecorators();
+			List<UnorderedContributor<?>> unorderedContributions = ServiceDefinition.concat(
+					inherited == null ? null : inherited.getUnorderedContributions(), binder.getUnorderedContributors().get(serviceId));
+			List<OrderedContributor<?>> orderedContributions = ServiceDefinition.concat(
+					inherited == null ? null : inherited.getOrderedContributions(), binder.getOrderedContributors().get(serviceId));
+			List<MappedContributor<?, ?>> mappedContributions = ServiceDefinition.concat(
+					inherited == null ? null : inherited.getMappedContributions(), binder.getMappedContributors().get(serviceId));
+			_definitions.put(serviceId, new ServiceDefinition(options, decorators, unorderedContributions, orderedContributions, mappedContributions));
 
 			@SuppressWarnings({"unchecked", "rawtypes"})
 			ServiceReference<?> reference = new ServiceReference(
-					serviceId, serviceType, options.getServiceBuilder(), options.isEagerLoad(), decorators, 
+					_referencesById.size(), serviceId, serviceType, options.getServiceBuilder(), options.isEagerLoad(), options.isLazy(), options.getScope(), options.getPoolSettings(),
+					options.isParallelContributions() || contributionExecutor != null, decorators, 
 					unorderedContributions, orderedContributions, mappedContributions);
 			_referencesById.put(serviceId, reference);
-
-			List<ServiceReference<?>> referenceList = _referencesByType.get(serviceType);
-			if (referenceList == null) {
-				referenceList = new LinkedList<>();
-				_referencesByType.put(serviceType, referenceList);
-			}
-			referenceList.add(reference);
 		}
 		
 		for (String serviceId : overrideMap.keySet()) {
@@ -78,25 +159,95 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 			}
 		}
 		
-		idStack = Collections.emptySet();
+		referencesByIndex = _referencesById.values().toArray(new ServiceReference<?>[_referencesById.size()]);
 		referencesById = Collections.unmodifiableMap(_referencesById);
-		referencesByType = Collections.unmodifiableMap(_referencesByType);
+		definitions = _definitions;
+		typeIndex = new ServiceTypeIndex(referencesByIndex);
+		dependencyGraph = new DependencyGraph(this, referencesByIndex, definitions);
+		dependencyGraph.markVerified(referencesByIndex);
 
-		for (ServiceReference<?> reference : referencesById.values()) {
-			reference.init(this);
+		if (eagerLoadExecutor == null) {
+			for (int index : dependencyGraph.getOrder()) {
+				referencesByIndex[index].init(this);
+			}
+		} else {
+			eagerLoad(eagerLoadExecutor);
 		}
 	}
 	
-	protected ServiceRegistryImpl(ServiceRegistryImpl registry, String serviceId) {
-		this.referencesById = registry.referencesById;
-		this.referencesByType = registry.referencesByType;
-		
-		Set<String> _idStack = new LinkedHashSet<>(registry.idStack);
-		_idStack.add(serviceId);
-		this.idStack = Collections.unmodifiableSet(_idStack);
-	}	
+	/**
+	 * Builds the eagerLoad services concurrently. Dependencies shared between eager services are built once,
+	 * threads requiring a service under construction wait for it. After the first failure no further builds
+	 * are started and all failures are reported together.
+	 */
+	protected void eagerLoad(Executor executor) {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+		for (final ServiceReference<?> reference : referencesById.values()) {
+			if (!reference.isEagerLoad()) {
+				continue;
+			}
+			CompletableFuture<Void> future = CompletableFuture.runAsync(new Runnable() {
+				@Override
+				public void run() {
+					if (failed.get()) {
+						return;
+					}
+					try {
+						reference.init(ServiceRegistryImpl.this);
+					} catch (RuntimeException | Error e) {
+						failed.set(true);
+						throw e;
+					}
+				}
+			}, executor);
+			futures.put(reference.getServiceId(), future);
+		}
+		Map<String, Throwable> errors = new LinkedHashMap<>();
+		for (Map.Entry<String, CompletableFuture<Void>> entry : futures.entrySet()) {
+			try {
+				entry.getValue().join();
+			} catch (CompletionException e) {
+				errors.put(entry.getKey(), e.getCause() == null ? e : e.getCause());
+			}
+		}
+		if (!errors.isEmpty()) {
+			Iterator<Throwable> causes = errors.values().iterator();
+			IocException exception = new IocException(causes.next(), "Error eager loading services %s", errors.keySet());
+			while (causes.hasNext()) {
+				exception.addSuppressed(causes.next());
+			}
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return the definitions of the parent's services which this registry overrides, decorates or contributes
+	 * to, these are rebuilt by this registry
+	 */
+	protected Map<String, ServiceDefinition> createInheritedMap(ServiceBinderImpl binder, Set<String> boundIds,
+			Map<String, ServiceBinderOptionsImpl> overrideMap, Map<String, List<ServiceDecoratorOptionsImpl>> decoratorMap)
+	{
+		Map<String, ServiceDefinition> inheritedMap = new LinkedHashMap<>();
+		if (parent == null) {
+			return inheritedMap;
+		}
+		Set<String> serviceIds = new LinkedHashSet<>(overrideMap.keySet());
+		serviceIds.addAll(decoratorMap.keySet());
+		serviceIds.addAll(binder.getUnorderedContributors().keySet());
+		serviceIds.addAll(binder.getOrderedContributors().keySet());
+		serviceIds.addAll(binder.getMappedContributors().keySet());
+		serviceIds.removeAll(boundIds);
+		for (String serviceId : serviceIds) {
+			ServiceDefinition definition = parent.getDefinition(serviceId);
+			if (definition != null) {
+				inheritedMap.put(serviceId, definition);
+			}
+		}
+		return inheritedMap;
+	}
 
-	protected List<ServiceDecorator<?>> buildServiceDecorators(
+	protected List<ServiceDecoratorOptionsImpl> buildServiceDecorators(
 			String serviceId,
 			Class<?> serviceType, 
 			Map<String, List<ServiceDecoratorOptionsImpl>> decoratorMap)
@@ -105,13 +256,13 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 		if (optionsList == null) {
 			return null;
 		}
-		List<ServiceDecorator<?>> decorators = new LinkedList<>();
+		List<ServiceDecoratorOptionsImpl> decorators = new ArrayList<>(optionsList.size());
 		for (ServiceDecoratorOptionsImpl options : optionsList) {
 			if (!options.getServiceType().equals(serviceType)) {
 				throw new IocException("Invalid decorator '%s' for serviceId '%s', expected %s found %s",
 						options.getDecoratorId(), serviceId, serviceType.getName(), options.getServiceType().getName());
 			}
-			decorators.add(options.getServiceDecorator());
+			decorators.add(options);
 		}
 		return decorators;
 	}
@@ -123,20 +274,26 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 			List<ServiceDecoratorOptionsImpl> list = decoratorMap.get(serviceId);
 			if (list == null) {
 				list = new LinkedList<>();
+				ServiceDefinition inherited = parent == null ? null : parent.getDefinition(serviceId);
+				if (inherited != null && inherited.getDecorators() != null) {
+					// ordered together with the parent's decorators
+					list.addAll(inherited.getDecorators());
+				}
 				decoratorMap.put(serviceId, list);
 			}
 			list.add(decorateOptions);
 		}
 		for (Map.Entry<String, List<ServiceDecoratorOptionsImpl>> entry : decoratorMap.entrySet()) {
 			String serviceId = entry.getKey();
-			List<ServiceDecoratorOptionsImpl> list = entry.getValue();
 			Set<String> decoratorIds = new LinkedHashSet<>();
-			for (ServiceDecoratorOptionsImpl options : list) {
+			Orderer<ServiceDecoratorOptionsImpl> orderer = new Orderer<>("decorator");
+			for (ServiceDecoratorOptionsImpl options : entry.getValue()) {
 				if (!decoratorIds.add(options.getDecoratorId())) {
 					throw new IocException("Duplicate decoratorId '%s' for serviceId '%s'", options.getDecoratorId(), serviceId);
 				}
+				orderer.add(options.getDecoratorId(), options, options.getBefore(), options.getAfter());
 			}
-			Collections.sort(list);
+			entry.setValue(orderer.order());
 		}
 		return decoratorMap;
 	}
@@ -155,22 +312,84 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 
 	@Override
 	public <T> T getService(Class<T> serviceType) {
-		List<ServiceReference<?>> references = referencesByType.get(serviceType);
-		int count = references == null ? 0 : references.size();
-		if (count != 1) {
-			throw new IocException("Found %s services for serviceType '%s', expecting 1", count, serviceType.getName());
+		ServiceReference<?> reference = findReference(serviceType);
+		return serviceType.cast(reference.get(getOwner(reference)));
+	}
+	
+	ServiceReference<?> findReference(Class<?> serviceType) {
+		if (parent != null) {
+			return findInheritedReference(serviceType);
 		}
-		ServiceReference<?> reference = references.get(0);
-		return serviceType.cast(reference.get(this));
+		int[] candidates = typeIndex.get(serviceType).getCandidates();
+		if (candidates.length != 1) {
+			throw new IocException("Found %s services for serviceType '%s', expecting 1", candidates.length, serviceType.getName());
+		}
+		return referencesByIndex[candidates[0]];
 	}
 	
-	@Override
-	public Object getService(String serviceId) {
-		ServiceReference<?> reference = referencesById.get(serviceId);
+	/**
+	 * Type lookup over this registry's services and the parent's services which it doesn't replace, the
+	 * parent's index isn't copied so successful lookups are cached instead
+	 */
+	private ServiceReference<?> findInheritedReference(Class<?> serviceType) {
+		ServiceReference<?> reference = inheritedLookups.get(serviceType);
 		if (reference == null) {
-			throw new IocException("No service found for serviceId '%s'", serviceId);
+			List<ServiceReference<?>> candidates = collectReferences(serviceType, true);
+			if (candidates.isEmpty()) {
+				candidates = collectReferences(serviceType, false);
+			}
+			if (candidates.size() != 1) {
+				throw new IocException("Found %s services for serviceType '%s', expecting 1", candidates.size(), serviceType.getName());
+			}
+			reference = candidates.get(0);
+			inheritedLookups.putIfAbsent(serviceType, reference);
+		}
+		return reference;
+	}
+	
+	/**
+	 * @param exact true for the services bound to exactly the type, false for all services assignable to it
+	 * @return the services of the parent (which aren't replaced) followed by the services of this registry
+	 */
+	private List<ServiceReference<?>> collectReferences(Class<?> serviceType, boolean exact) {
+		List<ServiceReference<?>> references = new ArrayList<>();
+		if (parent != null) {
+			for (ServiceReference<?> reference : parent.collectReferences(serviceType, exact)) {
+				if (!referencesById.containsKey(reference.getServiceId())) {
+					references.add(reference);
+				}
+			}
+		}
+		ServiceTypeIndex.Entry entry = typeIndex.get(serviceType);
+		for (int index : exact ? entry.getExact() : entry.getAssignable()) {
+			references.add(referencesByIndex[index]);
 		}
-		return reference.get(this);
+		return references;
+	}
+	
+	/**
+	 * @return the registry which created the reference, a parent's services are built by the parent
+	 */
+	ServiceRegistryImpl getOwner(ServiceReference<?> reference) {
+		if (parent == null) {
+			return this;
+		}
+		ServiceRegistryImpl current = this;
+		while (!current.isOwner(reference)) {
+			current = current.parent;
+		}
+		return current;
+	}
+	
+	boolean isOwner(ServiceReference<?> reference) {
+		int index = reference.getIndex();
+		return index < referencesByIndex.length && referencesByIndex[index] == reference;
+	}
+	
+	@Override
+	public Object getService(String serviceId) {
+		ServiceReference<?> reference = findReference(serviceId);
+		return reference.get(getOwner(reference));
 	}
 	
 	@Override
@@ -183,28 +402,274 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 	}
 	
 	@Override
+	public <T> CompletableFuture<T> getServiceAsync(Class<T> serviceType) {
+		return getAsync(findReference(serviceType), serviceType);
+	}
+	
+	@Override
+	public <T> CompletableFuture<T> getServiceAsync(String serviceId, Class<T> serviceType) {
+		return getAsync(findReference(serviceId), serviceType);
+	}
+	
+	private <T> CompletableFuture<T> getAsync(ServiceReference<?> reference, final Class<T> serviceType) {
+		if (!serviceType.isAssignableFrom(reference.getServiceType())) {
+			throw new IocException("Incompatible type for serviceId '%s'", reference.getServiceId());
+		}
+		return reference.getAsync(getOwner(reference)).thenApply(new Function<Object, T>() {
+			@Override
+			public T apply(Object service) {
+				return serviceType.cast(service);
+			}
+		});
+	}
+	
+	@Override
+	public <T> T getServiceIfReady(Class<T> serviceType) {
+		ServiceReference<?> reference = findReference(serviceType);
+		return serviceType.cast(reference.getIfReady(getOwner(reference)));
+	}
+	
+	@Override
+	public <T> T getServiceIfReady(String serviceId, Class<T> serviceType) {
+		ServiceReference<?> reference = findReference(serviceId);
+		if (!serviceType.isAssignableFrom(reference.getServiceType())) {
+			throw new IocException("Incompatible type for serviceId '%s'", serviceId);
+		}
+		return serviceType.cast(reference.getIfReady(getOwner(reference)));
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
 	public <T> Map<String, T> getServices(Class<T> serviceType) {
-		Map<String, T> services = new LinkedHashMap<>();
-		List<ServiceReference<?>> references = referencesByType.get(serviceType);
-		for (ServiceReference<?> reference : references) {
-			T service = serviceType.cast(reference.get(this));
-			services.put(reference.getServiceId(), service);
+		ServiceMap<T> services = (ServiceMap<T>) serviceMaps.get(serviceType);
+		if (services == null) {
+			List<ServiceReference<?>> list = collectReferences(serviceType, false);
+			if (list.isEmpty()) {
+				return Collections.emptyMap();
+			}
+			ServiceReference<?>[] references = list.toArray(new ServiceReference<?>[list.size()]);
+			services = new ServiceMap<>(this, serviceType, references);
+			ServiceMap<T> existing = (ServiceMap<T>) serviceMaps.putIfAbsent(serviceType, services);
+			if (existing != null) {
+				services = existing;
+			}
+		}
+		return services;
+	}
+	
+	@Override
+	public <T> ServiceLease<T> borrowService(Class<T> serviceType) {
+		return borrow(findReference(serviceType), serviceType);
+	}
+	
+	@Override
+	public <T> ServiceLease<T> borrowService(String serviceId, Class<T> serviceType) {
+		return borrow(findReference(serviceId), serviceType);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> ServiceLease<T> borrow(ServiceReference<?> reference, Class<T> serviceType) {
+		if (!serviceType.isAssignableFrom(reference.getServiceType())) {
+			throw new IocException("Incompatible type for serviceId '%s'", reference.getServiceId());
+		}
+		return (ServiceLease<T>) reference.borrow(getOwner(reference));
+	}
+	
+	@Override
+	public PoolMetrics getPoolMetrics(String serviceId) {
+		ServiceReference<?> reference = findReference(serviceId);
+		if (reference.getScope() != ServiceScope.POOLED) {
+			throw new IocException("Service '%s' is not pooled", serviceId);
+		}
+		return reference.getPool(getOwner(reference));
+	}
+	
+	/**
+	 * Validates the new builder's dependencies, then rebuilds the built singletons among the service and its
+	 * dependents (found from the {@link DependencyGraph}) before publishing them. A rebuilt instance is wired
+	 * entirely to new instances and an old instance keeps its old dependencies. Dependents which the graph can't
+	 * see (dynamic builders, decorators, contributors and child registries) keep their instances, they should
+	 * look the service up through a Provider.
+	 * <p>
+	 * Built singletons are read through a plain field so the new instances can't be swapped in one step without
+	 * a volatile read on every lookup. Instead every rebuild (the slow part) completes and every old build in
+	 * flight is waited for before the first instance is published, then the instances are published back to back
+	 * without blocking. So unlike a single atomic swap, a lookup racing the publish may see a new instance next
+	 * to an old one. What is guaranteed is that each instance is wired wholly to old or wholly to new services
+	 * (a published instance is read through a final field) and that the new graph is seen by lookups on the
+	 * calling thread after rebind returns, and on threads which synchronize with it afterwards (a lock, a
+	 * volatile or a concurrent collection). The plain fields carry no happens-before edge of their own, so a
+	 * thread which doesn't synchronize may keep seeing the old instances.
+	 * <p>
+	 * The replaced singletons which are {@link AutoCloseable} and the replaced pools are closed once the new
+	 * instances are published, in the same order as {@link #close()}.
+	 *
+	 * @throws IocException if a replaced instance fails to close, the new instances are published regardless
+	 */
+	@Override
+	public void rebind(String serviceId, ServiceBuilder<?> builder) {
+		synchronized (rebindLock) {
+			ServiceReference<?> reference = referencesById.get(serviceId);
+			if (reference == null) {
+				findReference(serviceId);
+				throw new IocException("Cannot rebind serviceId '%s' of the parent registry", serviceId);
+			}
+			if (reference.getScope() == ServiceScope.POOLED) {
+				throw new IocException("Cannot rebind pooled serviceId '%s'", serviceId);
+			}
+			Map<String, ServiceDefinition> rebound = new LinkedHashMap<>(definitions);
+			rebound.put(serviceId, rebound.get(serviceId).withServiceBuilder(builder));
+			DependencyGraph graph = new DependencyGraph(this, referencesByIndex, rebound);
+			int[] dependents = graph.getDependents(reference.getIndex());
+			StagedRegistry staged = new StagedRegistry(this);
+			for (int index : dependents) {
+				ServiceReference<?> dependent = referencesByIndex[index];
+				if (dependent.getScope() == ServiceScope.POOLED) {
+					// borrowing isn't a construction edge so a pooled dependent may be borrowed before its turn
+					staged.putPooled(dependent, rebound.get(dependent.getServiceId()));
+				}
+			}
+			for (int index : dependents) {
+				ServiceReference<?> dependent = referencesByIndex[index];
+				if (dependent.getScope() == ServiceScope.SINGLETON && dependent.isBuilt()) {
+					staged.put(dependent, dependent.rebuild(this, staged, rebound.get(dependent.getServiceId())));
+				}
+			}
+			DependencyGraph replacedGraph = dependencyGraph;
+			definitions = rebound;
+			dependencyGraph = graph;
+			graph.markVerified(referencesByIndex);
+			for (int index : dependents) {
+				referencesByIndex[index].awaitBuilds();
+			}
+			AutoCloseable[] replaced = new AutoCloseable[referencesByIndex.length];
+			long[] replacedSequences = new long[referencesByIndex.length];
+			for (int index : dependents) {
+				ServiceReference<?> dependent = referencesByIndex[index];
+				replacedSequences[index] = dependent.getBuildSequence();
+				replaced[index] = dependent.reset(this, rebound.get(dependent.getServiceId()), staged.get(dependent));
+			}
+			new RegistryCloser(referencesByIndex, replacedGraph, closeSettings).close(replaced, replacedSequences);
+		}
+	}
+	
+	/**
+	 * Closes the AutoCloseable singletons and the pools of this registry (not the parent's) which were built,
+	 * each after the services which depend on it and independent services in parallel. Prototype and per thread
+	 * instances aren't tracked so they are left to their callers, as are services looked up after closing.
+	 * Closing again does nothing
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			try {
+				synchronized (rebindLock) {
+					new RegistryCloser(referencesByIndex, dependencyGraph, closeSettings).close();
+				}
+			} finally {
+				unregisterMetricsMBean();
+			}
+		}
+	}
+	
+	/**
+	 * Registers the metrics with the platform MBean server, they are unregistered by {@link #close()}
+	 */
+	public void registerMetricsMBean(String objectName) {
+		try {
+			ObjectName name = new ObjectName(objectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(getMetrics(), name);
+			metricsObjectName = name;
+		} catch (JMException e) {
+			throw new IocException(e, "Error registering metrics MBean '%s'", objectName);
+		}
+	}
+	
+	private void unregisterMetricsMBean() {
+		ObjectName name = metricsObjectName;
+		if (name != null) {
+			metricsObjectName = null;
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				throw new IocException(e, "Error unregistering metrics MBean '%s'", name);
+			}
+		}
+	}
+	
+	@Override
+	public RegistryMetrics getMetrics() {
+		if (metrics == null) {
+			throw new IocException("Metrics are not enabled, see ServiceRegistryBuilder.withMetrics()");
+		}
+		return metrics;
+	}
+	
+	ServiceReference<?> findReference(String serviceId) {
+		ServiceReference<?> reference = getReference(serviceId);
+		if (reference == null) {
+			throw new IocException("No service found for serviceId '%s'", serviceId);
 		}
-		return Collections.unmodifiableMap(services);
+		return reference;
 	}
 	
 	@Override
 	public Set<String> getServiceIds() {
-		return referencesById.keySet();
+		if (parent == null) {
+			return referencesById.keySet();
+		}
+		Set<String> serviceIds = new LinkedHashSet<>(parent.getServiceIds());
+		serviceIds.addAll(referencesById.keySet());
+		return Collections.unmodifiableSet(serviceIds);
 	}
 	
 	@Override
 	public Set<Class<?>> getServiceTypes() {
-		return referencesByType.keySet();
+		if (parent == null) {
+			return typeIndex.getServiceTypes();
+		}
+		Set<Class<?>> serviceTypes = new LinkedHashSet<>(parent.getServiceTypes());
+		serviceTypes.addAll(typeIndex.getServiceTypes());
+		return Collections.unmodifiableSet(serviceTypes);
 	}
 	
-	public Set<String> getServiceIdStack() {
-		return idStack;
+	/**
+	 * @return the service of this registry or, if it has none with the serviceId, of the parent
+	 */
+	ServiceReference<?> getReference(String serviceId) {
+		ServiceReference<?> reference = referencesById.get(serviceId);
+		if (reference == null && parent != null) {
+			return parent.getReference(serviceId);
+		}
+		return reference;
+	}
+	
+	ServiceDefinition getDefinition(String serviceId) {
+		ServiceDefinition definition = definitions.get(serviceId);
+		if (definition == null && parent != null) {
+			return parent.getDefinition(serviceId);
+		}
+		return definition;
+	}
+
+	ConstructionListener getConstructionListener() {
+		return constructionListener;
+	}
+
+	DependencyGraph getDependencyGraph() {
+		return dependencyGraph;
+	}
+
+	Executor getAsyncExecutor() {
+		return asyncExecutor;
+	}
+
+	Executor getContributionExecutor() {
+		return contributionExecutor == null ? asyncExecutor : contributionExecutor;
+	}
+
+	long nextBuildSequence() {
+		return buildSequence.incrementAndGet();
 	}
 
 	protected String getServiceId(ServiceBinderOptionsImpl options) {
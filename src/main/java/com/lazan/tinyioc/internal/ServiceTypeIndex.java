@@ -0,0 +1,143 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of service indexes by bound serviceType and by every supertype and interface of the bound types.
+ * The entries are built once when the registry is constructed so a lookup is a single read of an unmodified
+ * HashMap. Only the bound types and their supertypes are keys, a lookup of any other type gets a shared empty
+ * entry and is never cached, so the index doesn't grow with the types looked up.
+ */
+public class ServiceTypeIndex {
+	private static final int[] NONE = new int[0];
+	private static final Entry EMPTY = new Entry(NONE, NONE);
+
+	public static class Entry {
+		private final int[] exact;
+		private final int[] candidates;
+		private final int[] assignable;
+
+		public Entry(int[] exact, int[] assignable) {
+			super();
+			this.exact = exact;
+			this.candidates = exact.length > 0 ? exact : assignable;
+			this.assignable = assignable;
+		}
+
+		/**
+		 * @return the services bound to exactly this type or, if there are none, the services assignable to it
+		 */
+		public int[] getCandidates() {
+			return candidates;
+		}
+
+		/**
+		 * @return the services bound to exactly this type
+		 */
+		public int[] getExact() {
+			return exact;
+		}
+
+		/**
+		 * @return all services assignable to this type in registration order
+		 */
+		public int[] getAssignable() {
+			return assignable;
+		}
+	}
+
+	/**
+	 * Growable indexes of one type, converted to an array once every service is added
+	 */
+	private static class Indexes {
+		private int[] values = new int[4];
+		private int size;
+
+		public void add(int index) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = index;
+		}
+
+		public int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	private final Set<Class<?>> serviceTypes;
+	private final Map<Class<?>, Entry> entries;
+
+	public ServiceTypeIndex(ServiceReference<?>[] referencesByIndex) {
+		Map<Class<?>, Indexes> exact = new LinkedHashMap<>();
+		Map<Class<?>, Indexes> assignable = new LinkedHashMap<>();
+		// services often share a type, walk each type's hierarchy once
+		Map<Class<?>, Set<Class<?>>> superTypesByType = new HashMap<>();
+		for (ServiceReference<?> reference : referencesByIndex) {
+			Class<?> serviceType = reference.getServiceType();
+			append(exact, serviceType, reference.getIndex());
+			Set<Class<?>> superTypes = superTypesByType.get(serviceType);
+			if (superTypes == null) {
+				superTypes = getSuperTypes(serviceType);
+				superTypesByType.put(serviceType, superTypes);
+			}
+			for (Class<?> superType : superTypes) {
+				append(assignable, superType, reference.getIndex());
+			}
+		}
+		// every exact type is also assignable to itself
+		Map<Class<?>, Entry> _entries = new HashMap<>();
+		for (Map.Entry<Class<?>, Indexes> entry : assignable.entrySet()) {
+			Indexes exactIndexes = exact.get(entry.getKey());
+			_entries.put(entry.getKey(), new Entry(exactIndexes == null ? NONE : exactIndexes.toArray(), entry.getValue().toArray()));
+		}
+		this.serviceTypes = Collections.unmodifiableSet(exact.keySet());
+		this.entries = _entries;
+	}
+
+	public Entry get(Class<?> type) {
+		Entry entry = entries.get(type);
+		return entry == null ? EMPTY : entry;
+	}
+
+	public Set<Class<?>> getServiceTypes() {
+		return serviceTypes;
+	}
+
+	private static void append(Map<Class<?>, Indexes> map, Class<?> type, int index) {
+		Indexes indexes = map.get(type);
+		if (indexes == null) {
+			indexes = new Indexes();
+			map.put(type, indexes);
+		}
+		indexes.add(index);
+	}
+
+	/**
+	 * @return the type itself, its superclasses and all of its interfaces
+	 */
+	protected static Set<Class<?>> getSuperTypes(Class<?> type) {
+		Set<Class<?>> superTypes = new LinkedHashSet<>();
+		collectSuperTypes(type, superTypes);
+		if (!type.isPrimitive()) {
+			superTypes.add(Object.class);
+		}
+		return superTypes;
+	}
+
+	private static void collectSuperTypes(Class<?> type, Set<Class<?>> superTypes) {
+		if (type == null || !superTypes.add(type)) {
+			return;
+		}
+		collectSuperTypes(type.getSuperclass(), superTypes);
+		for (Class<?> iface : type.getInterfaces()) {
+			collectSuperTypes(iface, superTypes);
+		}
+	}
+}
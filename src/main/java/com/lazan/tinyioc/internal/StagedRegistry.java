@@ -0,0 +1,197 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.PoolMetrics;
+import com.lazan.tinyioc.RegistryMetrics;
+import com.lazan.tinyioc.ServiceBuilder;
+import com.lazan.tinyioc.ServiceLease;
+import com.lazan.tinyioc.ServiceRegistry;
+
+/**
+ * The registry given to the builders of services being rebuilt by a rebind. Services rebuilt so far resolve to
+ * their new (not yet published) instances, everything else is delegated to the registry. Pooled services being
+ * rebound are borrowed as a new instance built from the rebound definition, which is closed with its lease.
+ * Only used by the rebinding thread.
+ */
+public class StagedRegistry implements ServiceRegistry {
+	/**
+	 * Lease of a staged instance, a singleton's lease is a no-op and a pooled instance (which is never returned
+	 * to a pool) is closed
+	 */
+	private static class StagedLease<T> implements ServiceLease<T> {
+		private final T service;
+		private final boolean owned;
+
+		public StagedLease(T service, boolean owned) {
+			super();
+			this.service = service;
+			this.owned = owned;
+		}
+
+		@Override
+		public T get() {
+			return service;
+		}
+
+		@Override
+		public void close() {
+			if (owned && service instanceof AutoCloseable) {
+				try {
+					((AutoCloseable) service).close();
+				} catch (Exception e) {
+					throw new IocException(e, "Error closing staged instance of %s", service.getClass().getName());
+				}
+			}
+		}
+	}
+
+	private final ServiceRegistryImpl registry;
+	private final Map<ServiceReference<?>, Object> staged = new IdentityHashMap<>();
+	private final Map<ServiceReference<?>, ServiceDefinition> stagedPools = new IdentityHashMap<>();
+
+	public StagedRegistry(ServiceRegistryImpl registry) {
+		super();
+		this.registry = registry;
+	}
+
+	void put(ServiceReference<?> reference, Object instance) {
+		staged.put(reference, instance);
+	}
+
+	void putPooled(ServiceReference<?> reference, ServiceDefinition definition) {
+		stagedPools.put(reference, definition);
+	}
+
+	Object get(ServiceReference<?> reference) {
+		return staged.get(reference);
+	}
+
+	public ServiceRegistryImpl getRegistry() {
+		return registry;
+	}
+
+	@Override
+	public Set<String> getServiceIds() {
+		return registry.getServiceIds();
+	}
+
+	@Override
+	public Set<Class<?>> getServiceTypes() {
+		return registry.getServiceTypes();
+	}
+
+	@Override
+	public <T> T getService(Class<T> serviceType) {
+		Object instance = staged.get(registry.findReference(serviceType));
+		return instance != null ? serviceType.cast(instance) : registry.getService(serviceType);
+	}
+
+	@Override
+	public Object getService(String serviceId) {
+		Object instance = staged.get(registry.findReference(serviceId));
+		return instance != null ? instance : registry.getService(serviceId);
+	}
+
+	@Override
+	public <T> T getService(String serviceId, Class<T> serviceType) {
+		try {
+			return serviceType.cast(getService(serviceId));
+		} catch (ClassCastException e) {
+			throw new IocException(e, "Incompatible type for serviceId '%s'", serviceId);
+		}
+	}
+
+	@Override
+	public <T> CompletableFuture<T> getServiceAsync(Class<T> serviceType) {
+		Object instance = staged.get(registry.findReference(serviceType));
+		return instance != null ? CompletableFuture.completedFuture(serviceType.cast(instance)) : registry.getServiceAsync(serviceType);
+	}
+
+	@Override
+	public <T> CompletableFuture<T> getServiceAsync(String serviceId, Class<T> serviceType) {
+		Object instance = staged.get(registry.findReference(serviceId));
+		return instance != null ? CompletableFuture.completedFuture(serviceType.cast(instance)) : registry.getServiceAsync(serviceId, serviceType);
+	}
+
+	@Override
+	public <T> T getServiceIfReady(Class<T> serviceType) {
+		Object instance = staged.get(registry.findReference(serviceType));
+		return instance != null ? serviceType.cast(instance) : registry.getServiceIfReady(serviceType);
+	}
+
+	@Override
+	public <T> T getServiceIfReady(String serviceId, Class<T> serviceType) {
+		Object instance = staged.get(registry.findReference(serviceId));
+		return instance != null ? serviceType.cast(instance) : registry.getServiceIfReady(serviceId, serviceType);
+	}
+
+	@Override
+	public <T> Map<String, T> getServices(Class<T> serviceType) {
+		Map<String, T> services = registry.getServices(serviceType);
+		Map<String, T> overlaid = null;
+		for (Map.Entry<ServiceReference<?>, Object> entry : staged.entrySet()) {
+			String serviceId = entry.getKey().getServiceId();
+			if (services.containsKey(serviceId)) {
+				if (overlaid == null) {
+					overlaid = new LinkedHashMap<>(services);
+				}
+				overlaid.put(serviceId, serviceType.cast(entry.getValue()));
+			}
+		}
+		return overlaid == null ? services : Collections.unmodifiableMap(overlaid);
+	}
+
+	@Override
+	public <T> ServiceLease<T> borrowService(Class<T> serviceType) {
+		ServiceLease<T> lease = borrowStaged(registry.findReference(serviceType), serviceType);
+		return lease != null ? lease : registry.borrowService(serviceType);
+	}
+
+	@Override
+	public <T> ServiceLease<T> borrowService(String serviceId, Class<T> serviceType) {
+		ServiceLease<T> lease = borrowStaged(registry.findReference(serviceId), serviceType);
+		return lease != null ? lease : registry.borrowService(serviceId, serviceType);
+	}
+
+	/**
+	 * @return a lease of the staged instance or of a new instance of a pooled service being rebound, otherwise null
+	 */
+	private <T> ServiceLease<T> borrowStaged(ServiceReference<?> reference, Class<T> serviceType) {
+		Object instance = staged.get(reference);
+		if (instance != null) {
+			return new StagedLease<>(serviceType.cast(instance), false);
+		}
+		ServiceDefinition definition = stagedPools.get(reference);
+		if (definition != null) {
+			return new StagedLease<>(serviceType.cast(reference.rebuild(registry, this, definition)), true);
+		}
+		return null;
+	}
+
+	@Override
+	public PoolMetrics getPoolMetrics(String serviceId) {
+		return registry.getPoolMetrics(serviceId);
+	}
+
+	@Override
+	public RegistryMetrics getMetrics() {
+		return registry.getMetrics();
+	}
+
+	@Override
+	public void rebind(String serviceId, ServiceBuilder<?> builder) {
+		throw new IocException("Cannot rebind serviceId '%s' while services are being rebuilt", serviceId);
+	}
+
+	@Override
+	public void close() {
+		throw new IocException("Cannot close the registry while services are being rebuilt");
+	}
+}
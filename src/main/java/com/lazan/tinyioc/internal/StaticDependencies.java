@@ -0,0 +1,17 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.List;
+
+import com.lazan.tinyioc.ServiceBuilder;
+
+/**
+ * Implemented by {@link ServiceBuilder}s whose service lookups are fixed by constructor, field or method
+ * signatures. The registry uses them to validate the dependency graph before any service is built. Builders
+ * which don't implement it are only checked as they run.
+ */
+public interface StaticDependencies {
+	/**
+	 * @return every service the builder looks up, contributions aren't included
+	 */
+	List<Dependency> getDependencies();
+}
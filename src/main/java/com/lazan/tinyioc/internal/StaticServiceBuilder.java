@@ -0,0 +1,29 @@
+package com.lazan.tinyioc.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.lazan.tinyioc.ServiceBuilder;
+
+/**
+ * Base class for builders with a fixed list of {@link Dependency}s, extended by the builders of
+ * {@link AnnotatedServiceModule} and by generated code
+ */
+public abstract class StaticServiceBuilder<T> implements ServiceBuilder<T>, StaticDependencies {
+	private final List<Dependency> dependencies;
+
+	protected StaticServiceBuilder(Dependency... dependencies) {
+		this(Arrays.asList(dependencies));
+	}
+
+	protected StaticServiceBuilder(List<Dependency> dependencies) {
+		super();
+		this.dependencies = Collections.unmodifiableList(dependencies);
+	}
+
+	@Override
+	public List<Dependency> getDependencies() {
+		return dependencies;
+	}
+}
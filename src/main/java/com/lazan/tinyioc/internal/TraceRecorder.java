@@ -0,0 +1,164 @@
+package com.lazan.tinyioc.internal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.lazan.tinyioc.ConstructionListener;
+import com.lazan.tinyioc.IocException;
+
+/**
+ * Records construction spans and writes them as a Chrome trace-event JSON file (viewable in chrome://tracing or
+ * Perfetto). Each span becomes a complete ("X") event on the thread which ran it, nested spans show the
+ * dependency driven construction waterfall. Recording stops once the trace is written so later (lazy)
+ * constructions don't accumulate.
+ */
+public class TraceRecorder implements ConstructionListener {
+	private static class Span {
+		private final String name;
+		private final String category;
+		private final String serviceId;
+		private final Class<?> serviceType;
+		private final String detail;
+		private final long startNanos;
+		private long durationNanos;
+		private long threadId;
+
+		public Span(String name, String category, String serviceId, Class<?> serviceType, String detail, long startNanos) {
+			super();
+			this.name = name;
+			this.category = category;
+			this.serviceId = serviceId;
+			this.serviceType = serviceType;
+			this.detail = detail;
+			this.startNanos = startNanos;
+		}
+	}
+
+	private final long originNanos = System.nanoTime();
+	private final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+	private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+	private final ThreadLocal<List<Span>> openSpans = new ThreadLocal<List<Span>>() {
+		@Override
+		protected List<Span> initialValue() {
+			return new ArrayList<>();
+		}
+	};
+	private volatile boolean stopped;
+
+	@Override
+	public void begin(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+		List<Span> stack = openSpans.get();
+		if (stopped) {
+			// keep begin and end balanced
+			stack.add(null);
+			return;
+		}
+		String name;
+		switch (phase) {
+			case CONSTRUCT:
+				name = serviceId;
+				break;
+			case EAGER_LOAD:
+				name = "eagerLoad " + serviceId;
+				break;
+			case BUILD:
+				name = "build";
+				break;
+			default:
+				name = phase.name().toLowerCase(Locale.ROOT) + " " + detail;
+		}
+		stack.add(new Span(name, phase.name(), serviceId, serviceType, detail, System.nanoTime()));
+	}
+
+	@Override
+	public void end(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+		List<Span> stack = openSpans.get();
+		Span span = stack.remove(stack.size() - 1);
+		if (span != null) {
+			complete(span, System.nanoTime());
+		}
+	}
+
+	@Override
+	public void waited(String serviceId, Class<?> serviceType, long nanos) {
+		if (stopped) {
+			return;
+		}
+		long now = System.nanoTime();
+		complete(new Span("wait " + serviceId, "WAIT", serviceId, serviceType, null, now - nanos), now);
+	}
+
+	private void complete(Span span, long endNanos) {
+		Thread thread = Thread.currentThread();
+		span.durationNanos = endNanos - span.startNanos;
+		span.threadId = thread.getId();
+		if (!threadNames.containsKey(span.threadId)) {
+			threadNames.put(span.threadId, thread.getName());
+		}
+		spans.add(span);
+	}
+
+	/**
+	 * Stops recording and writes the trace
+	 */
+	public void write(File file) {
+		stopped = true;
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8))) {
+			writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+			boolean first = true;
+			for (Map.Entry<Long, String> entry : threadNames.entrySet()) {
+				writer.write(first ? "" : ",\n");
+				writer.write(String.format(Locale.ROOT, "{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":%s}}",
+						entry.getKey(), quote(entry.getValue())));
+				first = false;
+			}
+			for (Span span : spans) {
+				writer.write(first ? "" : ",\n");
+				writer.write(String.format(Locale.ROOT, "{\"ph\":\"X\",\"name\":%s,\"cat\":%s,\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f,"
+						+ "\"args\":{\"serviceId\":%s,\"serviceType\":%s%s}}",
+						quote(span.name), quote(span.category), span.threadId,
+						(span.startNanos - originNanos) / 1000.0, span.durationNanos / 1000.0,
+						quote(span.serviceId), quote(span.serviceType.getName()),
+						span.detail == null ? "" : ",\"detail\":" + quote(span.detail)));
+				first = false;
+			}
+			writer.write("\n]}\n");
+		} catch (IOException e) {
+			throw new IocException(e, "Error writing trace file %s", file);
+		}
+	}
+
+	private static String quote(String value) {
+		StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					builder.append("\\\"");
+					break;
+				case '\\':
+					builder.append("\\\\");
+					break;
+				default:
+					if (c < 0x20) {
+						builder.append(String.format("\\u%04x", (int) c));
+					} else {
+						builder.append(c);
+					}
+			}
+		}
+		return builder.append('"').toString();
+	}
+}
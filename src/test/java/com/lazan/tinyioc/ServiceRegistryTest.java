@@ -1,26 +1,58 @@
 package com.lazan.tinyioc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.junit.Test;
 
 import com.lazan.tinyioc.annotations.Bind;
+import com.lazan.tinyioc.annotations.Service;
+import com.lazan.tinyioc.internal.Dependency;
+import com.lazan.tinyioc.internal.InjectionServiceBuilder;
+import com.lazan.tinyioc.internal.MetricsRecorder;
+import com.lazan.tinyioc.internal.StaticDependencies;
 
 public class ServiceRegistryTest {
 	public static class Child {}
@@ -212,99 +244,1191 @@ public class ServiceRegistryTest {
 			assertEquals("Attempted to override unknown serviceId 'string1'", e.getMessage());
 		}
 	}
+
+	public static class ProviderCycle1 {
+		private final Provider<ProviderCycle2> cycle2;
+		public ProviderCycle1(Provider<ProviderCycle2> cycle2) {
+			this.cycle2 = cycle2;
+		}
+	}
+	public static class ProviderCycle2 {
+		public ProviderCycle2(ProviderCycle1 cycle1) {
+		}
+	}
+	public static class EagerProvider {
+		public EagerProvider(Provider<EagerProviderTarget> target) {
+			target.get();
+		}
+	}
+	public static class EagerProviderTarget {
+		public EagerProviderTarget(EagerProvider provider) {
+		}
+	}
+
+	@Test
+	public void testDependencyGraph() {
+		try {
+			buildRegistry(new ServiceModule() {
+				@Override
+				public void bind(ServiceBinder binder) {
+					binder.bind(Parent.class);
+				}
+			});
+			fail();
+		} catch (IocException e) {
+			assertEquals(String.format("Unresolved dependency %s of serviceId 'parent': Found 0 services for serviceType '%<s', expecting 1",
+					Child.class.getName()), e.getMessage());
+		}
+		try {
+			buildRegistry(new ServiceModule() {
+				@Override
+				public void bind(ServiceBinder binder) {
+					binder.bind(Parent.class);
+					binder.bind(Child.class);
+					binder.bind(ProviderCycle1.class);
+					binder.bind(ProviderCycle2.class);
+					binder.bind(Circular1.class);
+					binder.bind(Circular2.class);
+					binder.bind(Circular3.class);
+				}
+			});
+			fail();
+		} catch (IocException e) {
+			assertEquals("Circular dependency reference detected [circular1, circular2, circular3, circular1]", e.getMessage());
+		}
+
+		// a Provider isn't built with its dependent so it breaks the cycle
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(ProviderCycle1.class);
+				binder.bind(ProviderCycle2.class);
+				binder.bind(EagerProvider.class);
+				binder.bind(EagerProviderTarget.class);
+			}
+		});
+		ProviderCycle1 cycle1 = registry.getService(ProviderCycle1.class);
+		assertSame(registry.getService(ProviderCycle2.class), cycle1.cycle2.get());
+		
+		// unless it's called during construction which is still detected as the services are built
+		try {
+			registry.getService(EagerProvider.class);
+			fail();
+		} catch (IocException e) {
+			assertEquals("Circular dependency reference detected [eagerProvider, eagerProviderTarget, eagerProvider]", e.getMessage());
+		}
+	}
 	
 	static class StringDecorator implements ServiceDecorator<String> {
 		private final String pattern;
 
-		public StringDecorator(String pattern) {
-			super();
-			this.pattern = pattern;
+		public StringDecorator(String pattern) {
+			super();
+			this.pattern = pattern;
+		}
+		
+		@Override
+		public String decorate(ServiceBuilderContext context, String delegate) {
+			return String.format(pattern, delegate);
+		}
+	}
+	
+	@Test
+	public void testDecorate() throws Exception {
+		ServiceModule module1 = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "hello1");
+			}
+		};
+		ServiceModule module2 = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.decorate(String.class, "d1", new StringDecorator("one-%s-one"));
+			}
+		};
+		ServiceModule module3 = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "hello2").withServiceId("string2");
+				binder.bind(String.class, "hello3").withServiceId("string3");
+				binder.decorate(String.class, "d2", new StringDecorator("two-%s-two")).withServiceId("string2");
+				binder.decorate(String.class, "d2", new StringDecorator("three-%s-three")).withServiceId("string3");
+			}
+		};
+		assertEquals("one-hello1-one", buildRegistry(module1, module2).getService(String.class));
+		
+		ServiceRegistry registry3 = buildRegistry(module3);
+		assertEquals("two-hello2-two", registry3.getService("string2"));
+		assertEquals("three-hello3-three", registry3.getService("string3"));
+		
+		try {
+			buildRegistry(module1, module2, module2).getService(String.class);
+			fail();
+		} catch (IocException e) {
+			assertEquals("Duplicate decoratorId 'd1' for serviceId 'string'", e.getMessage());
+		}
+		try {
+			buildRegistry(module2).getService(String.class);
+			fail();
+		} catch (IocException e) {
+			assertEquals("Attempted to decorate unknown serviceId 'string'", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testMultipleDecorate() {
+		ServiceModule module1 = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "SERVICE");
+				binder.decorate(String.class, "d1", new StringDecorator("a%sa"));
+				binder.decorate(String.class, "d2", new StringDecorator("b%sb"));
+				binder.decorate(String.class, "d3", new StringDecorator("c%sc"));
+			}
+		};
+		ServiceModule module2 = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "SERVICE");
+				binder.decorate(String.class, "d1", new StringDecorator("a%sa")).after("d2");
+				binder.decorate(String.class, "d2", new StringDecorator("b%sb")).after("d3");
+				binder.decorate(String.class, "d3", new StringDecorator("c%sc"));
+			}
+		};
+		ServiceModule module3 = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(String.class, "SERVICE");
+				binder.decorate(String.class, "d1", new StringDecorator("a%sa"));
+				binder.decorate(String.class, "d2", new StringDecorator("b%sb"));
+				binder.decorate(String.class, "d3", new StringDecorator("c%sc")).before("*");
+			}
+		};
+		String value1 = buildRegistry(module1).getService(String.class);
+		assertEquals("cbaSERVICEabc", value1);
+		String value2 = buildRegistry(module2).getService(String.class);
+		assertEquals("abcSERVICEcba", value2);
+		String value3 = buildRegistry(module3).getService(String.class);
+		assertEquals("bacSERVICEcab", value3);
+	}
+
+	@Test
+	public void testAssignableTypes() {
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(ArrayList.class, new ArrayList<String>(Arrays.asList("a")));
+				binder.bind(LinkedList.class, new LinkedList<String>(Arrays.asList("b")));
+				binder.bind(Collection.class, new HashSet<String>(Arrays.asList("c")));
+			}
+		};
+		ServiceRegistry registry = buildRegistry(module);
+		assertEquals(Arrays.asList("a"), registry.getService(RandomAccess.class));
+		assertEquals(Collections.singleton("c"), registry.getService(Collection.class));
+		assertEquals(createSet("arrayList", "linkedList", "collection"), registry.getServices(Collection.class).keySet());
+		assertEquals(createSet("arrayList", "linkedList"), registry.getServices(List.class).keySet());
+		assertEquals(createSet(ArrayList.class, LinkedList.class, Collection.class), registry.getServiceTypes());
+		assertSame(registry.getServices(List.class), registry.getServices(List.class));
+		assertEquals(Arrays.asList("b"), registry.getServices(List.class).get("linkedList"));
+		assertNull(registry.getServices(List.class).get("collection"));
+		assertTrue(registry.getServices(Date.class).isEmpty());
+		Map<String, List> lists = registry.getServices(List.class);
+		assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), new ArrayList<>(lists.values()));
+		assertTrue(lists.keySet().contains("linkedList"));
+		assertFalse(lists.keySet().contains("collection"));
+		// the entries are created once with the view
+		assertSame(lists.entrySet().iterator().next(), lists.entrySet().iterator().next());
+		assertEquals(Collections.singletonMap("arrayList", Arrays.asList("a")).entrySet().iterator().next(), lists.entrySet().iterator().next());
+		try {
+			registry.getService(List.class);
+			fail();
+		} catch (IocException e) {
+			assertEquals("Found 2 services for serviceType 'java.util.List', expecting 1", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testParent() {
+		ServiceRegistry parent = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Child.class);
+				binder.bind(Parent.class);
+				binder.bind(String.class, new ServiceBuilder<String>() {
+					@Override
+					public String build(ServiceBuilderContext context) {
+						return String.join("", (List<String>) context.getOrderedContributions());
+					}
+				}).withServiceId("joined");
+				binder.contribute("joined", new OrderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+						configuration.add("a", "a");
+					}
+				});
+			}
+		});
+		ServiceRegistry child = new ServiceRegistryBuilder().withParent(parent).withModule(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(GrandParent.class);
+				binder.contribute("joined", new OrderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+						configuration.add("b", "b");
+					}
+				});
+			}
+		}).build();
+		GrandParent grandParent = child.getService(GrandParent.class);
+		assertSame(parent.getService(Parent.class), grandParent.parent);
+		assertSame(parent.getService(Child.class), child.getService(Child.class));
+		assertEquals("ab", child.getService("joined"));
+		assertEquals("a", parent.getService("joined"));
+		assertEquals(createSet("child", "parent", "joined", "grandParent"), child.getServiceIds());
+		assertEquals(createSet("child", "parent", "joined"), parent.getServiceIds());
+		assertEquals(createSet("joined"), child.getServices(String.class).keySet());
+		
+		final Child override = new Child();
+		ServiceRegistry overriding = new ServiceRegistryBuilder().withParent(parent).withModule(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.override(Child.class, override);
+			}
+		}).build();
+		assertSame(override, overriding.getService(Child.class));
+		// the parent's services are built by the parent
+		assertSame(parent.getService(Child.class), overriding.getService(Parent.class).child);
+		
+		try {
+			new ServiceRegistryBuilder().withParent(parent).withModule(new ServiceModule() {
+				@Override
+				public void bind(ServiceBinder binder) {
+					binder.bind(Child.class);
+				}
+			}).build();
+			fail();
+		} catch (IocException e) {
+			assertEquals("Duplicate serviceId 'child', use override to replace a service of the parent registry", e.getMessage());
+		}
+	}
+
+	public static class NeedyChild extends Child {
+		public NeedyChild(Parent parent) {
+		}
+	}
+
+	@Test
+	public void testRebind() {
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Child.class);
+				binder.bind(Parent.class);
+				binder.bind(GrandParent.class);
+				binder.bind(Date.class, new Date());
+			}
+		});
+		GrandParent oldGrandParent = registry.getService(GrandParent.class);
+		Date date = registry.getService(Date.class);
+		final Child child = new Child();
+		registry.rebind("child", new ServiceBuilder<Child>() {
+			@Override
+			public Child build(ServiceBuilderContext context) {
+				return child;
+			}
+		});
+		GrandParent grandParent = registry.getService(GrandParent.class);
+		assertSame(child, registry.getService(Child.class));
+		assertSame(registry.getService(Parent.class), grandParent.parent);
+		assertSame(child, grandParent.child);
+		assertSame(child, grandParent.parent.child);
+		assertTrue(oldGrandParent != grandParent);
+		assertTrue(oldGrandParent.child != child);
+		assertSame(oldGrandParent.child, oldGrandParent.parent.child);
+		assertSame(date, registry.getService(Date.class));
+
+		try {
+			registry.rebind("child", new InjectionServiceBuilder<>(NeedyChild.class));
+			fail();
+		} catch (IocException e) {
+			assertEquals("Circular dependency reference detected [child, parent, child]", e.getMessage());
+		}
+		assertSame(grandParent, registry.getService(GrandParent.class));
+		try {
+			registry.rebind("unknown", new InjectionServiceBuilder<>(Child.class));
+			fail();
+		} catch (IocException e) {
+			assertEquals("No service found for serviceId 'unknown'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRebindConcurrentLookups() throws Exception {
+		final ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Child.class);
+				binder.bind(Parent.class);
+				binder.bind(GrandParent.class);
+			}
+		});
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (running.get()) {
+					// separate lookups racing the publish may see old and new instances side by side, but each
+					// instance is wired wholly to old or new services
+					GrandParent grandParent = registry.getService(GrandParent.class);
+					if (grandParent.child != grandParent.parent.child) {
+						errors.add("Mixed instance");
+					}
+				}
+			}
+		};
+		reader.start();
+		try {
+			for (int i = 0; i < 50; ++i) {
+				final Child child = new Child();
+				registry.rebind("child", new ServiceBuilder<Child>() {
+					@Override
+					public Child build(ServiceBuilderContext context) {
+						return child;
+					}
+				});
+				// visible to the calling thread once rebind returns
+				assertSame(child, registry.getService(GrandParent.class).child);
+				assertSame(child, registry.getService(Parent.class).child);
+			}
+		} finally {
+			running.set(false);
+			reader.join(10000);
+		}
+		assertEquals(Collections.emptyList(), errors);
+	}
+
+	public static class CloseLog extends ConcurrentLinkedQueue<String> {}
+
+	public static class ClosingChild implements AutoCloseable {
+		private final CloseLog log;
+		public ClosingChild(CloseLog log) {
+			super();
+			this.log = log;
+		}
+		@Override
+		public void close() {
+			log.add("child");
+		}
+	}
+
+	public static class ClosingParent implements AutoCloseable {
+		private final CloseLog log;
+		public ClosingParent(CloseLog log, ClosingChild child) {
+			super();
+			this.log = log;
+		}
+		@Override
+		public void close() {
+			log.add("parent");
+		}
+	}
+
+	private ServiceBuilder<AutoCloseable> closingBuilder(final String name, final Class<?> dependency, final Exception failure) {
+		return new ServiceBuilder<AutoCloseable>() {
+			@Override
+			public AutoCloseable build(ServiceBuilderContext context) {
+				final CloseLog log = context.getServiceRegistry().getService(CloseLog.class);
+				context.getServiceRegistry().getService(dependency);
+				return new AutoCloseable() {
+					@Override
+					public void close() throws Exception {
+						log.add(name);
+						if (failure != null) {
+							throw failure;
+						}
+					}
+				};
+			}
+		};
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(CloseLog.class);
+				binder.bind(ClosingChild.class);
+				binder.bind(ClosingParent.class);
+				binder.bind(AutoCloseable.class, closingBuilder("opaque", ClosingChild.class, null)).withServiceId("opaque");
+				binder.bind(AutoCloseable.class, closingBuilder("unused", ClosingChild.class, null)).withServiceId("unused");
+			}
+		});
+		CloseLog log = registry.getService(CloseLog.class);
+		registry.getService("opaque");
+		registry.getService(ClosingParent.class);
+		registry.close();
+		assertEquals(3, log.size());
+		assertEquals(new HashSet<>(Arrays.asList("parent", "opaque")), new HashSet<>(new ArrayList<>(log).subList(0, 2)));
+		assertEquals("child", new ArrayList<>(log).get(2));
+		registry.close();
+		assertEquals(3, log.size());
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		registry = new ServiceRegistryBuilder().withModule(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(CloseLog.class);
+				binder.bind(ClosingChild.class);
+				binder.bind(AutoCloseable.class, closingBuilder("failing", ClosingChild.class, new Exception("failed"))).withServiceId("failing");
+				binder.bind(AutoCloseable.class, new ServiceBuilder<AutoCloseable>() {
+					@Override
+					public AutoCloseable build(ServiceBuilderContext context) {
+						return new AutoCloseable() {
+							@Override
+							public void close() throws InterruptedException {
+								latch.await();
+							}
+						};
+					}
+				}).withServiceId("slow");
+			}
+		}).withCloseTimeout(50, TimeUnit.MILLISECONDS).build();
+		log = registry.getService(CloseLog.class);
+		registry.getService("failing");
+		registry.getService("slow");
+		try {
+			registry.close();
+			fail();
+		} catch (IocException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Error closing services ["));
+			assertEquals(1, e.getSuppressed().length);
+			Set<String> messages = new HashSet<>(Arrays.asList(e.getCause().getMessage(), e.getSuppressed()[0].getMessage()));
+			assertEquals(new HashSet<>(Arrays.asList("failed", "Timed out closing serviceId 'slow' after 50 ms")), messages);
+		} finally {
+			latch.countDown();
+		}
+		// the slow service was built last so it may use the others, they are closed once it times out
+		assertEquals(Arrays.asList("failing", "child"), new ArrayList<>(log));
+	}
+
+	public static class ClosingPooled implements AutoCloseable {
+		private final CloseLog log;
+		public ClosingPooled(CloseLog log, ClosingChild child) {
+			super();
+			this.log = log;
+		}
+		@Override
+		public void close() {
+			log.add("pooled");
+		}
+	}
+
+	@Test
+	public void testRebindClosesReplaced() {
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(CloseLog.class);
+				binder.bind(ClosingChild.class);
+				binder.bind(ClosingParent.class);
+				binder.bind(ClosingPooled.class).withPool(1, 1, 0);
+			}
+		});
+		final CloseLog log = registry.getService(CloseLog.class);
+		ClosingParent parent = registry.getService(ClosingParent.class);
+		registry.borrowService(ClosingPooled.class).close();
+		registry.rebind("closingChild", new ServiceBuilder<ClosingChild>() {
+			@Override
+			public ClosingChild build(ServiceBuilderContext context) {
+				return new ClosingChild(log);
+			}
+		});
+		// the old parent and pool are closed before the old child they depend on
+		assertEquals(3, log.size());
+		assertEquals(new HashSet<>(Arrays.asList("parent", "pooled")), new HashSet<>(new ArrayList<>(log).subList(0, 2)));
+		assertEquals("child", new ArrayList<>(log).get(2));
+		assertTrue(parent != registry.getService(ClosingParent.class));
+		registry.borrowService(ClosingPooled.class).close();
+		assertEquals(3, log.size());
+	}
+
+	public static class Collector {
+		private Map<String, Parent> parents;
+		private Child borrowedChild;
+	}
+
+	@Test
+	public void testRebindStagedLookups() {
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Child.class);
+				binder.bind(Parent.class);
+				binder.bind(GrandParent.class).withServiceId("pooledGrandParent").withPool(0, 1, 0);
+				binder.bind(Collector.class, new CollectorBuilder());
+			}
+		});
+		Collector oldCollector = registry.getService(Collector.class);
+		final Child child = new Child();
+		registry.rebind("child", new ServiceBuilder<Child>() {
+			@Override
+			public Child build(ServiceBuilderContext context) {
+				return child;
+			}
+		});
+		Collector collector = registry.getService(Collector.class);
+		assertTrue(oldCollector != collector);
+		// lookups by type and borrows see the services rebuilt before the collector
+		assertSame(registry.getService(Parent.class), collector.parents.get("parent"));
+		assertSame(child, collector.parents.get("parent").child);
+		assertSame(child, collector.borrowedChild);
+	}
+
+	public static class CollectorBuilder implements ServiceBuilder<Collector>, StaticDependencies {
+		@Override
+		public Collector build(ServiceBuilderContext context) {
+			Collector collector = new Collector();
+			collector.parents = context.getServiceRegistry().getServices(Parent.class);
+			try (ServiceLease<GrandParent> lease = context.getServiceRegistry().borrowService("pooledGrandParent", GrandParent.class)) {
+				collector.borrowedChild = lease.get().child;
+			}
+			return collector;
+		}
+
+		@Override
+		public List<Dependency> getDependencies() {
+			return Arrays.asList(new Dependency(null, Parent.class, false), new Dependency("pooledGrandParent", GrandParent.class, false));
+		}
+	}
+
+	public static class DateHolder {
+		private final Date date;
+		public DateHolder(Date date) {
+			super();
+			this.date = date;
+		}
+	}
+
+	@Test
+	public void testServiceAsync() throws Exception {
+		final AtomicInteger buildCount = new AtomicInteger();
+		final CompletableFuture<Date> pending = new CompletableFuture<>();
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(DateHolder.class);
+				binder.bind(Date.class, new AsyncServiceBuilder<Date>() {
+					@Override
+					public CompletableFuture<Date> buildAsync(ServiceBuilderContext context) {
+						buildCount.incrementAndGet();
+						return pending;
+					}
+				});
+				binder.bind(String.class, new AsyncServiceBuilder<String>() {
+					@Override
+					public CompletableFuture<String> buildAsync(ServiceBuilderContext context) {
+						CompletableFuture<String> failed = new CompletableFuture<>();
+						failed.completeExceptionally(new IocException("unavailable"));
+						return failed;
+					}
+				});
+			}
+		};
+		Executor direct = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModule(module).withAsyncExecutor(direct).build();
+		CompletableFuture<DateHolder> holder1 = registry.getServiceAsync(DateHolder.class);
+		CompletableFuture<DateHolder> holder2 = registry.getServiceAsync("dateHolder", DateHolder.class);
+		assertEquals(1, buildCount.get());
+		assertFalse(holder1.isDone());
+		assertNull(registry.getServiceIfReady(Date.class));
+		assertNull(registry.getServiceIfReady(DateHolder.class));
+
+		Date date = new Date();
+		pending.complete(date);
+		assertSame(date, holder1.get().date);
+		assertSame(holder1.get(), holder2.get());
+		assertSame(date, registry.getServiceIfReady(Date.class));
+		assertSame(holder1.get(), registry.getService(DateHolder.class));
+		assertEquals(1, buildCount.get());
+
+		try {
+			registry.getServiceAsync(String.class).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals("unavailable", e.getCause().getMessage());
+		}
+		try {
+			registry.getService(String.class);
+			fail();
+		} catch (IocException e) {
+			assertEquals("unavailable", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testMetricsEndWithoutBegin() {
+		MetricsRecorder metrics = new MetricsRecorder();
+		// a listener added while a span is open sees its end only
+		metrics.end(ConstructionListener.Phase.CONSTRUCT, "parent", Parent.class, null);
+		assertTrue(metrics.getServiceMetrics().isEmpty());
+
+		metrics.begin(ConstructionListener.Phase.CONSTRUCT, "child", Child.class, null);
+		metrics.end(ConstructionListener.Phase.CONSTRUCT, "child", Child.class, null);
+		List<ServiceMetrics> sorted = metrics.getServiceMetrics();
+		assertEquals(1, sorted.size());
+		assertSame(sorted, metrics.getServiceMetrics());
+
+		metrics.waited("parent", Parent.class, 10);
+		assertEquals(2, metrics.getServiceMetrics().size());
+	}
+
+	@Test
+	public void testAsyncDeadlock() throws Exception {
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(DateHolder.class);
+				// a dynamic lookup so the static graph can't reject the cycle
+				binder.bind(Date.class, new ServiceBuilder<Date>() {
+					@Override
+					public Date build(ServiceBuilderContext context) {
+						return context.getServiceRegistry().getService(DateHolder.class).date;
+					}
+				});
+			}
+		};
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ServiceRegistry registry = new ServiceRegistryBuilder().withModule(module).withAsyncExecutor(executor).build();
+			try {
+				registry.getServiceAsync(DateHolder.class).get(10, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				Throwable deadlock = getRootCause(e);
+				assertTrue(deadlock.getMessage(), deadlock.getMessage().startsWith("Deadlock detected, threads are waiting for each other to build ["));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private ServiceBuilder<Runnable> crossBuilder(final CyclicBarrier barrier, final String otherId) {
+		return new ServiceBuilder<Runnable>() {
+			@Override
+			public Runnable build(ServiceBuilderContext context) {
+				try {
+					barrier.await(10, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					throw new IocException(e, "Barrier failed");
+				}
+				return context.getServiceRegistry().getService(otherId, Runnable.class);
+			}
+		};
+	}
+
+	@Test
+	public void testCrossThreadDeadlock() throws Exception {
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				// dynamic builders so the static graph can't reject the cycle
+				binder.bind(Runnable.class, crossBuilder(barrier, "y")).withServiceId("x");
+				binder.bind(Runnable.class, crossBuilder(barrier, "x")).withServiceId("y");
+			}
+		});
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<>();
+		for (final String serviceId : Arrays.asList("x", "y")) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						registry.getService(serviceId);
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+		}
+		assertSingleDeadlock(errors);
+	}
+
+	@Test
+	public void testEagerLoadExecutor() {
+		final AtomicInteger childCount = new AtomicInteger();
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(GrandParent.class).eagerLoad();
+				binder.bind(Parent.class).eagerLoad();
+				binder.bind(Child.class, new ServiceBuilder<Child>() {
+					@Override
+					public Child build(ServiceBuilderContext context) {
+						childCount.incrementAndGet();
+						return new Child();
+					}
+				}).eagerLoad();
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			ServiceRegistry registry = new ServiceRegistryBuilder().withModule(module).withEagerLoadExecutor(executor).build();
+			assertEquals(1, childCount.get());
+			GrandParent grandParent = registry.getService(GrandParent.class);
+			assertSame(registry.getService(Parent.class), grandParent.parent);
+			assertSame(registry.getService(Child.class), grandParent.child);
+
+			ServiceModule failing = new ServiceModule() {
+				@Override
+				public void bind(ServiceBinder binder) {
+					// a dynamic builder so the missing Child isn't found by the dependency graph
+					binder.bind(Parent.class, new ServiceBuilder<Parent>() {
+						@Override
+						public Parent build(ServiceBuilderContext context) {
+							return new Parent(context.getServiceRegistry().getService(Child.class));
+						}
+					}).eagerLoad();
+				}
+			};
+			try {
+				new ServiceRegistryBuilder().withModule(failing).withEagerLoadExecutor(executor).build();
+				fail();
+			} catch (IocException e) {
+				assertEquals("Error eager loading services [parent]", e.getMessage());
+				assertEquals("Found 0 services for serviceType '" + Child.class.getName() + "', expecting 1", e.getCause().getMessage());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testScopes() throws Exception {
+		final AtomicInteger contributeCount = new AtomicInteger();
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Child.class).withScope(ServiceScope.PROTOTYPE).withServiceId("prototype");
+				binder.bind(Date.class, new ServiceBuilder<Date>() {
+					@Override
+					public Date build(ServiceBuilderContext context) {
+						return new Date();
+					}
+				}).withScope(ServiceScope.PER_THREAD);
+				binder.bind(List.class, new ServiceBuilder<List>() {
+					@Override
+					public List build(ServiceBuilderContext context) {
+						return new ArrayList<>(context.getOrderedContributions());
+					}
+				}).withScope(ServiceScope.PROTOTYPE);
+				binder.contribute(List.class, new OrderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+						contributeCount.incrementAndGet();
+						configuration.add("a", "value");
+					}
+				});
+			}
+		};
+		final ServiceRegistry registry = buildRegistry(module);
+		assertTrue(registry.getService(Child.class) != registry.getService(Child.class));
+		List<?> list1 = registry.getService(List.class);
+		List<?> list2 = registry.getService(List.class);
+		assertTrue(list1 != list2);
+		assertEquals(Arrays.asList("value"), list2);
+		assertEquals(1, contributeCount.get());
+
+		Date date = registry.getService(Date.class);
+		assertSame(date, registry.getService(Date.class));
+		final Date[] otherDate = new Date[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				otherDate[0] = registry.getService(Date.class);
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNotNull(otherDate[0]);
+		assertTrue(date != otherDate[0]);
+	}
+
+	public interface Counter {
+		int next();
+	}
+
+	@Test
+	public void testPooled() {
+		final AtomicInteger buildCount = new AtomicInteger();
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Counter.class, new ServiceBuilder<Counter>() {
+					@Override
+					public Counter build(ServiceBuilderContext context) {
+						buildCount.incrementAndGet();
+						return new Counter() {
+							private int count;
+
+							@Override
+							public int next() {
+								return ++count;
+							}
+						};
+					}
+				}).withPool(1, 2, 0);
+				binder.bind(Child.class).withScope(ServiceScope.POOLED);
+			}
+		};
+		ServiceRegistry registry = buildRegistry(module);
+		assertEquals(0, buildCount.get());
+		PoolMetrics metrics = registry.getPoolMetrics("counter");
+		assertEquals(1, metrics.getIdleCount());
+
+		ServiceLease<Counter> lease1 = registry.borrowService(Counter.class);
+		ServiceLease<Counter> lease2 = registry.borrowService("counter", Counter.class);
+		assertTrue(lease1.get() != lease2.get());
+		assertEquals(2, buildCount.get());
+		assertEquals(2, metrics.getActiveCount());
+		assertEquals(1, metrics.getMissCount());
+		assertEquals(0.5, metrics.getMissRate(), 0);
+		lease1.close();
+		lease2.close();
+		assertEquals(0, metrics.getActiveCount());
+		assertEquals(1, metrics.getIdleCount());
+		assertEquals(1, metrics.getEvictionCount());
+
+		Counter proxy = registry.getService(Counter.class);
+		assertSame(proxy, registry.getService(Counter.class));
+		assertEquals(1, proxy.next());
+		assertEquals(3, metrics.getBorrowCount());
+		assertEquals(0, metrics.getActiveCount());
+
+		try (ServiceLease<Child> lease = registry.borrowService(Child.class)) {
+			assertNotNull(lease.get());
 		}
-		
-		@Override
-		public String decorate(ServiceBuilderContext context, String delegate) {
-			return String.format(pattern, delegate);
+		try {
+			registry.getService(Child.class);
+			fail();
+		} catch (IocException e) {
+			assertEquals("Pooled serviceId 'child' has non-interface type " + Child.class.getName() + ", use ServiceRegistry.borrowService", e.getMessage());
+		}
+		try {
+			registry.getPoolMetrics("counter2");
+			fail();
+		} catch (IocException e) {
+			assertEquals("No service found for serviceId 'counter2'", e.getMessage());
 		}
 	}
-	
+
 	@Test
-	public void testDecorate() throws Exception {
-		ServiceModule module1 = new ServiceModule() {
+	public void testPoolIdleEviction() throws Exception {
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
 			@Override
 			public void bind(ServiceBinder binder) {
-				binder.bind(String.class, "hello1");
+				binder.bind(Child.class).withPool(1, 3, 50);
+			}
+		});
+		PoolMetrics metrics = registry.getPoolMetrics("child");
+		ServiceLease<Child> lease1 = registry.borrowService(Child.class);
+		ServiceLease<Child> lease2 = registry.borrowService(Child.class);
+		ServiceLease<Child> lease3 = registry.borrowService(Child.class);
+		lease1.close();
+		lease2.close();
+		lease3.close();
+		assertEquals(3, metrics.getIdleCount());
+		// no further traffic, the timer evicts down to minSize
+		long deadline = System.currentTimeMillis() + 10000;
+		while (metrics.getIdleCount() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, metrics.getIdleCount());
+		assertEquals(2, metrics.getEvictionCount());
+		registry.close();
+	}
+
+	@Test
+	public void testPoolClosed() {
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(Child.class).withPool(0, 1, 0);
+			}
+		});
+		PoolMetrics metrics = registry.getPoolMetrics("child");
+		ServiceLease<Child> lease = registry.borrowService(Child.class);
+		lease.close();
+		lease.close();
+		// the permit is released once
+		assertEquals(0, metrics.getActiveCount());
+		lease = registry.borrowService(Child.class);
+		assertEquals(1, metrics.getActiveCount());
+		lease.close();
+
+		registry.close();
+		try {
+			registry.borrowService(Child.class);
+			fail();
+		} catch (IocException e) {
+			assertEquals("Pool for serviceId 'child' is closed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testLazy() {
+		final AtomicInteger buildCount = new AtomicInteger();
+		final ServiceBuilder<Counter> builder = new ServiceBuilder<Counter>() {
+			@Override
+			public Counter build(ServiceBuilderContext context) {
+				buildCount.incrementAndGet();
+				return new Counter() {
+					private int count;
+
+					@Override
+					public int next() {
+						return ++count;
+					}
+				};
 			}
 		};
-		ServiceModule module2 = new ServiceModule() {
+		ServiceModule module = new ServiceModule() {
 			@Override
 			public void bind(ServiceBinder binder) {
-				binder.decorate(String.class, "d1", new StringDecorator("one-%s-one"));
+				binder.bind(Counter.class, builder).lazy();
+				binder.bind(Counter.class, builder).lazy().withScope(ServiceScope.PROTOTYPE).withServiceId("prototype");
 			}
 		};
-		ServiceModule module3 = new ServiceModule() {
+		ServiceRegistry registry = buildRegistry(module);
+		Counter counter = registry.getService("counter", Counter.class);
+		assertSame(counter, registry.getService("counter", Counter.class));
+		assertEquals(0, buildCount.get());
+		assertEquals(1, counter.next());
+		assertEquals(2, counter.next());
+		assertEquals(1, buildCount.get());
+
+		Counter prototype1 = registry.getService("prototype", Counter.class);
+		Counter prototype2 = registry.getService("prototype", Counter.class);
+		assertTrue(prototype1 != prototype2);
+		assertEquals(1, buildCount.get());
+		assertEquals(1, prototype1.next());
+		assertEquals(2, prototype1.next());
+		assertEquals(1, prototype2.next());
+		assertEquals(3, buildCount.get());
+
+		ServiceModule invalid = new ServiceModule() {
 			@Override
 			public void bind(ServiceBinder binder) {
-				binder.bind(String.class, "hello2").withServiceId("string2");
-				binder.bind(String.class, "hello3").withServiceId("string3");
-				binder.decorate(String.class, "d2", new StringDecorator("two-%s-two")).withServiceId("string2");
-				binder.decorate(String.class, "d2", new StringDecorator("three-%s-three")).withServiceId("string3");
+				binder.bind(Child.class).lazy();
 			}
 		};
-		assertEquals("one-hello1-one", buildRegistry(module1, module2).getService(String.class));
-		
-		ServiceRegistry registry3 = buildRegistry(module3);
-		assertEquals("two-hello2-two", registry3.getService("string2"));
-		assertEquals("three-hello3-three", registry3.getService("string3"));
-		
 		try {
-			buildRegistry(module1, module2, module2).getService(String.class);
+			buildRegistry(invalid);
 			fail();
 		} catch (IocException e) {
-			assertEquals("Duplicate decoratorId 'd1' for serviceId 'string'", e.getMessage());
+			assertEquals("Lazy serviceId 'child' has non-interface type " + Child.class.getName(), e.getMessage());
+		}
+	}
+
+	public static class PrivateConstructor {
+		private PrivateConstructor() {
+			super();
 		}
+	}
+
+	@Test
+	public void testNoConstructorFailsBuild() {
+		// the static dependencies of a bound class are read when the registry is built, not on first lookup
 		try {
-			buildRegistry(module2).getService(String.class);
+			buildRegistry(new ServiceModule() {
+				@Override
+				public void bind(ServiceBinder binder) {
+					binder.bind(PrivateConstructor.class);
+				}
+			});
 			fail();
 		} catch (IocException e) {
-			assertEquals("Attempted to decorate unknown serviceId 'string'", e.getMessage());
+			assertEquals("No public constructors found for type " + PrivateConstructor.class.getName(), e.getMessage());
 		}
 	}
-	
+
+	public static class StaticFieldBean {
+		@Inject
+		private static Child child;
+	}
+
 	@Test
-	public void testMultipleDecorate() {
-		ServiceModule module1 = new ServiceModule() {
+	public void testStaticFieldInjection() {
+		ServiceRegistry registry = buildRegistry(new ServiceModule() {
 			@Override
 			public void bind(ServiceBinder binder) {
-				binder.bind(String.class, "SERVICE");
-				binder.decorate(String.class, "d1", new StringDecorator("a%sa"));
-				binder.decorate(String.class, "d2", new StringDecorator("b%sb"));
-				binder.decorate(String.class, "d3", new StringDecorator("c%sc"));
+				binder.bind(Child.class);
+				binder.bind(StaticFieldBean.class);
+			}
+		});
+		registry.getService(StaticFieldBean.class);
+		assertSame(registry.getService(Child.class), StaticFieldBean.child);
+	}
+
+	public static class ProviderBean {
+		private final Provider<Parent> parent;
+		@Inject @Named("child")
+		private Supplier<Child> child;
+
+		public ProviderBean(Provider<Parent> parent) {
+			super();
+			this.parent = parent;
+		}
+	}
+
+	public static class ProviderModule {
+		@Bind
+		public static void bind(ServiceBinder binder) {
+			binder.bind(Child.class);
+			binder.bind(Parent.class);
+			binder.bind(ProviderBean.class);
+		}
+
+		@Service
+		public GrandParent grandParent(Supplier<Parent> parent, @Named("child") Provider<Child> child) {
+			return new GrandParent(parent.get(), child.get());
+		}
+	}
+
+	@Test
+	public void testProviders() {
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(ProviderModule.class).build();
+		ProviderBean bean = registry.getService(ProviderBean.class);
+		assertSame(registry.getService(Parent.class), bean.parent.get());
+		assertSame(registry.getService(Child.class), bean.child.get());
+		GrandParent grandParent = registry.getService(GrandParent.class);
+		assertSame(bean.parent.get(), grandParent.parent);
+		assertSame(bean.child.get(), grandParent.child);
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		ConstructionListener listener = new ConstructionListener() {
+			@Override
+			public void begin(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+				events.add("begin " + phase + " " + serviceId + (detail == null ? "" : " " + detail));
+			}
+
+			@Override
+			public void end(Phase phase, String serviceId, Class<?> serviceType, String detail) {
+				events.add("end " + phase + " " + serviceId + (detail == null ? "" : " " + detail));
+			}
+
+			@Override
+			public void waited(String serviceId, Class<?> serviceType, long nanos) {
 			}
 		};
-		ServiceModule module2 = new ServiceModule() {
+		ServiceModule module = new ServiceModule() {
 			@Override
 			public void bind(ServiceBinder binder) {
-				binder.bind(String.class, "SERVICE");
-				binder.decorate(String.class, "d1", new StringDecorator("a%sa")).after("d2");
-				binder.decorate(String.class, "d2", new StringDecorator("b%sb")).after("d3");
-				binder.decorate(String.class, "d3", new StringDecorator("c%sc"));
+				binder.bind(Child.class);
+				binder.bind(Parent.class);
+				binder.bind(String.class, "hello");
+				binder.decorate(String.class, "d1", new StringDecorator("one-%s-one"));
 			}
 		};
-		ServiceModule module3 = new ServiceModule() {
+		String objectName = "com.lazan.tinyioc:type=RegistryMetrics,name=testMetrics";
+		ServiceRegistry registry = new ServiceRegistryBuilder()
+				.withModule(module)
+				.withConstructionListener(listener)
+				.withMetricsMBean(objectName)
+				.build();
+		try {
+			registry.getService(Parent.class);
+			assertEquals(Arrays.asList(
+					"begin CONSTRUCT parent", "begin BUILD parent",
+					"begin CONSTRUCT child", "begin BUILD child", "end BUILD child", "end CONSTRUCT child",
+					"end BUILD parent", "end CONSTRUCT parent"), events);
+			events.clear();
+			registry.getService(String.class);
+			assertEquals(Arrays.asList(
+					"begin CONSTRUCT string", "begin BUILD string", "end BUILD string", 
+					"begin DECORATE string d1", "end DECORATE string d1", "end CONSTRUCT string"), events);
+			
+			RegistryMetrics metrics = registry.getMetrics();
+			assertEquals(3, metrics.getServiceMetrics().size());
+			assertEquals("parent", metrics.getServiceMetrics().get(0).getServiceId());
+			ServiceMetrics parent = metrics.getServiceMetrics("parent");
+			ServiceMetrics child = metrics.getServiceMetrics("child");
+			assertEquals(1, parent.getConstructionCount());
+			assertTrue(parent.getTotalNanos() >= child.getTotalNanos() + parent.getSelfNanos());
+			assertTrue(parent.getSelfNanos() >= parent.getBuildNanos());
+			assertEquals(Collections.singleton("d1"), metrics.getServiceMetrics("string").getDecoratorNanos().keySet());
+			assertEquals(0, metrics.getServiceMetrics("unknown").getConstructionCount());
+			
+			CompositeData[] data = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(objectName), "ServiceMetrics");
+			assertEquals(3, data.length);
+			assertEquals("parent", data[0].get("serviceId"));
+		} finally {
+			registry.close();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(objectName)));
+		ServiceModule failing = new ServiceModule() {
 			@Override
 			public void bind(ServiceBinder binder) {
-				binder.bind(String.class, "SERVICE");
-				binder.decorate(String.class, "d1", new StringDecorator("a%sa"));
-				binder.decorate(String.class, "d2", new StringDecorator("b%sb"));
-				binder.decorate(String.class, "d3", new StringDecorator("c%sc")).before("*");
+				binder.bind(Parent.class).eagerLoad();
 			}
 		};
-		String value1 = buildRegistry(module1).getService(String.class);
-		assertEquals("cbaSERVICEabc", value1);
-		String value2 = buildRegistry(module2).getService(String.class);
-		assertEquals("abcSERVICEcba", value2);
-		String value3 = buildRegistry(module3).getService(String.class);
-		assertEquals("bacSERVICEcab", value3);
+		try {
+			new ServiceRegistryBuilder().withModule(failing).withMetricsMBean(objectName).build();
+			fail();
+		} catch (IocException e) {
+			assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(objectName)));
+		}
+		// the name is free for the next registry
+		new ServiceRegistryBuilder().withModule(module).withMetricsMBean(objectName).build().close();
+		try {
+			buildRegistry(module).getMetrics();
+			fail();
+		} catch (IocException e) {
+			assertEquals("Metrics are not enabled, see ServiceRegistryBuilder.withMetrics()", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testStartupTrace() throws Exception {
+		File traceFile = File.createTempFile("startup", ".json");
+		try {
+			ServiceRegistry registry = new ServiceRegistryBuilder().withModule(new ServiceModule() {
+				@Override
+				public void bind(ServiceBinder binder) {
+					binder.bind(Child.class);
+					binder.bind(Parent.class).eagerLoad();
+					binder.bind(String.class, "hello");
+				}
+			}).withStartupTrace(traceFile).build();
+			String trace = new String(Files.readAllBytes(traceFile.toPath()), StandardCharsets.UTF_8);
+			assertTrue(trace.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+			assertTrue(trace.contains("\"name\":\"eagerLoad parent\",\"cat\":\"EAGER_LOAD\""));
+			assertTrue(trace.contains("\"name\":\"child\",\"cat\":\"CONSTRUCT\""));
+			assertTrue(trace.contains("\"name\":\"thread_name\""));
+			// services built after startup aren't traced
+			assertTrue(!trace.contains("\"serviceId\":\"string\""));
+			assertEquals("hello", registry.getService(String.class));
+		} finally {
+			traceFile.delete();
+		}
 	}
 
 	private ServiceRegistry buildRegistry(ServiceModule... modules) {
@@ -447,4 +1571,227 @@ public class ServiceRegistryTest {
 		Set<String> actualCollection = new LinkedHashSet<>(registry.getService(CollectionBean.class).getCollection());
 		assertEquals(expectedCollection, actualCollection);
 	}
+
+	private ServiceBuilder<String> latchBuilder(final CountDownLatch latch, final String value) {
+		return new ServiceBuilder<String>() {
+			@Override
+			public String build(ServiceBuilderContext context) {
+				latch.countDown();
+				try {
+					// only completes if every value is built at once
+					if (!latch.await(10, TimeUnit.SECONDS)) {
+						throw new IocException("Values were built one after another");
+					}
+				} catch (InterruptedException e) {
+					throw new IocException(e, "Interrupted");
+				}
+				return value;
+			}
+		};
+	}
+
+	@Test
+	public void testParallelContributions() {
+		final CountDownLatch latch = new CountDownLatch(3);
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(ListBean.class, new ServiceBuilder<ListBean>() {
+					@Override
+					public ListBean build(ServiceBuilderContext context) {
+						return new ListBean(context.getOrderedContributions());
+					}
+				});
+				binder.bind(CollectionBean.class, new ServiceBuilder<CollectionBean>() {
+					@Override
+					public CollectionBean build(ServiceBuilderContext context) {
+						return new CollectionBean(context.getUnorderedContributions());
+					}
+				});
+				binder.contribute(ListBean.class, new OrderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+						configuration.add("c1", latchBuilder(latch, "value1"));
+						configuration.add("c2", latchBuilder(latch, "value2")).before("c1");
+						configuration.add("c3", latchBuilder(latch, "value3"));
+					}
+				});
+				binder.contribute(CollectionBean.class, new UnorderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, UnorderedConfiguration<String> configuration) {
+						configuration.add("c1", "value1");
+						configuration.add("c2", new ServiceBuilder<String>() {
+							@Override
+							public String build(ServiceBuilderContext context) {
+								return context.getServiceRegistry().getService(CollectionBean.class).toString();
+							}
+						});
+					}
+				});
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			ServiceRegistry registry = new ServiceRegistryBuilder().withModule(module).withContributionExecutor(executor).build();
+			assertEquals(Arrays.asList("value2", "value1", "value3"), registry.getService(ListBean.class).getList());
+			try {
+				registry.getService(CollectionBean.class);
+				fail();
+			} catch (IocException e) {
+				assertEquals("Error building contribution 'c2' of serviceId 'collectionBean': Circular dependency reference detected [collectionBean, collectionBean]", e.getMessage());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testNestedParallelContributions() throws Exception {
+		ServiceModule module = new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				for (final String serviceId : Arrays.asList("outer", "inner1", "inner2")) {
+					binder.bind(ListBean.class, new ServiceBuilder<ListBean>() {
+						@Override
+						public ListBean build(ServiceBuilderContext context) {
+							return new ListBean(context.getOrderedContributions());
+						}
+					}).withServiceId(serviceId);
+				}
+				binder.contribute("outer", new OrderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+						for (final String serviceId : Arrays.asList("inner1", "inner2")) {
+							configuration.add(serviceId, new ServiceBuilder<String>() {
+								@Override
+								public String build(ServiceBuilderContext context) {
+									return context.getServiceRegistry().getService(serviceId, ListBean.class).getList().toString();
+								}
+							});
+						}
+					}
+				});
+				for (final String serviceId : Arrays.asList("inner1", "inner2")) {
+					binder.contribute(serviceId, new OrderedContributor<String>() {
+						@Override
+						public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+							configuration.add("c1", serviceId + "a");
+							configuration.add("c2", serviceId + "b");
+						}
+					});
+				}
+			}
+		};
+		// every executor thread builds an inner service and waits for its values
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		try {
+			final ServiceRegistry registry = new ServiceRegistryBuilder().withModule(module).withContributionExecutor(executor).build();
+			CompletableFuture<ListBean> outer = CompletableFuture.supplyAsync(new Supplier<ListBean>() {
+				@Override
+				public ListBean get() {
+					return registry.getService("outer", ListBean.class);
+				}
+			}, caller);
+			assertEquals(Arrays.asList("[inner1a, inner1b]", "[inner2a, inner2b]"), outer.get(10, TimeUnit.SECONDS).getList());
+		} finally {
+			executor.shutdownNow();
+			caller.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParallelContributionDeadlock() throws Exception {
+		final CountDownLatch contributing = new CountDownLatch(1);
+		final CountDownLatch building = new CountDownLatch(1);
+		final ServiceRegistry registry = buildRegistry(new ServiceModule() {
+			@Override
+			public void bind(ServiceBinder binder) {
+				binder.bind(ListBean.class, new ServiceBuilder<ListBean>() {
+					@Override
+					public ListBean build(ServiceBuilderContext context) {
+						return new ListBean(context.getOrderedContributions());
+					}
+				}).withServiceId("x").withParallelContributions();
+				binder.bind(Runnable.class, new ServiceBuilder<Runnable>() {
+					@Override
+					public Runnable build(ServiceBuilderContext context) {
+						building.countDown();
+						awaitLatch(contributing);
+						context.getServiceRegistry().getService("x");
+						return null;
+					}
+				}).withServiceId("w");
+				binder.contribute("x", new OrderedContributor<String>() {
+					@Override
+					public void contribute(ServiceBuilderContext context, OrderedConfiguration<String> configuration) {
+						configuration.add("c1", new ServiceBuilder<String>() {
+							@Override
+							public String build(ServiceBuilderContext context) {
+								awaitLatch(contributing);
+								return "value1";
+							}
+						});
+						configuration.add("c2", new ServiceBuilder<String>() {
+							@Override
+							public String build(ServiceBuilderContext context) {
+								contributing.countDown();
+								awaitLatch(building);
+								return context.getServiceRegistry().getService("w").toString();
+							}
+						});
+					}
+				});
+			}
+		});
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<>();
+		for (final String serviceId : Arrays.asList("x", "w")) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						registry.getService(serviceId);
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+		}
+		assertSingleDeadlock(errors);
+	}
+
+	/**
+	 * One thread fails with the cycle, the other fails with its own exception caused by it
+	 */
+	private static void assertSingleDeadlock(List<Throwable> errors) {
+		assertEquals(2, errors.size());
+		Throwable deadlock = getRootCause(errors.get(0));
+		assertSame(deadlock, getRootCause(errors.get(1)));
+		assertNotSame(errors.get(0), errors.get(1));
+		assertTrue(deadlock.getMessage(), deadlock.getMessage().startsWith("Deadlock detected, threads are waiting for each other to build ["));
+	}
+
+	private static Throwable getRootCause(Throwable error) {
+		while (error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error;
+	}
+
+	private static void awaitLatch(CountDownLatch latch) {
+		try {
+			if (!latch.await(10, TimeUnit.SECONDS)) {
+				throw new IocException("Timed out waiting for latch");
+			}
+		} catch (InterruptedException e) {
+			throw new IocException(e, "Interrupted");
+		}
+	}
 }
@@ -3,6 +3,11 @@ package com.lazan.tinyioc.internal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.Date;
 import java.util.Arrays;
 import java.util.Collection;
@@ -147,6 +152,25 @@ public class AnnotatedServiceModuleTest {
 		assertEquals("312HELLO213", foo);
 	}
 	
+	@Test
+	public void testModuleIndex() throws Exception {
+		File dir = Files.createTempDirectory("index").toFile();
+		File index = new File(dir, ModuleIndex.RESOURCE);
+		index.getParentFile().mkdirs();
+		String line = DecoratorModule2.class.getName() + " bind(com.lazan.tinyioc.ServiceBinder) decorateFoo1(java.lang.String) decorateFoo3(java.lang.String)\n";
+		Files.write(index.toPath(), line.getBytes(StandardCharsets.UTF_8));
+		try (URLClassLoader classLoader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader())) {
+			ServiceRegistry registry = new ServiceRegistryBuilder().withIndexedModules(classLoader).build();
+			// only the indexed methods are invoked
+			assertEquals("31HELLO13", registry.getService("foo", String.class));
+		} finally {
+			index.delete();
+			index.getParentFile().delete();
+			index.getParentFile().getParentFile().delete();
+			dir.delete();
+		}
+	}
+	
 	public static class EagerLoadModule {
 		@Service(serviceId="service1", eagerLoad=true)
 		public String service1(@Named("list") List<String> instances) {
@@ -2,6 +2,7 @@ package com.lazan.tinyioc.internal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.when;
 
@@ -145,6 +146,24 @@ public class InjectionServiceBuilderTest {
 		assertEquals("hello", values.string1);
 	}
 	
+	@Test
+	public void testPlanIsShared() {
+		assertSame(InjectionPlan.forType(InjectFields.class), InjectionPlan.forType(InjectFields.class));
+
+		when(registry.getService("string1", String.class)).thenReturn("hello");
+		assertEquals("hello", build(InjectFields2.class).string1);
+		when(registry.getService("string1", String.class)).thenReturn("world");
+		assertEquals("world", build(InjectFields2.class).string1);
+	}
+
+	@Test
+	public void testInjectFieldsOfConcreteType() {
+		when(registry.getService("string1", String.class)).thenReturn("hello");
+		ServiceBuilderContext context = new ServiceBuilderContextImpl(registry, "testService", Object.class);
+		InjectFields2 values = new InjectionServiceBuilder<>(InjectFields2.class).build(context);
+		assertEquals("hello", values.string1);
+	}
+
 	private <T> T build(Class<T> type) {
 		ServiceBuilderContext context = new ServiceBuilderContextImpl(registry, "testService", type);
 		return new InjectionServiceBuilder<>(type).build(context);
@@ -0,0 +1,89 @@
+package com.lazan.tinyioc.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.lazan.tinyioc.IocException;
+
+public class OrdererTest {
+	@Test
+	public void testDeclarationOrder() {
+		Orderer<String> orderer = new Orderer<>("contribution");
+		orderer.add("c", "c", null, null);
+		orderer.add("a", "a", null, null);
+		orderer.add("b", "b", null, null);
+		assertEquals(Arrays.asList("c", "a", "b"), orderer.order());
+	}
+
+	@Test
+	public void testConstraints() {
+		Orderer<String> orderer = new Orderer<>("contribution");
+		orderer.add("a", "a", null, set("unknown"));
+		orderer.add("b", "b", set("a"), null);
+		orderer.add("c", "c", null, set("*"));
+		orderer.add("d", "d", null, set("b"));
+		orderer.add("e", "e", set("*"), null);
+		assertEquals(Arrays.asList("e", "b", "a", "d", "c"), orderer.order());
+	}
+
+	@Test
+	public void testDuplicateKeepsPosition() {
+		Orderer<String> orderer = new Orderer<>("contribution");
+		orderer.add("a", "a1", null, null);
+		orderer.add("b", "b", null, null);
+		orderer.add("a", "a2", null, null);
+		assertEquals(Arrays.asList("a2", "b"), orderer.order());
+	}
+
+	@Test
+	public void testCycle() {
+		Orderer<String> orderer = new Orderer<>("decorator");
+		orderer.add("a", "a", null, set("c"));
+		orderer.add("b", "b", null, set("a"));
+		orderer.add("c", "c", null, set("b"));
+		try {
+			orderer.order();
+			fail();
+		} catch (IocException e) {
+			assertEquals("Circular decorator ordering detected [a, b, c, a]", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testWildcardCycle() {
+		Orderer<String> orderer = new Orderer<>("contribution");
+		orderer.add("a", "a", null, null);
+		orderer.add("b", "b", set("*"), set("a"));
+		try {
+			orderer.order();
+			fail();
+		} catch (IocException e) {
+			assertEquals("Circular contribution ordering detected [a, b, *, a]", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testLargeChain() {
+		Orderer<Integer> orderer = new Orderer<>("contribution");
+		int count = 100000;
+		for (int i = count - 1; i >= 0; --i) {
+			orderer.add(String.valueOf(i), i, null, i == 0 ? null : set(String.valueOf(i - 1)));
+		}
+		List<Integer> expected = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			expected.add(i);
+		}
+		assertEquals(expected, orderer.order());
+	}
+
+	private static Collection<String> set(String... ids) {
+		return Arrays.asList(ids);
+	}
+}
@@ -0,0 +1,204 @@
+package com.lazan.tinyioc.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Generates a {@code ServiceBuilder} which mirrors the constructor selection and field injection rules
+ * of {@code InjectionServiceBuilder} using plain java calls
+ */
+class BuilderGenerator {
+	private final GeneratorSupport support;
+	private final TypeElement type;
+
+	BuilderGenerator(GeneratorSupport support, TypeElement type) {
+		this.support = support;
+		this.type = type;
+	}
+
+	void generate() {
+		if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+			support.skip(type, "type is not a concrete class");
+			return;
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			support.skip(type, "type is generic");
+			return;
+		}
+		if (!support.isAccessible(type)) {
+			support.skip(type, "type is not accessible from its package");
+			return;
+		}
+		ExecutableElement constructor = findConstructor();
+		if (constructor == null) {
+			support.skip(type, "no unique public constructor");
+			return;
+		}
+		List<VariableElement> fields = findInjectFields();
+		if (fields == null) {
+			return;
+		}
+		String typeName = type.getQualifiedName().toString();
+		String simpleName = support.generatedSimpleName(type, GeneratorSupport.BUILDER_SUFFIX);
+		StringBuilder source = new StringBuilder();
+		source.append("/**\n * Generated by ").append(TinyIocProcessor.class.getName()).append(", do not edit\n */\n");
+		source.append("@SuppressWarnings({ \"rawtypes\", \"unchecked\" })\n");
+		source.append("public final class ").append(simpleName)
+				.append(" extends com.lazan.tinyioc.internal.StaticServiceBuilder<").append(typeName).append("> {\n");
+		List<String> dependencies = new ArrayList<>();
+		for (VariableElement param : constructor.getParameters()) {
+			addDependency(dependencies, param.asType(), param);
+		}
+		for (VariableElement field : fields) {
+			addDependency(dependencies, field.asType(), field);
+		}
+		source.append("\tpublic ").append(simpleName).append("() {\n");
+		source.append("\t\tsuper(");
+		for (int i = 0; i < dependencies.size(); ++i) {
+			source.append(i == 0 ? "" : ", ").append(dependencies.get(i));
+		}
+		source.append(");\n");
+		source.append("\t}\n\n");
+		source.append("\t@Override\n");
+		source.append("\tpublic ").append(typeName).append(" build(com.lazan.tinyioc.ServiceBuilderContext context) {\n");
+		source.append("\t\tcom.lazan.tinyioc.ServiceRegistry registry = context.getServiceRegistry();\n");
+		List<? extends VariableElement> params = constructor.getParameters();
+		for (int i = 0; i < params.size(); ++i) {
+			VariableElement param = params.get(i);
+			source.append("\t\t").append(support.typeName(param.asType())).append(" p").append(i).append(" = ")
+					.append(valueExpression(param.asType(), param)).append(";\n");
+		}
+		source.append("\t\t").append(typeName).append(" service;\n");
+		source.append("\t\ttry {\n");
+		source.append("\t\t\tservice = new ").append(typeName).append("(");
+		for (int i = 0; i < params.size(); ++i) {
+			source.append(i == 0 ? "" : ", ").append("p").append(i);
+		}
+		source.append(");\n");
+		// rethrown as is like InjectionServiceBuilder, so the exception doesn't depend on whether the processor ran
+		source.append("\t\t} catch (com.lazan.tinyioc.IocException e) {\n");
+		source.append("\t\t\tthrow e;\n");
+		source.append("\t\t} catch (Exception e) {\n");
+		source.append("\t\t\tthrow new com.lazan.tinyioc.IocException(e, \"Error building service '%s'\", context.getServiceId());\n");
+		source.append("\t\t}\n");
+		for (VariableElement field : fields) {
+			TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+			source.append("\t\ttry {\n");
+			source.append("\t\t\t((").append(declaringType.getQualifiedName()).append(") service).")
+					.append(field.getSimpleName()).append(" = ").append(valueExpression(field.asType(), field)).append(";\n");
+			source.append("\t\t} catch (Exception e) {\n");
+			source.append("\t\t\tthrow new com.lazan.tinyioc.IocException(e, \"Error injecting field '%s' in serviceId '%s'\", ")
+					.append(support.literal(field.getSimpleName().toString())).append(", context.getServiceId());\n");
+			source.append("\t\t}\n");
+		}
+		source.append("\t\treturn service;\n");
+		source.append("\t}\n");
+		source.append("}\n");
+		support.writeSource(type, simpleName, source.toString());
+	}
+
+	/**
+	 * Same rules as InjectionPlan.findConstructor
+	 */
+	private ExecutableElement findConstructor() {
+		List<ExecutableElement> publicConstructors = new ArrayList<>();
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getModifiers().contains(Modifier.PUBLIC)) {
+				publicConstructors.add(constructor);
+			}
+		}
+		if (publicConstructors.size() == 1) {
+			return publicConstructors.get(0);
+		}
+		ExecutableElement selected = null;
+		for (ExecutableElement constructor : publicConstructors) {
+			if (support.getAnnotation(constructor, TinyIocProcessor.INJECT) != null) {
+				if (selected != null) {
+					return null;
+				}
+				selected = constructor;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * @return the inject fields in the same order as InjectionPlan or null if any can't be set without reflection
+	 */
+	private List<VariableElement> findInjectFields() {
+		List<VariableElement> fields = new ArrayList<>();
+		TypeElement current = type;
+		while (current != null) {
+			for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+				if (support.getAnnotation(field, TinyIocProcessor.INJECT) == null) {
+					continue;
+				}
+				Set<Modifier> modifiers = field.getModifiers();
+				boolean accessible = modifiers.contains(Modifier.PUBLIC)
+						|| (!modifiers.contains(Modifier.PRIVATE) && support.isSamePackage(field, type));
+				if (!accessible || modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.STATIC)) {
+					support.skip(type, "field " + current.getSimpleName() + "." + field.getSimpleName() + " is not accessible");
+					return null;
+				}
+				fields.add(field);
+			}
+			TypeMirror superType = current.getSuperclass();
+			current = superType.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superType).asElement() : null;
+		}
+		return fields;
+	}
+
+	/**
+	 * Adds the dependency of a value unless it's a contribution, same rules as {@link #valueExpression}
+	 */
+	private void addDependency(List<String> dependencies, TypeMirror valueType, Element element) {
+		String named = support.getNamed(element);
+		if (named == null) {
+			switch (support.typeName(valueType)) {
+				case "java.util.Map":
+				case "java.util.List":
+				case "java.util.Collection":
+					return;
+				default:
+					break;
+			}
+		}
+		String dependency = support.dependencyExpression(valueType, named);
+		if (dependency != null) {
+			dependencies.add(dependency);
+		}
+	}
+
+	/**
+	 * Same rules as InjectionPlan.createResolver
+	 */
+	private String valueExpression(TypeMirror valueType, Element element) {
+		String typeName = support.typeName(valueType);
+		String named = support.getNamed(element);
+		if (named != null) {
+			return support.serviceExpression(valueType, named);
+		}
+		switch (typeName) {
+			case "java.util.Map":
+				return "context.getMappedContributions()";
+			case "java.util.List":
+				return "context.getOrderedContributions()";
+			case "java.util.Collection":
+				return "context.getUnorderedContributions()";
+			default:
+				return support.serviceExpression(valueType, null);
+		}
+	}
+}
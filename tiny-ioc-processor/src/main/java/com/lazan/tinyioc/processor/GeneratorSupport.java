@@ -0,0 +1,219 @@
+package com.lazan.tinyioc.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Helpers shared by the source generators
+ */
+class GeneratorSupport {
+	static final String BUILDER_SUFFIX = "$$TinyIocBuilder";
+	static final String MODULE_SUFFIX = "$$TinyIocModule";
+	static final String LAZY_SUFFIX = "$$TinyIocLazy";
+	static final String NAMED = "javax.inject.Named";
+
+	private final ProcessingEnvironment processingEnv;
+	private final Elements elements;
+	private final Types types;
+
+	GeneratorSupport(ProcessingEnvironment processingEnv) {
+		this.processingEnv = processingEnv;
+		this.elements = processingEnv.getElementUtils();
+		this.types = processingEnv.getTypeUtils();
+	}
+
+	Elements getElements() {
+		return elements;
+	}
+
+	Types getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return the source name of the erasure of a type, suitable for casts and class literals
+	 */
+	String typeName(TypeMirror type) {
+		return types.erasure(type).toString();
+	}
+
+	boolean isType(TypeMirror type, String qualifiedName) {
+		return typeName(type).equals(qualifiedName);
+	}
+
+	String literal(String value) {
+		return elements.getConstantExpression(value);
+	}
+
+	String packageName(TypeElement type) {
+		return elements.getPackageOf(type).getQualifiedName().toString();
+	}
+
+	boolean isSamePackage(Element element, TypeElement type) {
+		Element current = element;
+		while (current != null && !(current instanceof PackageElement)) {
+			current = current.getEnclosingElement();
+		}
+		return current != null && current.equals(elements.getPackageOf(type));
+	}
+
+	/**
+	 * @return true if the type can be referenced from a generated class in the same package
+	 */
+	boolean isAccessible(TypeElement type) {
+		Element current = type;
+		while (current instanceof TypeElement) {
+			if (current.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			Element enclosing = current.getEnclosingElement();
+			if (enclosing instanceof TypeElement && !current.getModifiers().contains(Modifier.STATIC)
+					&& current.getKind() == ElementKind.CLASS) {
+				return false;
+			}
+			current = enclosing;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the value of a javax.inject.Named annotation on the element or null
+	 */
+	String getNamed(Element element) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+			if (annotationType.getQualifiedName().contentEquals(NAMED)) {
+				Object value = getAnnotationValue(mirror, "value");
+				return value == null ? "" : value.toString();
+			}
+		}
+		return null;
+	}
+
+	AnnotationMirror getAnnotation(Element element, String qualifiedName) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+			if (annotationType.getQualifiedName().contentEquals(qualifiedName)) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the explicit or default value of an annotation attribute
+	 */
+	Object getAnnotationValue(AnnotationMirror mirror, String name) {
+		Map<? extends ExecutableElement, ? extends AnnotationValue> values = elements.getElementValuesWithDefaults(mirror);
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals(name)) {
+				return entry.getValue().getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return an expression which looks up the service for an injected type, Provider and Supplier types are
+	 *         injected with a {@code ServiceProvider} for their type argument. Expects {@code registry} in scope
+	 */
+	String serviceExpression(TypeMirror valueType, String named) {
+		String typeName = typeName(valueType);
+		String namedLiteral = named == null ? "null" : literal(named);
+		if (isProvider(typeName)) {
+			return "com.lazan.tinyioc.internal.ServiceProvider.create(registry, " + namedLiteral + ", " + providedClass(valueType) + ")";
+		}
+		if (named != null) {
+			return "registry.getService(" + namedLiteral + ", " + typeName + ".class)";
+		}
+		return "registry.getService(" + typeName + ".class)";
+	}
+
+	/**
+	 * @return a {@code Dependency} expression for the service looked up by {@link #serviceExpression}, null for
+	 *         a Provider or Supplier without a type argument
+	 */
+	String dependencyExpression(TypeMirror valueType, String named) {
+		String typeName = typeName(valueType);
+		String namedLiteral = named == null ? "null" : literal(named);
+		if (isProvider(typeName)) {
+			String providedClass = providedClass(valueType);
+			return providedClass.equals("null") ? null
+					: "new com.lazan.tinyioc.internal.Dependency(" + namedLiteral + ", " + providedClass + ", true)";
+		}
+		return "new com.lazan.tinyioc.internal.Dependency(" + namedLiteral + ", " + typeName + ".class, false)";
+	}
+
+	private boolean isProvider(String typeName) {
+		return typeName.equals("javax.inject.Provider") || typeName.equals("java.util.function.Supplier");
+	}
+
+	private String providedClass(TypeMirror providerType) {
+		List<? extends TypeMirror> typeArguments = ((DeclaredType) providerType).getTypeArguments();
+		TypeMirror providedType = typeArguments.isEmpty() ? null : typeArguments.get(0);
+		return providedType != null && providedType.getKind() == TypeKind.DECLARED ? typeName(providedType) + ".class" : "null";
+	}
+
+	/**
+	 * @return the constant name of an enum annotation value
+	 */
+	String getEnumValue(AnnotationMirror mirror, String name) {
+		Object value = getAnnotationValue(mirror, name);
+		return value == null ? null : ((VariableElement) value).getSimpleName().toString();
+	}
+
+	boolean isVoid(TypeMirror type) {
+		return type.getKind() == TypeKind.VOID;
+	}
+
+	String generatedSimpleName(TypeElement type, String suffix) {
+		String binaryName = elements.getBinaryName(type).toString();
+		String packageName = packageName(type);
+		String simpleName = packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+		return simpleName + suffix;
+	}
+
+	void writeSource(TypeElement origin, String simpleName, String body) {
+		String packageName = packageName(origin);
+		String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, origin);
+			try (Writer writer = file.openWriter()) {
+				if (!packageName.isEmpty()) {
+					writer.write("package " + packageName + ";\n\n");
+				}
+				writer.write(body);
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Error writing " + qualifiedName + ": " + e, origin);
+		}
+	}
+
+	/**
+	 * Reports why a type was skipped, the runtime falls back to reflection for skipped types
+	 */
+	void skip(Element element, String reason) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+				"tiny-ioc: not generating code for " + element + ", " + reason, element);
+	}
+}
@@ -0,0 +1,142 @@
+package com.lazan.tinyioc.processor;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Generates a lazy proxy for an interface which delegates every method to {@code LazyTarget.get()}, the
+ * proxy used by {@code GeneratedTypes.createLazyProxy} in place of a reflective {@code java.lang.reflect.Proxy}
+ */
+class LazyProxyGenerator {
+	private final GeneratorSupport support;
+	private final TypeElement type;
+
+	LazyProxyGenerator(GeneratorSupport support, TypeElement type) {
+		this.support = support;
+		this.type = type;
+	}
+
+	void generate() {
+		if (type.getKind() != ElementKind.INTERFACE) {
+			support.skip(type, "lazy services must have an interface type");
+			return;
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			support.skip(type, "type is generic");
+			return;
+		}
+		if (!support.isAccessible(type)) {
+			support.skip(type, "type is not accessible from its package");
+			return;
+		}
+		String packageName = support.packageName(type);
+		if (packageName.startsWith("java.") || packageName.startsWith("javax.")) {
+			support.skip(type, "can't generate classes in package " + packageName);
+			return;
+		}
+		String typeName = type.getQualifiedName().toString();
+		String simpleName = support.generatedSimpleName(type, GeneratorSupport.LAZY_SUFFIX);
+		StringBuilder source = new StringBuilder();
+		source.append("/**\n * Generated by ").append(TinyIocProcessor.class.getName()).append(", do not edit\n */\n");
+		source.append("@SuppressWarnings({ \"rawtypes\", \"unchecked\" })\n");
+		source.append("public final class ").append(simpleName).append(" implements ").append(typeName).append(" {\n");
+		source.append("\tprivate final com.lazan.tinyioc.internal.LazyTarget<").append(typeName).append("> target;\n\n");
+		source.append("\tpublic ").append(simpleName).append("(com.lazan.tinyioc.internal.LazyTarget<").append(typeName).append("> target) {\n");
+		source.append("\t\tthis.target = target;\n");
+		source.append("\t}\n");
+		Set<String> signatures = new LinkedHashSet<>();
+		for (ExecutableElement method : ElementFilter.methodsIn(support.getElements().getAllMembers(type))) {
+			Set<Modifier> modifiers = method.getModifiers();
+			if (modifiers.contains(Modifier.STATIC) || method.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+				continue;
+			}
+			if (!method.getTypeParameters().isEmpty()) {
+				support.skip(type, "method " + method.getSimpleName() + " is generic");
+				return;
+			}
+			// the type arguments of a generic super interface replace its type variables
+			ExecutableType resolved = (ExecutableType) support.getTypes().asMemberOf((DeclaredType) type.asType(), method);
+			if (!isExpressible(resolved)) {
+				support.skip(type, "the signature of method " + method.getSimpleName() + " can't be resolved");
+				return;
+			}
+			StringBuilder signature = new StringBuilder(method.getSimpleName());
+			for (TypeMirror paramType : resolved.getParameterTypes()) {
+				signature.append(',').append(support.typeName(paramType));
+			}
+			if (!signatures.add(signature.toString())) {
+				continue;
+			}
+			appendMethod(source, method, resolved);
+		}
+		source.append("}\n");
+		support.writeSource(type, simpleName, source.toString());
+	}
+
+	/**
+	 * @return false if a type still refers to a type variable (or doesn't compile), its erasure wouldn't
+	 *         override the interface method
+	 */
+	private boolean isExpressible(ExecutableType method) {
+		if (!isExpressible(method.getReturnType())) {
+			return false;
+		}
+		for (TypeMirror paramType : method.getParameterTypes()) {
+			if (!isExpressible(paramType)) {
+				return false;
+			}
+		}
+		for (TypeMirror thrownType : method.getThrownTypes()) {
+			if (!isExpressible(thrownType)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isExpressible(TypeMirror type) {
+		TypeMirror component = type;
+		while (component.getKind() == TypeKind.ARRAY) {
+			component = ((ArrayType) component).getComponentType();
+		}
+		return component.getKind() != TypeKind.TYPEVAR && component.getKind() != TypeKind.ERROR;
+	}
+
+	private void appendMethod(StringBuilder source, ExecutableElement method, ExecutableType resolved) {
+		List<? extends TypeMirror> params = resolved.getParameterTypes();
+		source.append("\n\t@Override\n");
+		source.append("\tpublic ").append(support.typeName(resolved.getReturnType())).append(" ").append(method.getSimpleName()).append("(");
+		for (int i = 0; i < params.size(); ++i) {
+			String paramType = support.typeName(params.get(i));
+			if (method.isVarArgs() && i == params.size() - 1) {
+				paramType = paramType.substring(0, paramType.length() - 2) + "...";
+			}
+			source.append(i == 0 ? "" : ", ").append(paramType).append(" p").append(i);
+		}
+		source.append(")");
+		List<? extends TypeMirror> thrownTypes = resolved.getThrownTypes();
+		for (int i = 0; i < thrownTypes.size(); ++i) {
+			source.append(i == 0 ? " throws " : ", ").append(support.typeName(thrownTypes.get(i)));
+		}
+		source.append(" {\n");
+		source.append("\t\t").append(support.isVoid(resolved.getReturnType()) ? "" : "return ")
+				.append("target.get().").append(method.getSimpleName()).append("(");
+		for (int i = 0; i < params.size(); ++i) {
+			source.append(i == 0 ? "" : ", ").append("p").append(i);
+		}
+		source.append(");\n");
+		source.append("\t}\n");
+	}
+}
@@ -0,0 +1,314 @@
+package com.lazan.tinyioc.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Generates a {@code ServiceModule} which binds the same services, decorators and contributors as
+ * {@code AnnotatedServiceModule} would for the module type, calling the module methods directly
+ */
+class ModuleGenerator {
+	private static final String BIND = "com.lazan.tinyioc.annotations.Bind";
+	private static final String SERVICE = "com.lazan.tinyioc.annotations.Service";
+	private static final String SERVICE_OVERRIDE = "com.lazan.tinyioc.annotations.ServiceOverride";
+	private static final String DECORATE = "com.lazan.tinyioc.annotations.Decorate";
+	private static final String CONTRIBUTE = "com.lazan.tinyioc.annotations.Contribute";
+
+	private static final String ORDERED = "com.lazan.tinyioc.OrderedConfiguration";
+	private static final String UNORDERED = "com.lazan.tinyioc.UnorderedConfiguration";
+	private static final String MAPPED = "com.lazan.tinyioc.MappedConfiguration";
+
+	private final GeneratorSupport support;
+	private final TypeElement type;
+	private final String typeName;
+	private boolean needsInstance;
+	private int optionsCount;
+
+	ModuleGenerator(GeneratorSupport support, TypeElement type) {
+		this.support = support;
+		this.type = type;
+		this.typeName = support.getTypes().erasure(type.asType()).toString();
+	}
+
+	void generate() {
+		if (type.getKind() != ElementKind.CLASS || !support.isAccessible(type)) {
+			support.skip(type, "module is not an accessible class");
+			return;
+		}
+		StringBuilder body = new StringBuilder();
+		for (ExecutableElement method : ElementFilter.methodsIn(support.getElements().getAllMembers(type))) {
+			if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+				continue;
+			}
+			AnnotationMirror handled = null;
+			for (String annotationName : TinyIocProcessor.MODULE_ANNOTATIONS) {
+				AnnotationMirror mirror = support.getAnnotation(method, annotationName);
+				if (mirror != null) {
+					if (handled != null) {
+						support.skip(type, "method " + method.getSimpleName() + " has multiple tiny-ioc annotations");
+						return;
+					}
+					handled = mirror;
+				}
+			}
+			if (handled != null && !append(body, method, handled)) {
+				return;
+			}
+		}
+		if (needsInstance && !hasDefaultConstructor()) {
+			support.skip(type, "module has no accessible default constructor");
+			return;
+		}
+		String simpleName = support.generatedSimpleName(type, GeneratorSupport.MODULE_SUFFIX);
+		StringBuilder source = new StringBuilder();
+		source.append("/**\n * Generated by ").append(TinyIocProcessor.class.getName()).append(", do not edit\n */\n");
+		source.append("@SuppressWarnings({ \"rawtypes\", \"unchecked\" })\n");
+		source.append("public final class ").append(simpleName).append(" implements com.lazan.tinyioc.ServiceModule {\n");
+		source.append("\t@Override\n");
+		source.append("\tpublic void bind(com.lazan.tinyioc.ServiceBinder binder) {\n");
+		if (needsInstance) {
+			source.append("\t\tfinal ").append(typeName).append(" module;\n");
+			source.append("\t\ttry {\n");
+			source.append("\t\t\tmodule = new ").append(typeName).append("();\n");
+			source.append("\t\t} catch (Exception e) {\n");
+			source.append("\t\t\tthrow new com.lazan.tinyioc.IocException(e, \"Error instantiating %s\", ")
+					.append(support.literal(type.getSimpleName().toString())).append(");\n");
+			source.append("\t\t}\n");
+		}
+		source.append(body);
+		source.append("\t}\n");
+		source.append("}\n");
+		support.writeSource(type, simpleName, source.toString());
+	}
+
+	private boolean append(StringBuilder body, ExecutableElement method, AnnotationMirror annotation) {
+		String annotationName = ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+		if (!method.getModifiers().contains(Modifier.STATIC)) {
+			needsInstance = true;
+		}
+		switch (annotationName) {
+			case BIND:
+				return appendBind(body, method);
+			case SERVICE:
+				return appendService(body, method, "bind", (String) support.getAnnotationValue(annotation, "serviceId"), annotation);
+			case SERVICE_OVERRIDE:
+				return appendService(body, method, "override", (String) support.getAnnotationValue(annotation, "value"), annotation);
+			case DECORATE:
+				return appendDecorate(body, method, annotation);
+			default:
+				return appendContribute(body, method, annotation);
+		}
+	}
+
+	private boolean appendBind(StringBuilder body, ExecutableElement method) {
+		List<? extends VariableElement> params = method.getParameters();
+		if (params.size() != 1 || !support.isType(params.get(0).asType(), "com.lazan.tinyioc.ServiceBinder")) {
+			support.skip(type, "@Bind method " + method.getSimpleName() + " must have a single ServiceBinder parameter");
+			return false;
+		}
+		body.append("\t\ttry {\n");
+		body.append("\t\t\t").append(target(method)).append("(binder);\n");
+		body.append("\t\t} catch (Exception e) {\n");
+		body.append("\t\t\tthrow new com.lazan.tinyioc.IocException(e, \"Error invoking %s.%s\", ")
+				.append(support.literal(method.getEnclosingElement().toString())).append(", ")
+				.append(support.literal(method.getSimpleName().toString())).append(");\n");
+		body.append("\t\t}\n");
+		return true;
+	}
+
+	private boolean appendService(StringBuilder body, ExecutableElement method, String binderMethod, String serviceId, AnnotationMirror annotation) {
+		if (support.isVoid(method.getReturnType()) || method.getReturnType().getKind().isPrimitive()) {
+			support.skip(type, "service method " + method.getSimpleName() + " must return an object type");
+			return false;
+		}
+		String returnType = support.typeName(method.getReturnType());
+		String options = "options" + (optionsCount++);
+		List<String> args = new ArrayList<>();
+		List<String> dependencies = new ArrayList<>();
+		for (VariableElement param : method.getParameters()) {
+			String paramType = support.typeName(param.asType());
+			String named = support.getNamed(param);
+			if (named == null && paramType.equals("java.util.Map")) {
+				args.add("context.getMappedContributions()");
+			} else if (named == null && paramType.equals("java.util.List")) {
+				args.add("context.getOrderedContributions()");
+			} else if (named == null && paramType.equals("java.util.Collection")) {
+				args.add("context.getUnorderedContributions()");
+			} else {
+				args.add(support.serviceExpression(param.asType(), named));
+				String dependency = support.dependencyExpression(param.asType(), named);
+				if (dependency != null) {
+					dependencies.add(dependency);
+				}
+			}
+		}
+		body.append("\t\tcom.lazan.tinyioc.ServiceBinderOptions ").append(options).append(" = binder.").append(binderMethod)
+				.append("(").append(returnType).append(".class, new com.lazan.tinyioc.internal.StaticServiceBuilder<").append(returnType).append(">(");
+		for (int i = 0; i < dependencies.size(); ++i) {
+			body.append(i == 0 ? "" : ", ").append(dependencies.get(i));
+		}
+		body.append(") {\n");
+		body.append("\t\t\t@Override\n");
+		body.append("\t\t\tpublic ").append(returnType).append(" build(com.lazan.tinyioc.ServiceBuilderContext context) {\n");
+		body.append("\t\t\t\tcom.lazan.tinyioc.ServiceRegistry registry = context.getServiceRegistry();\n");
+		appendInvoke(body, method, args, true);
+		body.append("\t\t\t}\n");
+		body.append("\t\t});\n");
+		if (serviceId != null && !serviceId.isEmpty()) {
+			body.append("\t\t").append(options).append(".withServiceId(").append(support.literal(serviceId)).append(");\n");
+		}
+		if ((Boolean) support.getAnnotationValue(annotation, "eagerLoad")) {
+			body.append("\t\t").append(options).append(".eagerLoad();\n");
+		}
+		if ((Boolean) support.getAnnotationValue(annotation, "lazy")) {
+			body.append("\t\t").append(options).append(".lazy();\n");
+		}
+		String scope = support.getEnumValue(annotation, "scope");
+		if (scope != null && !scope.equals("SINGLETON")) {
+			body.append("\t\t").append(options).append(".withScope(com.lazan.tinyioc.ServiceScope.").append(scope).append(");\n");
+		}
+		return true;
+	}
+
+	private boolean appendDecorate(StringBuilder body, ExecutableElement method, AnnotationMirror annotation) {
+		if (support.isVoid(method.getReturnType()) || method.getReturnType().getKind().isPrimitive()) {
+			support.skip(type, "decorate method " + method.getSimpleName() + " must return an object type");
+			return false;
+		}
+		String returnType = support.typeName(method.getReturnType());
+		String options = "options" + (optionsCount++);
+		String decoratorId = (String) support.getAnnotationValue(annotation, "decoratorId");
+		body.append("\t\tcom.lazan.tinyioc.ServiceDecoratorOptions ").append(options).append(" = binder.decorate(")
+				.append(returnType).append(".class, ").append(support.literal(decoratorId))
+				.append(", new com.lazan.tinyioc.ServiceDecorator<").append(returnType).append(">() {\n");
+		body.append("\t\t\t@Override\n");
+		body.append("\t\t\tpublic ").append(returnType).append(" decorate(com.lazan.tinyioc.ServiceBuilderContext context, ")
+				.append(returnType).append(" delegate) {\n");
+		body.append("\t\t\t\tcom.lazan.tinyioc.ServiceRegistry registry = context.getServiceRegistry();\n");
+		List<String> args = new ArrayList<>();
+		for (VariableElement param : method.getParameters()) {
+			String paramType = support.typeName(param.asType());
+			String named = support.getNamed(param);
+			if (named != null) {
+				args.add("(" + paramType + ") (" + support.literal(named) + ".equals(context.getServiceId()) ? (Object) delegate : "
+						+ support.serviceExpression(param.asType(), named) + ")");
+			} else if (paramType.equals(returnType)) {
+				args.add("delegate");
+			} else {
+				args.add(support.serviceExpression(param.asType(), null));
+			}
+		}
+		appendInvoke(body, method, args, true);
+		body.append("\t\t\t}\n");
+		body.append("\t\t});\n");
+		String serviceId = (String) support.getAnnotationValue(annotation, "serviceId");
+		if (serviceId != null && !serviceId.isEmpty()) {
+			body.append("\t\t").append(options).append(".withServiceId(").append(support.literal(serviceId)).append(");\n");
+		}
+		appendOrdering(body, options, "before", support.getAnnotationValue(annotation, "before"));
+		appendOrdering(body, options, "after", support.getAnnotationValue(annotation, "after"));
+		return true;
+	}
+
+	private void appendOrdering(StringBuilder body, String options, String methodName, Object values) {
+		List<?> list = (List<?>) values;
+		if (list == null || list.isEmpty()) {
+			return;
+		}
+		body.append("\t\t").append(options).append(".").append(methodName).append("(");
+		for (int i = 0; i < list.size(); ++i) {
+			String value = (String) ((AnnotationValue) list.get(i)).getValue();
+			body.append(i == 0 ? "" : ", ").append(support.literal(value));
+		}
+		body.append(");\n");
+	}
+
+	private boolean appendContribute(StringBuilder body, ExecutableElement method, AnnotationMirror annotation) {
+		String serviceId = (String) support.getAnnotationValue(annotation, "serviceId");
+		TypeMirror serviceType = (TypeMirror) support.getAnnotationValue(annotation, "serviceType");
+		boolean hasServiceId = serviceId != null && !serviceId.isEmpty();
+		boolean hasServiceType = serviceType != null && !support.isVoid(serviceType);
+		if (hasServiceId == hasServiceType) {
+			support.skip(type, "contribute method " + method.getSimpleName() + " must have one of serviceId and serviceType");
+			return false;
+		}
+		String configurationType = null;
+		List<String> args = new ArrayList<>();
+		for (VariableElement param : method.getParameters()) {
+			String paramType = support.typeName(param.asType());
+			if (paramType.equals(ORDERED) || paramType.equals(UNORDERED) || paramType.equals(MAPPED)) {
+				if (configurationType != null || support.getNamed(param) != null) {
+					support.skip(type, "contribute method " + method.getSimpleName() + " has unsupported configuration parameters");
+					return false;
+				}
+				configurationType = paramType;
+				args.add("configuration");
+			} else {
+				args.add(support.serviceExpression(param.asType(), support.getNamed(param)));
+			}
+		}
+		if (configurationType == null) {
+			support.skip(type, "contribute method " + method.getSimpleName() + " has no configuration parameter");
+			return false;
+		}
+		String contributorType = configurationType.equals(ORDERED) ? "com.lazan.tinyioc.OrderedContributor"
+				: configurationType.equals(UNORDERED) ? "com.lazan.tinyioc.UnorderedContributor"
+				: "com.lazan.tinyioc.MappedContributor";
+		String target = hasServiceId ? support.literal(serviceId) : support.typeName(serviceType) + ".class";
+		body.append("\t\tbinder.contribute(").append(target).append(", new ").append(contributorType).append("() {\n");
+		body.append("\t\t\t@Override\n");
+		body.append("\t\t\tpublic void contribute(com.lazan.tinyioc.ServiceBuilderContext context, ")
+				.append(configurationType).append(" configuration) {\n");
+		body.append("\t\t\t\tcom.lazan.tinyioc.ServiceRegistry registry = context.getServiceRegistry();\n");
+		appendInvoke(body, method, args, false);
+		body.append("\t\t\t}\n");
+		body.append("\t\t});\n");
+		return true;
+	}
+
+	private void appendInvoke(StringBuilder body, ExecutableElement method, List<String> args, boolean returnValue) {
+		List<? extends VariableElement> params = method.getParameters();
+		for (int i = 0; i < args.size(); ++i) {
+			body.append("\t\t\t\t").append(support.typeName(params.get(i).asType())).append(" p").append(i)
+					.append(" = ").append(args.get(i)).append(";\n");
+		}
+		body.append("\t\t\t\ttry {\n");
+		body.append("\t\t\t\t\t").append(returnValue ? "return " : "").append(target(method)).append("(");
+		for (int i = 0; i < args.size(); ++i) {
+			body.append(i == 0 ? "" : ", ").append("p").append(i);
+		}
+		body.append(");\n");
+		body.append("\t\t\t\t} catch (Exception e) {\n");
+		body.append("\t\t\t\t\tthrow new com.lazan.tinyioc.IocException(e, \"Error building '%s'\", context.getServiceId());\n");
+		body.append("\t\t\t\t}\n");
+	}
+
+	private String target(ExecutableElement method) {
+		if (method.getModifiers().contains(Modifier.STATIC)) {
+			return support.getTypes().erasure(method.getEnclosingElement().asType()) + "." + method.getSimpleName();
+		}
+		return "module." + method.getSimpleName();
+	}
+
+	private boolean hasDefaultConstructor() {
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
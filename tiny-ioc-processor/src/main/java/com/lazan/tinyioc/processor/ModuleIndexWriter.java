@@ -0,0 +1,115 @@
+package com.lazan.tinyioc.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Collects the module types of every round and writes them, with their annotated methods, to
+ * {@value #RESOURCE} when processing is over. Each line holds a module's binary name followed by its
+ * annotated methods as {@code name(paramType,paramType)} using {@link Class#getName()} type names.
+ */
+class ModuleIndexWriter {
+	static final String RESOURCE = "META-INF/tiny-ioc/modules";
+
+	private final Map<String, String> lines = new LinkedHashMap<>();
+	private TypeElement firstOrigin;
+
+	void add(GeneratorSupport support, TypeElement type) {
+		if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT) || !support.isAccessible(type)) {
+			return;
+		}
+		String binaryName = support.getElements().getBinaryName(type).toString();
+		StringBuilder line = new StringBuilder(binaryName);
+		for (ExecutableElement method : ElementFilter.methodsIn(support.getElements().getAllMembers(type))) {
+			if (!method.getModifiers().contains(Modifier.PUBLIC) || !isAnnotated(support, method)) {
+				continue;
+			}
+			line.append(' ').append(method.getSimpleName()).append('(');
+			List<? extends VariableElement> params = method.getParameters();
+			for (int i = 0; i < params.size(); ++i) {
+				if (i > 0) {
+					line.append(',');
+				}
+				line.append(className(support, params.get(i).asType()));
+			}
+			line.append(')');
+		}
+		if (firstOrigin == null) {
+			firstOrigin = type;
+		}
+		lines.put(binaryName, line.toString());
+	}
+
+	void write(ProcessingEnvironment processingEnv) {
+		if (lines.isEmpty()) {
+			return;
+		}
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", RESOURCE, firstOrigin);
+			try (Writer writer = file.openWriter()) {
+				for (String line : lines.values()) {
+					writer.write(line);
+					writer.write('\n');
+				}
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Error writing " + RESOURCE + ": " + e);
+		}
+	}
+
+	private boolean isAnnotated(GeneratorSupport support, Element method) {
+		for (String annotationName : TinyIocProcessor.MODULE_ANNOTATIONS) {
+			if (support.getAnnotation(method, annotationName) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the erased type name as returned by {@link Class#getName()}
+	 */
+	private String className(GeneratorSupport support, TypeMirror type) {
+		TypeMirror erasure = support.getTypes().erasure(type);
+		if (erasure.getKind().isPrimitive()) {
+			return erasure.getKind().name().toLowerCase();
+		}
+		if (erasure instanceof ArrayType) {
+			return "[" + descriptor(support, ((ArrayType) erasure).getComponentType());
+		}
+		return support.getElements().getBinaryName((TypeElement) ((DeclaredType) erasure).asElement()).toString();
+	}
+
+	private String descriptor(GeneratorSupport support, TypeMirror type) {
+		switch (type.getKind()) {
+			case BOOLEAN: return "Z";
+			case BYTE: return "B";
+			case CHAR: return "C";
+			case SHORT: return "S";
+			case INT: return "I";
+			case LONG: return "J";
+			case FLOAT: return "F";
+			case DOUBLE: return "D";
+			case ARRAY: return "[" + descriptor(support, ((ArrayType) type).getComponentType());
+			default: return "L" + className(support, type) + ";";
+		}
+	}
+}
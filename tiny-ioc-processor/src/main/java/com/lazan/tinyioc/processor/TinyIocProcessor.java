@@ -0,0 +1,115 @@
+package com.lazan.tinyioc.processor;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+
+/**
+ * Generates reflection-free {@code ServiceBuilder} implementations for classes with
+ * {@code javax.inject.Inject} constructors or fields, {@code ServiceModule} implementations for
+ * module classes with {@code @Bind}, {@code @Service}, {@code @ServiceOverride}, {@code @Decorate} or
+ * {@code @Contribute} methods and lazy proxies for the interface types of {@code lazy = true} services.
+ * Module types and their annotated methods are also listed in a {@value ModuleIndexWriter#RESOURCE} index.
+ * Types which can't be handled without reflection (eg private injected fields) are skipped and fall back
+ * to the reflective implementations at runtime.
+ */
+public class TinyIocProcessor extends AbstractProcessor {
+	static final String INJECT = "javax.inject.Inject";
+	static final List<String> MODULE_ANNOTATIONS = Arrays.asList(
+			"com.lazan.tinyioc.annotations.Bind",
+			"com.lazan.tinyioc.annotations.Service",
+			"com.lazan.tinyioc.annotations.ServiceOverride",
+			"com.lazan.tinyioc.annotations.Decorate",
+			"com.lazan.tinyioc.annotations.Contribute");
+
+	static final List<String> LAZY_ANNOTATIONS = Arrays.asList(
+			"com.lazan.tinyioc.annotations.Service",
+			"com.lazan.tinyioc.annotations.ServiceOverride");
+
+	private final Set<String> generated = new LinkedHashSet<>();
+	private final ModuleIndexWriter moduleIndex = new ModuleIndexWriter();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		Set<String> types = new LinkedHashSet<>(MODULE_ANNOTATIONS);
+		types.add(INJECT);
+		return types;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			moduleIndex.write(processingEnv);
+			return false;
+		}
+		GeneratorSupport support = new GeneratorSupport(processingEnv);
+		Set<TypeElement> injectTypes = new LinkedHashSet<>();
+		Set<TypeElement> moduleTypes = new LinkedHashSet<>();
+		Set<TypeElement> lazyTypes = new LinkedHashSet<>();
+		for (TypeElement annotation : annotations) {
+			String annotationName = annotation.getQualifiedName().toString();
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				Element enclosing = element.getEnclosingElement();
+				if (enclosing == null || !(enclosing instanceof TypeElement)) {
+					continue;
+				}
+				if (INJECT.equals(annotationName)) {
+					if (element.getKind() == ElementKind.CONSTRUCTOR || element.getKind() == ElementKind.FIELD) {
+						injectTypes.add((TypeElement) enclosing);
+					}
+				} else if (element.getKind() == ElementKind.METHOD) {
+					moduleTypes.add((TypeElement) enclosing);
+					TypeElement lazyType = getLazyType(support, (ExecutableElement) element, annotationName);
+					if (lazyType != null) {
+						lazyTypes.add(lazyType);
+					}
+				}
+			}
+		}
+		for (TypeElement type : injectTypes) {
+			if (generated.add(type.getQualifiedName() + "#builder")) {
+				new BuilderGenerator(support, type).generate();
+			}
+		}
+		for (TypeElement type : moduleTypes) {
+			if (generated.add(type.getQualifiedName() + "#module")) {
+				new ModuleGenerator(support, type).generate();
+				moduleIndex.add(support, type);
+			}
+		}
+		for (TypeElement type : lazyTypes) {
+			if (generated.add(type.getQualifiedName() + "#lazy")) {
+				new LazyProxyGenerator(support, type).generate();
+			}
+		}
+		return false;
+	}
+
+	private TypeElement getLazyType(GeneratorSupport support, ExecutableElement method, String annotationName) {
+		if (!LAZY_ANNOTATIONS.contains(annotationName)) {
+			return null;
+		}
+		AnnotationMirror annotation = support.getAnnotation(method, annotationName);
+		if (!(Boolean) support.getAnnotationValue(annotation, "lazy") || method.getReturnType().getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		return (TypeElement) ((DeclaredType) method.getReturnType()).asElement();
+	}
+}
@@ -0,0 +1,571 @@
+package com.lazan.tinyioc.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.inject.Provider;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lazan.tinyioc.IocException;
+import com.lazan.tinyioc.ServiceBinder;
+import com.lazan.tinyioc.ServiceModule;
+import com.lazan.tinyioc.ServiceRegistry;
+import com.lazan.tinyioc.ServiceRegistryBuilder;
+import com.lazan.tinyioc.internal.GeneratedTypes;
+import com.lazan.tinyioc.internal.ModuleIndex;
+import com.lazan.tinyioc.internal.StaticDependencies;
+
+public class TinyIocProcessorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String GREETER =
+			"package sample;\n" +
+			"import javax.inject.Inject;\n" +
+			"import javax.inject.Named;\n" +
+			"public class Greeter {\n" +
+			"	private final String greeting;\n" +
+			"	@Inject @Named(\"name\") String name;\n" +
+			"	@Inject @Named(\"name\") javax.inject.Provider<String> nameProvider;\n" +
+			"	@Inject\n" +
+			"	public Greeter(@Named(\"greeting\") String greeting) { this.greeting = greeting; }\n" +
+			"	public Greeter() { this(null); }\n" +
+			"	public String greet() { return greeting + \" \" + name + nameProvider.get().length(); }\n" +
+			"}\n";
+
+	private static final String PRIVATE_FIELD =
+			"package sample;\n" +
+			"import javax.inject.Inject;\n" +
+			"public class PrivateField {\n" +
+			"	@Inject @javax.inject.Named(\"greeting\") private String value;\n" +
+			"	public String getValue() { return value; }\n" +
+			"}\n";
+
+	private static final String SHOUTER =
+			"package sample;\n" +
+			"public interface Shouter {\n" +
+			"	String shout(String... words) throws java.io.IOException;\n" +
+			"	default void ignore() {}\n" +
+			"}\n";
+
+	private static final String MODULE =
+			"package sample;\n" +
+			"import java.util.List;\n" +
+			"import javax.inject.Named;\n" +
+			"import com.lazan.tinyioc.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class SampleModule {\n" +
+			"	@Bind\n" +
+			"	public static void bind(ServiceBinder binder) {\n" +
+			"		binder.bind(Greeter.class);\n" +
+			"		binder.bind(PrivateField.class);\n" +
+			"		binder.bind(String.class, \"world\").withServiceId(\"name\");\n" +
+			"	}\n" +
+			"	@Service(serviceId=\"greeting\", scope=ServiceScope.PROTOTYPE)\n" +
+			"	public String greeting(List<String> parts) { return String.join(\"\", parts); }\n" +
+			"	@Contribute(serviceId=\"greeting\")\n" +
+			"	public void contributeGreeting(OrderedConfiguration<String> config) {\n" +
+			"		config.add(\"b\", \"llo\");\n" +
+			"		config.add(\"a\", \"he\").before(\"b\");\n" +
+			"	}\n" +
+			"	@Service(lazy=true)\n" +
+			"	public Shouter shouter() { return words -> String.join(\" \", words).toUpperCase(); }\n" +
+			"	@Decorate(serviceId=\"name\", decoratorId=\"upper\")\n" +
+			"	public String upper(@Named(\"name\") String delegate) { return delegate.toUpperCase(); }\n" +
+			"}\n";
+
+	private static final String ENGINE =
+			"package sample;\n" +
+			"public class Engine {}\n";
+
+	private static final String VEHICLE =
+			"package sample;\n" +
+			"import javax.inject.Inject;\n" +
+			"public abstract class Vehicle {\n" +
+			"	@Inject Engine engine;\n" +
+			"	public Engine getEngine() { return engine; }\n" +
+			"}\n";
+
+	private static final String CAR =
+			"package sample;\n" +
+			"import javax.inject.Inject;\n" +
+			"import javax.inject.Named;\n" +
+			"public class Car extends Vehicle {\n" +
+			"	@Inject @Named(\"model\") public String model;\n" +
+			"	public final Engine spare;\n" +
+			"	public Car(Engine spare) { this.spare = spare; }\n" +
+			"}\n";
+
+	private static final String STATIC_FIELD =
+			"package sample;\n" +
+			"import javax.inject.Inject;\n" +
+			"public class StaticField {\n" +
+			"	@Inject public static Engine engine;\n" +
+			"}\n";
+
+	private static final String CAR_MODULE =
+			"package sample;\n" +
+			"import com.lazan.tinyioc.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class CarModule {\n" +
+			"	@Bind\n" +
+			"	public static void bind(ServiceBinder binder) {\n" +
+			"		binder.bind(Engine.class);\n" +
+			"		binder.bind(Car.class);\n" +
+			"		binder.bind(String.class, \"roadster\").withServiceId(\"model\");\n" +
+			"	}\n" +
+			"}\n";
+
+	private static final String SCOPED_MODULE =
+			"package sample;\n" +
+			"import com.lazan.tinyioc.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class ScopedModule {\n" +
+			"	@Service(serviceId=\"singleton\")\n" +
+			"	public static Engine singleton() { return new Engine(); }\n" +
+			"	@Service(serviceId=\"prototype\", scope=ServiceScope.PROTOTYPE)\n" +
+			"	public static Engine prototype() { return new Engine(); }\n" +
+			"	@Service(serviceId=\"perThread\", scope=ServiceScope.PER_THREAD)\n" +
+			"	public static Engine perThread() { return new Engine(); }\n" +
+			"}\n";
+
+	private static final String REPOSITORY =
+			"package sample;\n" +
+			"public interface Repository<T> {\n" +
+			"	T find(String id);\n" +
+			"}\n";
+
+	private static final String CONVERTER =
+			"package sample;\n" +
+			"public interface Converter {\n" +
+			"	<T> T convert(Object value, Class<T> type);\n" +
+			"}\n";
+
+	private static final String LAZY_MODULE =
+			"package sample;\n" +
+			"import com.lazan.tinyioc.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class LazyModule {\n" +
+			"	public static int built;\n" +
+			"	@Service(serviceId=\"repository\", lazy=true)\n" +
+			"	public static Repository<String> repository() { ++built; return id -> \"found \" + id; }\n" +
+			"	@Service(lazy=true)\n" +
+			"	public static Converter converter() {\n" +
+			"		++built;\n" +
+			"		return new Converter() {\n" +
+			"			public <T> T convert(Object value, Class<T> type) { return type.cast(value); }\n" +
+			"		};\n" +
+			"	}\n" +
+			"}\n";
+
+	private static final String HANDLER =
+			"package sample;\n" +
+			"public interface Handler<T> {\n" +
+			"	void handle(T value);\n" +
+			"	T last();\n" +
+			"	java.util.List<T> all(T... values);\n" +
+			"}\n";
+
+	private static final String STRING_HANDLER =
+			"package sample;\n" +
+			"public interface StringHandler extends Handler<String> {\n" +
+			"	void handle(String value);\n" +
+			"}\n";
+
+	private static final String HANDLER_MODULE =
+			"package sample;\n" +
+			"import java.util.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class HandlerModule {\n" +
+			"	@Service(lazy=true)\n" +
+			"	public static StringHandler stringHandler() {\n" +
+			"		return new StringHandler() {\n" +
+			"			private String last;\n" +
+			"			public void handle(String value) { last = value; }\n" +
+			"			public String last() { return last; }\n" +
+			"			public List<String> all(String... values) { return Arrays.asList(values); }\n" +
+			"		};\n" +
+			"	}\n" +
+			"}\n";
+
+	private static final String GARAGE =
+			"package sample;\n" +
+			"import java.util.function.Supplier;\n" +
+			"import javax.inject.Named;\n" +
+			"import javax.inject.Provider;\n" +
+			"public class Garage {\n" +
+			"	public final Supplier<Engine> engines;\n" +
+			"	public final Provider<Engine> namedEngines;\n" +
+			"	public Garage(Supplier<Engine> engines, @Named(\"engine\") Provider<Engine> namedEngines) {\n" +
+			"		this.engines = engines;\n" +
+			"		this.namedEngines = namedEngines;\n" +
+			"	}\n" +
+			"}\n";
+
+	private static final String RAW_PROVIDER =
+			"package sample;\n" +
+			"public class RawProvider {\n" +
+			"	public RawProvider(javax.inject.Provider provider) {}\n" +
+			"}\n";
+
+	private static final String PROVIDER_MODULE =
+			"package sample;\n" +
+			"import javax.inject.Provider;\n" +
+			"import com.lazan.tinyioc.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class ProviderModule {\n" +
+			"	@Bind\n" +
+			"	public static void bind(ServiceBinder binder) {\n" +
+			"		binder.bind(Engine.class).withServiceId(\"engine\").withScope(ServiceScope.PROTOTYPE);\n" +
+			"		binder.bind(Garage.class);\n" +
+			"		binder.bind(RawProvider.class);\n" +
+			"	}\n" +
+			"	@Service(serviceId=\"description\")\n" +
+			"	public static String description(Provider<Engine> engines) {\n" +
+			"		return engines.get() == engines.get() ? \"singleton\" : \"prototype\";\n" +
+			"	}\n" +
+			"}\n";
+
+	private static final String CHICKEN =
+			"package sample;\n" +
+			"public class Chicken {\n" +
+			"	public Chicken(Egg egg) {}\n" +
+			"}\n";
+
+	private static final String EGG =
+			"package sample;\n" +
+			"public class Egg {\n" +
+			"	public Egg(Chicken chicken) {}\n" +
+			"}\n";
+
+	private static final String HEN =
+			"package sample;\n" +
+			"public class Hen {\n" +
+			"	public final javax.inject.Provider<Nest> nest;\n" +
+			"	public Hen(javax.inject.Provider<Nest> nest) { this.nest = nest; }\n" +
+			"}\n";
+
+	private static final String NEST =
+			"package sample;\n" +
+			"public class Nest {\n" +
+			"	public final Hen hen;\n" +
+			"	public Nest(Hen hen) { this.hen = hen; }\n" +
+			"}\n";
+
+	private static final String CYCLE_MODULE =
+			"package sample;\n" +
+			"import com.lazan.tinyioc.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class CycleModule {\n" +
+			"	@Bind\n" +
+			"	public static void bind(ServiceBinder binder) {\n" +
+			"		binder.bind(Chicken.class);\n" +
+			"		binder.bind(Egg.class);\n" +
+			"	}\n" +
+			"}\n";
+
+	private static final String MISSING_MODULE =
+			"package sample;\n" +
+			"import javax.inject.Named;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class MissingModule {\n" +
+			"	@Service(serviceId=\"size\")\n" +
+			"	public static Integer size(@Named(\"unknown\") String value) { return value.length(); }\n" +
+			"}\n";
+
+	private static final String PROVIDER_CYCLE_MODULE =
+			"package sample;\n" +
+			"import com.lazan.tinyioc.*;\n" +
+			"import com.lazan.tinyioc.annotations.*;\n" +
+			"public class ProviderCycleModule {\n" +
+			"	@Bind\n" +
+			"	public static void bind(ServiceBinder binder) {\n" +
+			"		binder.bind(Hen.class);\n" +
+			"		binder.bind(Nest.class);\n" +
+			"	}\n" +
+			"}\n";
+
+	private static final String BROKEN =
+			"package sample;\n" +
+			"import javax.inject.Inject;\n" +
+			"public class Broken {\n" +
+			"	@Inject\n" +
+			"	public Broken(@javax.inject.Named(\"reason\") String reason) {\n" +
+			"		if (reason.equals(\"ioc\")) throw new com.lazan.tinyioc.IocException(\"broken\");\n" +
+			"		throw new IllegalStateException(reason);\n" +
+			"	}\n" +
+			"}\n";
+
+	private final List<String> notes = new ArrayList<>();
+
+	@Test
+	public void testGeneratedCode() throws Exception {
+		ClassLoader classLoader = compile("Greeter", GREETER, "PrivateField", PRIVATE_FIELD, "Shouter", SHOUTER, "SampleModule", MODULE);
+		Class<?> greeterType = classLoader.loadClass("sample.Greeter");
+		Class<?> privateFieldType = classLoader.loadClass("sample.PrivateField");
+		Class<?> moduleType = classLoader.loadClass("sample.SampleModule");
+
+		assertTrue(GeneratedTypes.createServiceModule(moduleType).getClass().getName().endsWith(GeneratedTypes.MODULE_SUFFIX));
+		assertTrue(GeneratedTypes.createServiceBuilder(greeterType).getClass().getName().endsWith(GeneratedTypes.BUILDER_SUFFIX));
+		assertFalse(GeneratedTypes.createServiceBuilder(privateFieldType).getClass().getName().endsWith(GeneratedTypes.BUILDER_SUFFIX));
+		assertEquals("[java.lang.String 'greeting', java.lang.String 'name', Provider<java.lang.String> 'name']",
+				((StaticDependencies) GeneratedTypes.createServiceBuilder(greeterType)).getDependencies().toString());
+
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(moduleType).build();
+		Object greeter = registry.getService(greeterType);
+		assertEquals("hello WORLD5", greeterType.getMethod("greet").invoke(greeter));
+		Object privateField = registry.getService(privateFieldType);
+		assertEquals("hello", privateFieldType.getMethod("getValue").invoke(privateField));
+		Class<?> shouterType = classLoader.loadClass("sample.Shouter");
+		Object shouter = registry.getService(shouterType);
+		assertTrue(shouter.getClass().getName().endsWith(GeneratedTypes.LAZY_SUFFIX));
+		assertEquals("HI THERE", shouterType.getMethod("shout", String[].class).invoke(shouter, (Object) new String[] { "hi", "there" }));
+	}
+
+	@Test
+	public void testModuleIndex() throws Exception {
+		ClassLoader classLoader = compile("Greeter", GREETER, "PrivateField", PRIVATE_FIELD, "Shouter", SHOUTER, "SampleModule", MODULE);
+		URL index = classLoader.getResource(ModuleIndex.RESOURCE);
+		String line = new String(Files.readAllBytes(new File(index.toURI()).toPath()), StandardCharsets.UTF_8).trim();
+		assertEquals("sample.SampleModule bind(com.lazan.tinyioc.ServiceBinder) greeting(java.util.List) "
+				+ "contributeGreeting(com.lazan.tinyioc.OrderedConfiguration) shouter() upper(java.lang.String)", line);
+
+		ServiceRegistry registry = new ServiceRegistryBuilder().withIndexedModules(classLoader).build();
+		Class<?> greeterType = classLoader.loadClass("sample.Greeter");
+		assertEquals("hello WORLD5", greeterType.getMethod("greet").invoke(registry.getService(greeterType)));
+	}
+
+	@Test
+	public void testBuilderFieldInjection() throws Exception {
+		ClassLoader classLoader = compile("Engine", ENGINE, "Vehicle", VEHICLE, "Car", CAR, "StaticField", STATIC_FIELD, "CarModule", CAR_MODULE);
+		Class<?> carType = classLoader.loadClass("sample.Car");
+		Object builder = GeneratedTypes.createServiceBuilder(carType);
+		assertTrue(builder.getClass().getName().endsWith(GeneratedTypes.BUILDER_SUFFIX));
+		assertEquals("[sample.Engine, java.lang.String 'model', sample.Engine]", ((StaticDependencies) builder).getDependencies().toString());
+		assertTrue(generatedSource(classLoader, "sample.Car", GeneratedTypes.BUILDER_SUFFIX)
+				.contains("((sample.Vehicle) service).engine = registry.getService(sample.Engine.class);"));
+
+		assertNull(classLoader.getResource("sample/Vehicle" + GeneratedTypes.BUILDER_SUFFIX + ".class"));
+		assertTrue(notes.contains("tiny-ioc: not generating code for sample.Vehicle, type is not a concrete class"));
+		assertNull(classLoader.getResource("sample/StaticField" + GeneratedTypes.BUILDER_SUFFIX + ".class"));
+		assertTrue(notes.contains("tiny-ioc: not generating code for sample.StaticField, field StaticField.engine is not accessible"));
+
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(classLoader.loadClass("sample.CarModule")).build();
+		Object car = registry.getService(carType);
+		Object engine = registry.getService(classLoader.loadClass("sample.Engine"));
+		assertSame(engine, carType.getMethod("getEngine").invoke(car));
+		assertSame(engine, carType.getField("spare").get(car));
+		assertEquals("roadster", carType.getField("model").get(car));
+	}
+
+	@Test
+	public void testGeneratedScopes() throws Exception {
+		ClassLoader classLoader = compile("Engine", ENGINE, "ScopedModule", SCOPED_MODULE);
+		String source = generatedSource(classLoader, "sample.ScopedModule", GeneratedTypes.MODULE_SUFFIX);
+		assertTrue(source.contains(".withScope(com.lazan.tinyioc.ServiceScope.PROTOTYPE);"));
+		assertTrue(source.contains(".withScope(com.lazan.tinyioc.ServiceScope.PER_THREAD);"));
+		assertFalse(source.contains("SINGLETON"));
+
+		final Class<?> engineType = classLoader.loadClass("sample.Engine");
+		final ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(classLoader.loadClass("sample.ScopedModule")).build();
+		assertSame(registry.getService("singleton", engineType), registry.getService("singleton", engineType));
+		assertNotSame(registry.getService("prototype", engineType), registry.getService("prototype", engineType));
+		Object perThread = registry.getService("perThread", engineType);
+		assertSame(perThread, registry.getService("perThread", engineType));
+		FutureTask<Object> otherThread = new FutureTask<>(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return registry.getService("perThread", engineType);
+			}
+		});
+		new Thread(otherThread).start();
+		assertNotSame(perThread, otherThread.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLazyProxyNotGenerated() throws Exception {
+		ClassLoader classLoader = compile("Repository", REPOSITORY, "Converter", CONVERTER, "LazyModule", LAZY_MODULE);
+		assertNull(classLoader.getResource("sample/Repository" + GeneratedTypes.LAZY_SUFFIX + ".class"));
+		assertTrue(notes.contains("tiny-ioc: not generating code for sample.Repository, type is generic"));
+		assertNull(classLoader.getResource("sample/Converter" + GeneratedTypes.LAZY_SUFFIX + ".class"));
+		assertTrue(notes.contains("tiny-ioc: not generating code for sample.Converter, method convert is generic"));
+
+		// the lazy services fall back to a reflective proxy
+		Class<?> moduleType = classLoader.loadClass("sample.LazyModule");
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(moduleType).build();
+		Class<?> repositoryType = classLoader.loadClass("sample.Repository");
+		Class<?> converterType = classLoader.loadClass("sample.Converter");
+		Object repository = registry.getService("repository", repositoryType);
+		Object converter = registry.getService(converterType);
+		assertTrue(Proxy.isProxyClass(repository.getClass()));
+		assertTrue(Proxy.isProxyClass(converter.getClass()));
+		assertEquals(0, moduleType.getField("built").get(null));
+		assertEquals("found x", repositoryType.getMethod("find", String.class).invoke(repository, "x"));
+		assertEquals("y", converterType.getMethod("convert", Object.class, Class.class).invoke(converter, "y", String.class));
+		assertEquals(2, moduleType.getField("built").get(null));
+	}
+
+	@Test
+	public void testLazyProxyGenericSuperInterface() throws Exception {
+		ClassLoader classLoader = compile("Handler", HANDLER, "StringHandler", STRING_HANDLER, "HandlerModule", HANDLER_MODULE);
+		String source = generatedSource(classLoader, "sample.StringHandler", GeneratedTypes.LAZY_SUFFIX);
+		assertTrue(source, source.contains("public java.lang.String last()"));
+		assertTrue(source, source.contains("public java.util.List all(java.lang.String... p0)"));
+		assertFalse(source, source.contains("java.lang.Object"));
+
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(classLoader.loadClass("sample.HandlerModule")).build();
+		Class<?> handlerType = classLoader.loadClass("sample.StringHandler");
+		Object handler = registry.getService(handlerType);
+		assertTrue(handler.getClass().getName().endsWith(GeneratedTypes.LAZY_SUFFIX));
+		handlerType.getMethod("handle", String.class).invoke(handler, "x");
+		assertEquals("x", handlerType.getMethod("last").invoke(handler));
+		assertEquals(Arrays.asList("a", "b"), handlerType.getMethod("all", Object[].class).invoke(handler, (Object) new String[] { "a", "b" }));
+	}
+
+	@Test
+	public void testProviderParameters() throws Exception {
+		ClassLoader classLoader = compile("Engine", ENGINE, "Garage", GARAGE, "RawProvider", RAW_PROVIDER, "ProviderModule", PROVIDER_MODULE);
+		Class<?> garageType = classLoader.loadClass("sample.Garage");
+		Class<?> rawProviderType = classLoader.loadClass("sample.RawProvider");
+		assertEquals("[Provider<sample.Engine>, Provider<sample.Engine> 'engine']",
+				((StaticDependencies) GeneratedTypes.createServiceBuilder(garageType)).getDependencies().toString());
+		assertEquals("[]", ((StaticDependencies) GeneratedTypes.createServiceBuilder(rawProviderType)).getDependencies().toString());
+		assertTrue(generatedSource(classLoader, "sample.ProviderModule", GeneratedTypes.MODULE_SUFFIX)
+				.contains("com.lazan.tinyioc.internal.ServiceProvider.create(registry, null, sample.Engine.class)"));
+
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(classLoader.loadClass("sample.ProviderModule")).build();
+		Object garage = registry.getService(garageType);
+		Supplier<?> engines = (Supplier<?>) garageType.getField("engines").get(garage);
+		Provider<?> namedEngines = (Provider<?>) garageType.getField("namedEngines").get(garage);
+		assertNotSame(engines.get(), engines.get());
+		assertNotSame(namedEngines.get(), namedEngines.get());
+		assertEquals("prototype", registry.getService("description", String.class));
+		try {
+			registry.getService(rawProviderType);
+			fail();
+		} catch (IocException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Provider and Supplier injection requires a type argument"));
+		}
+	}
+
+	@Test
+	public void testConstructorExceptions() throws Exception {
+		ClassLoader classLoader = compile("Broken", BROKEN);
+		final Class<?> brokenType = classLoader.loadClass("sample.Broken");
+		assertNotNull(GeneratedTypes.createServiceBuilder(brokenType));
+		for (final String reason : Arrays.asList("ioc", "state")) {
+			ServiceRegistry registry = new ServiceRegistryBuilder().withModule(new ServiceModule() {
+				@Override
+				public void bind(ServiceBinder binder) {
+					binder.bind(brokenType);
+					binder.bind(String.class, reason).withServiceId("reason");
+				}
+			}).build();
+			try {
+				registry.getService("broken");
+				fail();
+			} catch (IocException e) {
+				// the same exception as InjectionServiceBuilder throws
+				if (reason.equals("ioc")) {
+					assertEquals("broken", e.getMessage());
+					assertNull(e.getCause());
+				} else {
+					assertEquals("Error building service 'broken'", e.getMessage());
+					assertTrue(e.getCause() instanceof IllegalStateException);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStaticDependencyValidation() throws Exception {
+		ClassLoader classLoader = compile("Chicken", CHICKEN, "Egg", EGG, "Hen", HEN, "Nest", NEST,
+				"CycleModule", CYCLE_MODULE, "MissingModule", MISSING_MODULE, "ProviderCycleModule", PROVIDER_CYCLE_MODULE);
+		try {
+			new ServiceRegistryBuilder().withModuleType(classLoader.loadClass("sample.CycleModule")).build();
+			fail();
+		} catch (IocException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Circular dependency reference detected"));
+		}
+		try {
+			new ServiceRegistryBuilder().withModuleType(classLoader.loadClass("sample.MissingModule")).build();
+			fail();
+		} catch (IocException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Unresolved dependency java.lang.String 'unknown' of serviceId 'size'"));
+		}
+
+		// a Provider doesn't build its service with the dependent
+		ServiceRegistry registry = new ServiceRegistryBuilder().withModuleType(classLoader.loadClass("sample.ProviderCycleModule")).build();
+		Class<?> henType = classLoader.loadClass("sample.Hen");
+		Class<?> nestType = classLoader.loadClass("sample.Nest");
+		Object hen = registry.getService(henType);
+		Object nest = ((Provider<?>) henType.getField("nest").get(hen)).get();
+		assertSame(hen, nestType.getField("hen").get(nest));
+	}
+
+	private ClassLoader compile(String... namesAndSources) throws IOException {
+		File sourceDir = new File(folder.newFolder(), "sample");
+		File classesDir = folder.newFolder();
+		assertTrue(sourceDir.mkdir());
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			File[] sourceFiles = new File[namesAndSources.length / 2];
+			for (int i = 0; i < sourceFiles.length; ++i) {
+				sourceFiles[i] = new File(sourceDir, namesAndSources[i * 2] + ".java");
+				Files.write(sourceFiles[i].toPath(), namesAndSources[i * 2 + 1].getBytes(StandardCharsets.UTF_8));
+			}
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjects(sourceFiles);
+			List<String> options = Arrays.asList(
+					"-classpath", System.getProperty("java.class.path"),
+					"-processor", TinyIocProcessor.class.getName(),
+					"-d", classesDir.getAbsolutePath());
+			boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+				notes.add(diagnostic.getMessage(null));
+			}
+			assertTrue("Compilation failed " + notes, success);
+		}
+		return new URLClassLoader(new URL[] { classesDir.toURI().toURL() }, getClass().getClassLoader());
+	}
+
+	/**
+	 * @return the source generated for a type, written alongside the classes
+	 */
+	private String generatedSource(ClassLoader classLoader, String typeName, String suffix) throws Exception {
+		URL source = classLoader.getResource(typeName.replace('.', '/') + suffix + ".java");
+		assertNotNull(typeName + suffix, source);
+		return new String(Files.readAllBytes(new File(source.toURI()).toPath()), StandardCharsets.UTF_8);
+	}
+}